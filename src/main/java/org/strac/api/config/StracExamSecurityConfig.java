@@ -1,26 +1,71 @@
 package org.strac.api.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.annotation.Order;
 import org.springframework.http.HttpMethod;
+import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.crypto.factory.PasswordEncoderFactories;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.strac.api.filter.GoogleAccessTokenAuthenticationFilter;
+import org.strac.api.filter.RemoteAddressRateLimiter;
 import org.strac.service.config.StracExamServiceConfig;
-import org.strac.dao.token.GoogleAccessTokenValidatorDao;
+import org.strac.service.token.GoogleAccessTokenValidationService;
+import org.strac.service.token.SessionTokenService;
 
 @EnableWebSecurity
 @EnableGlobalMethodSecurity(prePostEnabled = true)
 @Configuration
 @Import({StracExamServiceConfig.class})
 public class StracExamSecurityConfig {
+    private static final String METRICS_SCRAPER_ROLE = "METRICS_SCRAPER";
+
+    /**
+     * Actuator endpoints get their own chain: health stays public for probes, while Prometheus scrapes authenticate
+     * with HTTP basic against a dedicated credential and can't use a user's Google token.
+     * Without strac.metrics.scrape-password the Prometheus endpoint is closed.
+     */
     @Bean
+    @Order(1)
+    public SecurityFilterChain actuatorSecurityFilterChain(HttpSecurity http,
+                                                           @Value("${strac.metrics.scrape-username:prometheus}") String scrapeUsername,
+                                                           @Value("${strac.metrics.scrape-password:}") String scrapePassword) throws Exception {
+        http
+                .securityMatcher("/actuator/**")
+                .csrf(AbstractHttpConfigurer::disable)
+                .authorizeHttpRequests(auth -> {
+                    auth.requestMatchers(HttpMethod.GET, "/actuator/health", "/actuator/health/**").permitAll();
+                    if (scrapePassword.isEmpty()) {
+                        auth.anyRequest().denyAll();
+                    } else {
+                        auth.requestMatchers(HttpMethod.GET, "/actuator/prometheus").hasRole(METRICS_SCRAPER_ROLE)
+                                .anyRequest().denyAll();
+                    }
+                })
+                .httpBasic(Customizer.withDefaults())
+                .userDetailsService(new InMemoryUserDetailsManager(User.withUsername(scrapeUsername)
+                        .password(PasswordEncoderFactories.createDelegatingPasswordEncoder().encode(scrapePassword))
+                        .roles(METRICS_SCRAPER_ROLE)
+                        .build()))
+                .sessionManagement(session -> session
+                        .sessionCreationPolicy(SessionCreationPolicy.STATELESS)
+                );
+
+        return http.build();
+    }
+
+    @Bean
+    @Order(2)
     public SecurityFilterChain securityFilterChain(HttpSecurity http, GoogleAccessTokenAuthenticationFilter googleAccessTokenAuthenticationFilter) throws Exception {
         http
                 .csrf(AbstractHttpConfigurer::disable)
@@ -40,7 +85,20 @@ public class StracExamSecurityConfig {
     }
 
     @Bean
-    public GoogleAccessTokenAuthenticationFilter googleAccessTokenAuthenticationFilter(GoogleAccessTokenValidatorDao googleAccessTokenValidatorDao) {
-        return new GoogleAccessTokenAuthenticationFilter(googleAccessTokenValidatorDao);
+    public GoogleAccessTokenAuthenticationFilter googleAccessTokenAuthenticationFilter(
+            GoogleAccessTokenValidationService googleAccessTokenValidationService,
+            SessionTokenService sessionTokenService,
+            RemoteAddressRateLimiter remoteAddressRateLimiter,
+            @Value("${strac.auth.session-token.enabled:false}") boolean sessionTokenAuthEnabled) {
+        return new GoogleAccessTokenAuthenticationFilter(googleAccessTokenValidationService, sessionTokenService,
+                remoteAddressRateLimiter, sessionTokenAuthEnabled);
+    }
+
+    @Bean
+    public RemoteAddressRateLimiter remoteAddressRateLimiter(
+            @Value("${strac.auth.rate-limit.capacity:20}") int capacity,
+            @Value("${strac.auth.rate-limit.refill-per-second:5}") double refillPerSecond,
+            @Value("${strac.auth.rate-limit.max-clients:10000}") int maxClients) {
+        return new RemoteAddressRateLimiter(capacity, refillPerSecond, maxClients);
     }
 }
@@ -0,0 +1,18 @@
+package org.strac.api.config;
+
+import org.springframework.boot.task.ThreadPoolTaskExecutorBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class StracExamWebConfig {
+    /**
+     * Executor MVC runs streaming responses on, sized by spring.task.execution.pool.*.
+     * Declared here because Spring Boot only creates its own when the context has no other Executor bean.
+     */
+    @Bean(name = {"applicationTaskExecutor", "taskExecutor"})
+    public ThreadPoolTaskExecutor applicationTaskExecutor(ThreadPoolTaskExecutorBuilder threadPoolTaskExecutorBuilder) {
+        return threadPoolTaskExecutorBuilder.build();
+    }
+}
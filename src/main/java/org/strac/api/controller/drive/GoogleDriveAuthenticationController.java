@@ -5,12 +5,19 @@ import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeTokenRequest;
 import com.google.api.client.googleapis.auth.oauth2.GoogleTokenResponse;
 import com.google.gson.Gson;
+import io.jsonwebtoken.Claims;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 import org.strac.model.CredentialsResource;
-import org.strac.dao.token.GoogleAccessTokenRefreshDao;
+import org.strac.model.GoogleAccessTokenInfo;
+import org.strac.model.RefreshedAccessToken;
+import org.strac.service.token.GoogleAccessTokenRefreshService;
+import org.strac.service.token.GoogleAccessTokenValidationService;
+import org.strac.service.token.GoogleIdTokenVerificationService;
+import org.strac.service.token.SessionTokenService;
 
 import java.io.IOException;
+import java.time.Instant;
 
 @RestController
 @RequestMapping("/oauth2")
@@ -25,7 +32,16 @@ public class GoogleDriveAuthenticationController {
     private String redirectUri;
 
     @Autowired
-    private GoogleAccessTokenRefreshDao googleAccessTokenRefreshDao;
+    private GoogleAccessTokenRefreshService googleAccessTokenRefreshService;
+
+    @Autowired
+    private GoogleAccessTokenValidationService googleAccessTokenValidationService;
+
+    @Autowired
+    private GoogleIdTokenVerificationService googleIdTokenVerificationService;
+
+    @Autowired
+    private SessionTokenService sessionTokenService;
 
     @GetMapping("/auth")
     public String authorizeUser() {
@@ -41,7 +57,24 @@ public class GoogleDriveAuthenticationController {
             GoogleTokenResponse googleTokenResponse = googleAuthorizationCodeTokenRequest
                     .setRedirectUri(redirectUri)
                     .execute();
-            CredentialsResource credentialsResource = new CredentialsResource(googleTokenResponse.getAccessToken(), googleTokenResponse.getRefreshToken());
+
+            // The ID token is verified locally against Google's signing keys to learn who the session belongs to
+            String subject = null;
+            if (googleTokenResponse.getIdToken() != null) {
+                Claims idTokenClaims = googleIdTokenVerificationService.verifyIdToken(googleTokenResponse.getIdToken());
+                subject = idTokenClaims != null ? idTokenClaims.getSubject() : null;
+            }
+            Instant accessTokenExpiresAt = googleTokenResponse.getExpiresInSeconds() != null
+                    ? Instant.now().plusSeconds(googleTokenResponse.getExpiresInSeconds())
+                    : null;
+            if (accessTokenExpiresAt != null) {
+                // Google just issued this token, so the first request made with it doesn't need tokeninfo
+                googleAccessTokenValidationService.cacheValidToken(googleTokenResponse.getAccessToken(),
+                        new GoogleAccessTokenInfo(subject, googleTokenResponse.getScope(), accessTokenExpiresAt));
+            }
+            String sessionToken = sessionTokenService.issueSessionToken(googleTokenResponse.getAccessToken(), subject, accessTokenExpiresAt);
+
+            CredentialsResource credentialsResource = new CredentialsResource(googleTokenResponse.getAccessToken(), googleTokenResponse.getRefreshToken(), sessionToken);
             return gson.toJson(credentialsResource);
         } catch (IOException e) {
             throw new RuntimeException("Error during OAuth 2.0 callback handling", e);
@@ -55,8 +88,10 @@ public class GoogleDriveAuthenticationController {
             trimmedRefreshToken = refreshToken.substring(7);
         }
 
-        String newAccessToken = googleAccessTokenRefreshDao.refreshAccessToken(trimmedRefreshToken);
-        CredentialsResource credentialsResource = new CredentialsResource(newAccessToken, trimmedRefreshToken);
+        RefreshedAccessToken refreshedAccessToken = googleAccessTokenRefreshService.refreshAccessToken(trimmedRefreshToken);
+        String sessionToken = sessionTokenService.issueSessionToken(refreshedAccessToken.getAccessToken(), null,
+                refreshedAccessToken.getExpiresAt());
+        CredentialsResource credentialsResource = new CredentialsResource(refreshedAccessToken.getAccessToken(), trimmedRefreshToken, sessionToken);
         return gson.toJson(credentialsResource);
     }
 }
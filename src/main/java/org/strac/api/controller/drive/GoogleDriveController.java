@@ -2,20 +2,35 @@ package org.strac.api.controller.drive;
 
 import com.google.api.services.drive.model.File;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.strac.api.http.ByteRangeResponses;
+import org.strac.api.http.ConditionalResponses;
+import org.strac.dao.DriveExportFormats;
+import org.strac.service.drive.FolderArchive;
 import org.strac.service.drive.GoogleDriveService;
+import org.strac.service.file.ArchiveFormat;
+import org.strac.service.file.ZipCompressionPolicy;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/api/drive")
 public class GoogleDriveController {
+    private static final MediaType ZIP_MEDIA_TYPE = MediaType.parseMediaType(ArchiveFormat.ZIP.getMediaType());
 
     @Autowired
     private GoogleDriveService googleDriveService;
@@ -52,25 +67,82 @@ public class GoogleDriveController {
     }
 
     /**
-     * Download a file from Google Drive and serve it over HTTP.
+     * Download a file from Google Drive and stream it over HTTP.
+     * Bytes are passed through to the client as Drive sends them, so heap use does not depend on file size.
+     * Binary files support single and multiple byte ranges, which are fetched from Drive as ranges too.
+     * Google Workspace files are exported, in the requested format if one is given.
+     * Responses carry an ETag and Last-Modified, and a client whose copy is current gets a 304 without the file being fetched.
      *
-     * @param fileId      The ID of the file to download.
-     * @param accessToken The access token extracted from the SecurityContext.
-     * @return The file as a ResponseEntity with binary data.
+     * @param fileId          The ID of the file to download.
+     * @param format          The export format for Google Workspace files, e.g. "docx" or "csv" (optional).
+     * @param rangeHeader     The Range header of the request (optional).
+     * @param ifNoneMatch     The If-None-Match header of the request (optional).
+     * @param ifModifiedSince The If-Modified-Since header of the request (optional).
+     * @param ifRange         The If-Range header of the request, the ranges are only served if it matches the file (optional).
+     * @param accessToken     The access token extracted from the SecurityContext.
+     * @return The file, or the requested ranges of it, as a streamed ResponseEntity.
      */
     @GetMapping("/download/file")
-    public ResponseEntity<byte[]> downloadFile(@RequestParam("fileId") String fileId,
-                                               @AuthenticationPrincipal String accessToken) {
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            googleDriveService.downloadFileToStream(accessToken, fileId, outputStream);
+    public ResponseEntity<StreamingResponseBody> downloadFile(@RequestParam("fileId") String fileId,
+                                                              @RequestParam(value = "format", required = false) String format,
+                                                              @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+                                                              @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                              @RequestHeader(value = HttpHeaders.IF_MODIFIED_SINCE, required = false) String ifModifiedSince,
+                                                              @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+                                                              @AuthenticationPrincipal String accessToken) {
+        try {
+            File metadata = googleDriveService.getFileMetadata(accessToken, fileId);
+            boolean isWorkspaceFile = metadata != null && DriveExportFormats.isGoogleWorkspaceFile(metadata.getMimeType());
+            boolean isRequestedExport = isWorkspaceFile && format != null;
+
+            String exportMimeType = null;
+            if (isRequestedExport) {
+                exportMimeType = DriveExportFormats.getExportMimeType(metadata.getMimeType(), format);
+                if (exportMimeType == null) {
+                    return ResponseEntity.badRequest().body(errorBody("Unsupported export format: " + format + ", expected one of "
+                            + DriveExportFormats.getExportFormats(metadata.getMimeType())));
+                }
+            } else if (isWorkspaceFile) {
+                exportMimeType = DriveExportFormats.getExportMimeType(metadata.getMimeType());
+            }
 
             // Prepare HTTP headers
             HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileId + "\"");
-            headers.add(HttpHeaders.CONTENT_TYPE, "application/octet-stream");
 
-            // Return the file as a response
-            return new ResponseEntity<>(outputStream.toByteArray(), headers, HttpStatus.OK);
+            // The metadata is all that's needed to tell whether the client's copy is current
+            String eTag = getETag(metadata, exportMimeType);
+            // Only Drive's md5 pins the exact bytes, exports are regenerated on every request and may differ
+            boolean weakETag = exportMimeType != null || metadata == null || metadata.getMd5Checksum() == null;
+            Long lastModified = metadata != null && metadata.getModifiedTime() != null ? metadata.getModifiedTime().getValue() : null;
+            ConditionalResponses.setValidators(headers, eTag, weakETag, lastModified);
+            if (ConditionalResponses.isNotModified(ifNoneMatch, ifModifiedSince, eTag, lastModified)) {
+                return ConditionalResponses.notModified(headers);
+            }
+
+            headers.setContentDisposition(attachment(getDownloadFileName(fileId, metadata, exportMimeType)));
+
+            if (isRequestedExport) {
+                String requestedMimeType = exportMimeType;
+                headers.add(HttpHeaders.CONTENT_TYPE, requestedMimeType);
+                StreamingResponseBody body = outputStream ->
+                        googleDriveService.exportFileToStream(accessToken, fileId, requestedMimeType, outputStream);
+                return new ResponseEntity<>(body, headers, HttpStatus.OK);
+            }
+
+            // Stream the file straight from Drive to the client
+            StreamingResponseBody body = outputStream -> googleDriveService.downloadFileToStream(accessToken, fileId, outputStream);
+
+            if (metadata != null && metadata.getSize() != null && !isWorkspaceFile) {
+                // Binary files have a known size, so ranges can be served, unless the client's partial copy is outdated
+                String applicableRange = ConditionalResponses.isRangeApplicable(ifRange, eTag, weakETag, lastModified) ? rangeHeader : null;
+                return ByteRangeResponses.respond(applicableRange, metadata.getSize(), getDownloadContentType(metadata, null), headers, body,
+                        (firstBytePos, lastBytePos, outputStream) ->
+                                googleDriveService.downloadFileRangeToStream(accessToken, fileId, firstBytePos, lastBytePos, outputStream));
+            }
+
+            // Exports have no known size until they are generated
+            headers.add(HttpHeaders.CONTENT_TYPE, getDownloadContentType(metadata, exportMimeType));
+            return new ResponseEntity<>(body, headers, HttpStatus.OK);
         } catch (Exception e) {
             // Log error
             System.err.println("Error downloading file: " + e.getMessage());
@@ -78,35 +150,91 @@ public class GoogleDriveController {
 
             // Return error response
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Error downloading file: " + e.getMessage()).getBytes());
+                    .body(errorBody("Error downloading file: " + e.getMessage()));
         }
     }
 
-
     /**
-     * Download a folder from Google Drive and serve it as a zipped stream over HTTP.
+     * Download a folder from Google Drive and serve it as an archive streamed over HTTP.
+     * The archive is a zip unless the format parameter or the Accept header asks for a tar, tar.gz or tar.zst.
+     * Entries are written straight to the response as their content arrives from Drive.
+     * In a zip already compressed files are stored, the others are deflated at the requested level,
+     * a compressed tar is compressed as a whole at that level.
+     * An archive built from the same tree before is served from disk, with support for Range requests unless the tree
+     * has Google Workspace files, whose exports may come out different on a rebuild.
+     * At compression level 0 a folder without Google Workspace files gets a stored zip of precomputed length,
+     * so it has a Content-Length and any range of it is generated on the fly.
      *
-     * @param folderId    The ID of the folder to download.
-     * @param accessToken The access token extracted from the SecurityContext.
-     * @return The folder as a zipped ResponseEntity.
+     * @param folderId         The ID of the folder to download.
+     * @param compressionLevel The compression level from 0 (store everything) to 9 (smallest archive) (optional).
+     * @param format           The archive format: zip, tar, tar.gz or tar.zst, overriding the Accept header (optional).
+     * @param accept           The Accept header, naming the archive's media type if there is no format (optional).
+     * @param rangeHeader      The Range header, honoured for cached and stored archives (optional).
+     * @param ifNoneMatch      The If-None-Match header, answered with a 304 if the folder's tree is unchanged (optional).
+     * @param ifRange          The If-Range header, the ranges are only served if it matches the current archive (optional).
+     * @param accessToken      The access token extracted from the SecurityContext.
+     * @return The folder as an archived, streamed ResponseEntity.
      */
     @GetMapping("/download/folder")
-    public ResponseEntity<byte[]> downloadFolder(@RequestParam("folderId") String folderId,
-                                                 @AuthenticationPrincipal String accessToken) {
-        try (ByteArrayOutputStream zipOutputStream = new ByteArrayOutputStream()) {
-            // Stream folder contents as a ZIP to the output stream
-            googleDriveService.downloadFolderAsStream(accessToken, folderId, zipOutputStream);
+    public ResponseEntity<StreamingResponseBody> downloadFolder(@RequestParam("folderId") String folderId,
+                                                                @RequestParam(value = "compressionLevel", required = false) Integer compressionLevel,
+                                                                @RequestParam(value = "format", required = false) String format,
+                                                                @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                                @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+                                                                @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                                @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+                                                                @AuthenticationPrincipal String accessToken) {
+        if (compressionLevel != null
+                && (compressionLevel < ZipCompressionPolicy.MIN_LEVEL || compressionLevel > ZipCompressionPolicy.MAX_LEVEL)) {
+            return ResponseEntity.badRequest().body(errorBody("Unsupported compression level: " + compressionLevel
+                    + ", expected " + ZipCompressionPolicy.MIN_LEVEL + " to " + ZipCompressionPolicy.MAX_LEVEL));
+        }
+        ZipCompressionPolicy compressionPolicy = compressionLevel == null
+                ? ZipCompressionPolicy.DEFAULT : ZipCompressionPolicy.withLevel(compressionLevel);
+        ArchiveFormat archiveFormat = format == null ? getAcceptedArchiveFormat(accept) : ArchiveFormat.fromExtension(format);
+        if (archiveFormat == null) {
+            return ResponseEntity.badRequest().body(errorBody("Unsupported archive format: " + format
+                    + ", expected one of " + ArchiveFormat.getExtensions()));
+        }
+
+        try {
+            // Listing the tree tells which archive it builds, before any file is downloaded
+            FolderArchive archive = googleDriveService.prepareFolderArchive(accessToken, folderId, archiveFormat, compressionPolicy);
 
             // Prepare HTTP headers
             HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"folder.zip\"");
-            headers.add(HttpHeaders.CONTENT_TYPE, "application/zip");
+            // A tree of binary files always builds the same archive, so its fingerprint, which covers the format, is a strong
+            // entity tag. Workspace files are exported afresh on each build, so with those it only identifies the tree
+            boolean weakETag = !archive.isDeterministic();
+            ConditionalResponses.setValidators(headers, archive.getFingerprint(), weakETag, null);
+            headers.setVary(List.of(HttpHeaders.ACCEPT));
+            if (ConditionalResponses.isNotModified(ifNoneMatch, null, archive.getFingerprint(), null)) {
+                return ConditionalResponses.notModified(headers);
+            }
+            headers.setContentDisposition(attachment("folder." + archiveFormat.getExtension()));
+
+            StreamingResponseBody body = outputStream -> googleDriveService.writeFolderArchiveToStream(accessToken, archive, outputStream);
+            if (archive.getContentLength() >= 0 && archive.isDeterministic()) {
+                // Only a cached archive or a stored zip has a known size, so only those can be resumed, and only if a
+                // rebuild after the cached copy is evicted would write the same bytes
+                String applicableRange = ConditionalResponses.isRangeApplicable(ifRange, archive.getFingerprint(), weakETag, null)
+                        ? rangeHeader : null;
+                return ByteRangeResponses.respond(applicableRange, archive.getContentLength(), archiveFormat.getMediaType(), headers, body,
+                        (firstBytePos, lastBytePos, outputStream) ->
+                                googleDriveService.writeFolderArchiveRangeToStream(accessToken, archive, firstBytePos, lastBytePos, outputStream));
+            }
 
-            // Return the zipped folder as a response
-            return new ResponseEntity<>(zipOutputStream.toByteArray(), headers, HttpStatus.OK);
+            // The status is committed with the first entry, so a failure part way through aborts the response
+            headers.add(HttpHeaders.CONTENT_TYPE, archiveFormat.getMediaType());
+            return new ResponseEntity<>(body, headers, HttpStatus.OK);
         } catch (Exception e) {
+            // Log error
+            System.err.println("Error downloading folder: " + e.getMessage());
+            e.printStackTrace();
+
+            // Return error response
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Error downloading folder: " + e.getMessage()).getBytes());
+                    .body(errorBody("Error downloading folder: " + e.getMessage()));
         }
     }
 
@@ -121,4 +249,89 @@ public class GoogleDriveController {
                            @AuthenticationPrincipal String accessToken) {
         googleDriveService.deleteFile(accessToken, fileId);
     }
+
+    private ArchiveFormat getAcceptedArchiveFormat(String accept) {
+        if (accept == null) {
+            return ArchiveFormat.ZIP;
+        }
+        List<MediaType> mediaTypes;
+        try {
+            mediaTypes = new ArrayList<>(MediaType.parseMediaTypes(accept));
+        } catch (InvalidMediaTypeException e) {
+            return ArchiveFormat.ZIP;
+        }
+        Set<ArchiveFormat> refusedFormats = EnumSet.noneOf(ArchiveFormat.class);
+        for (MediaType mediaType : mediaTypes) {
+            ArchiveFormat format = ArchiveFormat.fromMediaType(mediaType.toString());
+            if (format != null && mediaType.getQualityValue() == 0) {
+                refusedFormats.add(format);
+            }
+        }
+
+        // Most preferred first, keeping the listed order between equally preferred types
+        mediaTypes.sort(Comparator.comparingDouble(MediaType::getQualityValue).reversed());
+        for (MediaType mediaType : mediaTypes) {
+            if (mediaType.getQualityValue() == 0) {
+                break;
+            }
+            ArchiveFormat acceptedFormat = ArchiveFormat.fromMediaType(mediaType.toString());
+            if (acceptedFormat != null && !refusedFormats.contains(acceptedFormat)) {
+                return acceptedFormat;
+            }
+            if (mediaType.isWildcardSubtype() && mediaType.includes(ZIP_MEDIA_TYPE)) {
+                // A range like */* covers every format, so the first one not refused, zip unless it is
+                for (ArchiveFormat format : ArchiveFormat.values()) {
+                    if (!refusedFormats.contains(format)) {
+                        return format;
+                    }
+                }
+            }
+        }
+        return ArchiveFormat.ZIP;
+    }
+
+    private String getDownloadFileName(String fileId, File metadata, String exportMimeType) {
+        if (metadata == null || metadata.getName() == null) {
+            return fileId;
+        }
+        String extension = DriveExportFormats.getFileExtension(exportMimeType);
+        return extension == null ? metadata.getName() : metadata.getName() + "." + extension;
+    }
+
+    private String getETag(File metadata, String exportMimeType) {
+        if (metadata == null) {
+            return null;
+        }
+        if (exportMimeType != null) {
+            // Each export format of a revision is a different representation
+            return metadata.getModifiedTime() == null ? null
+                    : metadata.getModifiedTime().getValue() + "-" + DriveExportFormats.getFileExtension(exportMimeType);
+        }
+        if (metadata.getMd5Checksum() != null) {
+            return metadata.getMd5Checksum();
+        }
+        return metadata.getVersion() == null ? null : "v" + metadata.getVersion();
+    }
+
+    private String getDownloadContentType(File metadata, String exportMimeType) {
+        if (metadata == null || metadata.getMimeType() == null) {
+            return MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        }
+        if (DriveExportFormats.isGoogleWorkspaceFile(metadata.getMimeType())) {
+            return exportMimeType != null ? exportMimeType : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        }
+        return metadata.getMimeType();
+    }
+
+    private ContentDisposition attachment(String fileName) {
+        // Non-ASCII names are sent RFC 5987 encoded
+        boolean isAscii = StandardCharsets.US_ASCII.newEncoder().canEncode(fileName);
+        return isAscii
+                ? ContentDisposition.attachment().filename(fileName).build()
+                : ContentDisposition.attachment().filename(fileName, StandardCharsets.UTF_8).build();
+    }
+
+    private StreamingResponseBody errorBody(String message) {
+        return outputStream -> outputStream.write(message.getBytes(StandardCharsets.UTF_8));
+    }
 }
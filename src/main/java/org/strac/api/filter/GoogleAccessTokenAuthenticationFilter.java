@@ -4,12 +4,15 @@ import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
-import org.strac.dao.token.GoogleAccessTokenValidatorDao;
+import org.strac.service.token.GoogleAccessTokenValidationService;
+import org.strac.service.token.SessionTokenService;
 
 import java.io.IOException;
 import java.util.Collections;
@@ -17,17 +20,28 @@ import java.util.List;
 
 @Component
 public class GoogleAccessTokenAuthenticationFilter extends OncePerRequestFilter {
-    private final GoogleAccessTokenValidatorDao googleAccessTokenValidatorDao;
+    private final GoogleAccessTokenValidationService googleAccessTokenValidationService;
+    private final SessionTokenService sessionTokenService;
+    private final RemoteAddressRateLimiter remoteAddressRateLimiter;
+    // When enabled, session JWTs issued by this backend are verified locally without calling Google
+    private final boolean sessionTokenAuthEnabled;
 
-    public GoogleAccessTokenAuthenticationFilter(GoogleAccessTokenValidatorDao googleAccessTokenValidatorDao) {
-        this.googleAccessTokenValidatorDao = googleAccessTokenValidatorDao;
+    public GoogleAccessTokenAuthenticationFilter(GoogleAccessTokenValidationService googleAccessTokenValidationService,
+                                                 SessionTokenService sessionTokenService,
+                                                 RemoteAddressRateLimiter remoteAddressRateLimiter,
+                                                 boolean sessionTokenAuthEnabled) {
+        this.googleAccessTokenValidationService = googleAccessTokenValidationService;
+        this.sessionTokenService = sessionTokenService;
+        this.remoteAddressRateLimiter = remoteAddressRateLimiter;
+        this.sessionTokenAuthEnabled = sessionTokenAuthEnabled;
     }
 
     // Define excluded paths that should skip validation
     private final List<String> excludedPaths = List.of(
             "/test",
             "/oauth2",
-            "/oauth2/"
+            "/oauth2/",
+            "/actuator/health"
     );
 
     @Override
@@ -46,11 +60,20 @@ public class GoogleAccessTokenAuthenticationFilter extends OncePerRequestFilter
         String authHeader = request.getHeader("Authorization");
 
         if (authHeader != null && authHeader.startsWith("Bearer ")) {
-            String accessToken = authHeader.substring(7); // Remove "Bearer " prefix
+            String bearerToken = authHeader.substring(7); // Remove "Bearer " prefix
+
+            // Tokens that would need a tokeninfo call are rate limited per client, so a client stuck
+            // retrying with a bad token can't make us hammer Google. Behind a trusted proxy the remote address is
+            // already the forwarded client address, see server.forward-headers-strategy
+            if (requiresUpstreamValidation(bearerToken) && !remoteAddressRateLimiter.tryAcquire(request.getRemoteAddr())) {
+                response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+                response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+                return;
+            }
+
             try {
-                // Validate the Google API access token using the service
-                boolean isValid = googleAccessTokenValidatorDao.validateGoogleAccessToken(accessToken);
-                if (isValid) {
+                String accessToken = resolveAccessToken(bearerToken);
+                if (accessToken != null) {
                     // If token is valid, proceed with authentication
                     UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
                             accessToken,
@@ -63,7 +86,7 @@ public class GoogleAccessTokenAuthenticationFilter extends OncePerRequestFilter
                     SecurityContextHolder.getContext().setAuthentication(authentication);
                 } else {
                     // If invalid, log the issue and proceed without authentication
-                    System.err.println("Invalid Google access token.");
+                    System.err.println("Invalid Google access token or session token.");
                 }
             } catch (Exception e) {
                 // Log token validation errors and proceed without authentication
@@ -74,4 +97,32 @@ public class GoogleAccessTokenAuthenticationFilter extends OncePerRequestFilter
         // Continue the filter chain
         filterChain.doFilter(request, response);
     }
+
+    /**
+     * Resolve the Google access token a bearer token stands for.
+     *
+     * @param bearerToken The token from the Authorization header.
+     * @return The Google access token, or null if the bearer token is invalid.
+     */
+    private String resolveAccessToken(String bearerToken) {
+        if (sessionTokenAuthEnabled && isJwt(bearerToken)) {
+            // Decrypted and verified locally with our session token key, no network call
+            return sessionTokenService.verifySessionToken(bearerToken);
+        }
+
+        // Fall back to the opaque access token path, skipping tokeninfo when the result is cached
+        return googleAccessTokenValidationService.validateAccessToken(bearerToken) ? bearerToken : null;
+    }
+
+    private boolean requiresUpstreamValidation(String bearerToken) {
+        if (sessionTokenAuthEnabled && isJwt(bearerToken)) {
+            return false;
+        }
+        return !googleAccessTokenValidationService.isValidationCached(bearerToken);
+    }
+
+    private boolean isJwt(String token) {
+        // Compact JWE session tokens have five dot separated parts, Google access tokens have none
+        return token.chars().filter(c -> c == '.').count() == 4;
+    }
 }
@@ -0,0 +1,74 @@
+package org.strac.api.filter;
+
+import org.strac.cache.ExpiringLruCache;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Token bucket rate limiter keyed by the client's remote address.
+ * Each client may burst up to the bucket capacity, after which it is limited to the refill rate.
+ */
+public class RemoteAddressRateLimiter {
+    private final int capacity;
+    private final double refillPerSecond;
+    private final Clock clock;
+    // Buckets of clients that have been idle long enough to be full again can be forgotten
+    private final ExpiringLruCache<String, TokenBucket> buckets;
+    private final Duration bucketIdleTtl;
+
+    public RemoteAddressRateLimiter(int capacity, double refillPerSecond, int maxClients) {
+        this(capacity, refillPerSecond, maxClients, Clock.systemUTC());
+    }
+
+    public RemoteAddressRateLimiter(int capacity, double refillPerSecond, int maxClients, Clock clock) {
+        this.capacity = capacity;
+        this.refillPerSecond = refillPerSecond;
+        this.clock = clock;
+        this.buckets = new ExpiringLruCache<>(maxClients, clock);
+        this.bucketIdleTtl = Duration.ofMillis((long) Math.ceil(capacity / refillPerSecond * 1000));
+    }
+
+    /**
+     * Take a token from the client's bucket.
+     *
+     * @param remoteAddress The client's remote address.
+     * @return True if the client is within its rate, false if the request should be rejected.
+     */
+    public boolean tryAcquire(String remoteAddress) {
+        Instant now = clock.instant();
+        TokenBucket bucket;
+        synchronized (buckets) {
+            bucket = buckets.get(remoteAddress);
+            if (bucket == null) {
+                bucket = new TokenBucket(capacity, now);
+            }
+            buckets.put(remoteAddress, bucket, now.plus(bucketIdleTtl));
+        }
+        return bucket.tryAcquire(now);
+    }
+
+    private class TokenBucket {
+        private double tokens;
+        private Instant lastRefill;
+
+        private TokenBucket(double tokens, Instant lastRefill) {
+            this.tokens = tokens;
+            this.lastRefill = lastRefill;
+        }
+
+        private synchronized boolean tryAcquire(Instant now) {
+            double elapsedSeconds = Duration.between(lastRefill, now).toNanos() / 1_000_000_000.0;
+            if (elapsedSeconds > 0) {
+                tokens = Math.min(capacity, tokens + elapsedSeconds * refillPerSecond);
+                lastRefill = now;
+            }
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+    }
+}
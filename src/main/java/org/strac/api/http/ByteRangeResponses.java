@@ -0,0 +1,163 @@
+package org.strac.api.http;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Builds streamed responses that honour the HTTP Range header (RFC 9110), for content whose length is known.
+ * Single ranges are answered with a plain 206, multiple ranges with a multipart/byteranges 206.
+ * Overlapping and adjacent ranges are coalesced, and a Range header asking for more bytes in total than the content
+ * holds is ignored, so a request can't make us send the same bytes many times over.
+ */
+public final class ByteRangeResponses {
+
+    private ByteRangeResponses() {
+    }
+
+    @FunctionalInterface
+    public interface RangeWriter {
+        /**
+         * Write a byte range of the content.
+         *
+         * @param firstBytePos The position of the first byte to write.
+         * @param lastBytePos  The position of the last byte to write, inclusive.
+         * @param outputStream The stream to write to.
+         * @throws IOException If writing fails.
+         */
+        void writeRange(long firstBytePos, long lastBytePos, OutputStream outputStream) throws IOException;
+    }
+
+    /**
+     * Build a response for the requested ranges of the content.
+     *
+     * @param rangeHeader   The request's Range header (optional).
+     * @param contentLength The total length of the content.
+     * @param contentType   The content's MIME type.
+     * @param headers       Headers to send with the response, e.g. Content-Disposition.
+     * @param fullBody      Writes the whole content, used when no range was requested.
+     * @param rangeWriter   Writes a single range of the content.
+     * @return A 200, 206 or 416 response.
+     */
+    public static ResponseEntity<StreamingResponseBody> respond(String rangeHeader, long contentLength, String contentType,
+                                                                HttpHeaders headers, StreamingResponseBody fullBody,
+                                                                RangeWriter rangeWriter) {
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        List<long[]> ranges = rangeHeader == null ? null : resolveRanges(rangeHeader, contentLength);
+        if (ranges == null) {
+            // No (usable) Range header, send everything
+            headers.set(HttpHeaders.CONTENT_TYPE, contentType);
+            headers.setContentLength(contentLength);
+            return new ResponseEntity<>(fullBody, headers, HttpStatus.OK);
+        }
+
+        if (ranges.isEmpty()) {
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + contentLength);
+            return new ResponseEntity<>(outputStream -> { }, headers, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        }
+
+        if (ranges.size() == 1) {
+            long first = ranges.get(0)[0];
+            long last = ranges.get(0)[1];
+            headers.set(HttpHeaders.CONTENT_TYPE, contentType);
+            headers.set(HttpHeaders.CONTENT_RANGE, contentRange(first, last, contentLength));
+            headers.setContentLength(last - first + 1);
+            return new ResponseEntity<>(outputStream -> rangeWriter.writeRange(first, last, outputStream),
+                    headers, HttpStatus.PARTIAL_CONTENT);
+        }
+
+        String boundary = UUID.randomUUID().toString();
+        List<byte[]> partHeaders = new ArrayList<>();
+        long multipartLength = 0;
+        for (long[] range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(range[0], range[1], contentLength) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            multipartLength += partHeader.length + range[1] - range[0] + 1;
+        }
+        byte[] closingBoundary = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        multipartLength += closingBoundary.length;
+
+        headers.set(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+        headers.setContentLength(multipartLength);
+        StreamingResponseBody body = outputStream -> {
+            for (int i = 0; i < ranges.size(); i++) {
+                outputStream.write(partHeaders.get(i));
+                rangeWriter.writeRange(ranges.get(i)[0], ranges.get(i)[1], outputStream);
+            }
+            outputStream.write(closingBoundary);
+        };
+        return new ResponseEntity<>(body, headers, HttpStatus.PARTIAL_CONTENT);
+    }
+
+    /**
+     * Resolve a Range header against the content length.
+     *
+     * @return The satisfiable ranges as inclusive [first, last] pairs, sorted and with overlapping or adjacent ranges
+     * merged, an empty list if none are satisfiable, or null if the header can't be parsed or asks for more bytes than
+     * the content holds and should be ignored.
+     */
+    private static List<long[]> resolveRanges(String rangeHeader, long contentLength) {
+        List<HttpRange> httpRanges;
+        try {
+            httpRanges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (httpRanges.isEmpty()) {
+            return null;
+        }
+
+        List<long[]> ranges = new ArrayList<>();
+        long requestedLength = 0;
+        for (HttpRange httpRange : httpRanges) {
+            try {
+                long first = httpRange.getRangeStart(contentLength);
+                long last = httpRange.getRangeEnd(contentLength);
+                if (first <= last) {
+                    ranges.add(new long[]{first, last});
+                    requestedLength += last - first + 1;
+                }
+            } catch (IllegalArgumentException e) {
+                // Unsatisfiable range, e.g. starting past the end of the content
+            }
+        }
+        if (requestedLength > contentLength) {
+            // Heavily overlapping ranges, answer with the content once instead
+            return null;
+        }
+        return coalesce(ranges);
+    }
+
+    // RFC 9110 section 14.2 lets a server merge ranges that overlap or are separated by no gap
+    private static List<long[]> coalesce(List<long[]> ranges) {
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        List<long[]> coalesced = new ArrayList<>();
+        for (long[] range : ranges) {
+            long[] previous = coalesced.isEmpty() ? null : coalesced.get(coalesced.size() - 1);
+            if (previous != null && range[0] <= previous[1] + 1) {
+                previous[1] = Math.max(previous[1], range[1]);
+            } else {
+                coalesced.add(range);
+            }
+        }
+        return coalesced;
+    }
+
+    private static String contentRange(long first, long last, long contentLength) {
+        return "bytes " + first + "-" + last + "/" + contentLength;
+    }
+}
@@ -0,0 +1,119 @@
+package org.strac.api.http;
+
+import org.springframework.http.ETag;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Answers conditional GETs (RFC 9110 If-None-Match, If-Modified-Since and If-Range) from the content's validators,
+ * so clients that already have the current content get a 304 instead of the content again.
+ */
+public final class ConditionalResponses {
+
+    private ConditionalResponses() {
+    }
+
+    /**
+     * Add the content's validators to the response headers.
+     * Responses must be revalidated before reuse and are private to the user, as the content is only served to its owner.
+     *
+     * @param headers      The response headers.
+     * @param eTag         The content's entity tag, unquoted (optional).
+     * @param weakETag     Whether the entity tag is weak, i.e. the same tag may stand for different bytes.
+     * @param lastModified The content's modification time in epoch milliseconds (optional).
+     */
+    public static void setValidators(HttpHeaders headers, String eTag, boolean weakETag, Long lastModified) {
+        if (eTag != null) {
+            headers.setETag(new ETag(eTag, weakETag).formattedTag());
+        }
+        if (lastModified != null) {
+            headers.setLastModified(lastModified);
+        }
+        headers.setCacheControl("private, no-cache");
+    }
+
+    /**
+     * Check whether the client's copy of the content is current.
+     * If-None-Match takes precedence over If-Modified-Since, which is only used when no If-None-Match was sent.
+     *
+     * @param ifNoneMatch     The request's If-None-Match header (optional).
+     * @param ifModifiedSince The request's If-Modified-Since header (optional).
+     * @param eTag            The content's entity tag, unquoted (optional).
+     * @param lastModified    The content's modification time in epoch milliseconds (optional).
+     * @return True if a 304 should be sent instead of the content.
+     */
+    public static boolean isNotModified(String ifNoneMatch, String ifModifiedSince, String eTag, Long lastModified) {
+        if (ifNoneMatch != null) {
+            if (eTag == null) {
+                return false;
+            }
+            // If-None-Match uses the weak comparison, so W/"x" matches "x"
+            for (ETag requested : ETag.parse(ifNoneMatch)) {
+                if (requested.isWildcard() || requested.tag().equals(eTag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        if (ifModifiedSince != null && lastModified != null) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                // HTTP dates have second precision
+                return lastModified / 1000 <= since / 1000;
+            } catch (DateTimeParseException e) {
+                // An invalid date is ignored
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether a Range header still applies to the content, given the request's If-Range header.
+     * A client resuming a download sends the validator of its partial copy, and gets the whole content if that changed.
+     *
+     * @param ifRange      The request's If-Range header (optional).
+     * @param eTag         The content's entity tag, unquoted (optional).
+     * @param weakETag     Whether the entity tag is weak.
+     * @param lastModified The content's modification time in epoch milliseconds (optional).
+     * @return True if the requested ranges should be served, false if the whole content should be.
+     */
+    public static boolean isRangeApplicable(String ifRange, String eTag, boolean weakETag, Long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        String validator = ifRange.trim();
+        if (validator.startsWith("\"") || validator.startsWith("W/")) {
+            // If-Range uses the strong comparison, so a weak tag never matches, on either side
+            return eTag != null && !weakETag && !validator.startsWith("W/")
+                    && validator.equals(new ETag(eTag, false).formattedTag());
+        }
+
+        if (lastModified == null) {
+            return false;
+        }
+        try {
+            long date = ZonedDateTime.parse(validator, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return lastModified / 1000 == date / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Build a 304 response, carrying the validators already set on the headers.
+     *
+     * @param headers The response headers, with validators.
+     * @return A bodiless 304 response.
+     */
+    public static ResponseEntity<StreamingResponseBody> notModified(HttpHeaders headers) {
+        return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+    }
+}
@@ -0,0 +1,257 @@
+package org.strac.cache;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.TeeOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bounded cache of file contents on local disk. When the cache is over its size cap the least recently
+ * used entries are deleted. Entries are filled while their content is streamed to the first caller and only
+ * become visible once complete, through an atomic move of the temp file they were written to.
+ */
+public class DiskLruContentCache {
+    private static final String CONTENT_SUFFIX = ".bin";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxBytes;
+    // Entry file names in access order, with their sizes
+    private final LinkedHashMap<String, Long> entrySizes = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> fillingEntries = new HashSet<>();
+    private long totalBytes;
+
+    /**
+     * Open a cache in a directory, keeping entries left there by a previous run.
+     *
+     * @param directory The directory to store entries in, created if missing.
+     * @param maxBytes  The most bytes kept on disk.
+     * @throws IOException If the directory can't be created or read.
+     */
+    public DiskLruContentCache(Path directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        loadExistingEntries();
+    }
+
+    /**
+     * Write a cached entry to the stream, transferring straight from the file channel.
+     *
+     * @param key          The key of the entry.
+     * @param outputStream The stream to write the content to.
+     * @return True if the entry was cached and written, false if it is not cached.
+     * @throws IOException If writing to the stream fails.
+     */
+    public boolean serve(String key, OutputStream outputStream) throws IOException {
+        return transfer(key, 0, -1, outputStream);
+    }
+
+    /**
+     * Write a byte range of a cached entry to the stream, transferring straight from the file channel.
+     *
+     * @param key          The key of the entry.
+     * @param firstBytePos The position of the first byte to write.
+     * @param lastBytePos  The position of the last byte to write, inclusive.
+     * @param outputStream The stream to write the bytes to.
+     * @return True if the entry was cached and the range written, false if it is not cached.
+     * @throws IOException If writing to the stream fails.
+     */
+    public boolean serveRange(String key, long firstBytePos, long lastBytePos, OutputStream outputStream) throws IOException {
+        return transfer(key, firstBytePos, lastBytePos, outputStream);
+    }
+
+    /**
+     * Get the size of a cached entry, counting as a use of it.
+     *
+     * @param key The key of the entry.
+     * @return The size in bytes, or -1 if the entry is not cached.
+     */
+    public synchronized long length(String key) {
+        Long size = entrySizes.get(entryName(key));
+        return size == null ? -1 : size;
+    }
+
+    private boolean transfer(String key, long firstBytePos, long lastBytePos, OutputStream outputStream) throws IOException {
+        String entryName = entryName(key);
+        FileChannel channel;
+        synchronized (this) {
+            if (entrySizes.get(entryName) == null) {
+                return false;
+            }
+            try {
+                // Opened under the lock so eviction can't delete the file first; once open, a delete doesn't affect the read
+                channel = FileChannel.open(directory.resolve(entryName), StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                // Removed behind our back
+                totalBytes -= entrySizes.remove(entryName);
+                return false;
+            }
+        }
+
+        try (channel) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long end = lastBytePos < 0 ? channel.size() : Math.min(lastBytePos + 1, channel.size());
+            long position = firstBytePos;
+            while (position < end) {
+                position += channel.transferTo(position, end - position, target);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write content to the stream while also storing it under the key.
+     * If another caller is already filling the same key, the content is only written to the stream.
+     * Nothing is stored if the writer fails.
+     *
+     * @param key           The key of the entry.
+     * @param contentWriter Writes the content.
+     * @param outputStream  The stream to write the content to.
+     * @throws IOException If the writer or the stream fails.
+     */
+    public void fill(String key, ContentWriter contentWriter, OutputStream outputStream) throws IOException {
+        String entryName = entryName(key);
+        boolean filling;
+        synchronized (this) {
+            filling = fillingEntries.add(entryName);
+        }
+        if (!filling) {
+            contentWriter.writeTo(outputStream);
+            return;
+        }
+
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(directory, entryName, TEMP_SUFFIX);
+            try (OutputStream fileOutputStream = Files.newOutputStream(tempFile)) {
+                contentWriter.writeTo(new TeeOutputStream(CloseShieldOutputStream.wrap(outputStream), fileOutputStream));
+            }
+
+            long size = Files.size(tempFile);
+            if (size > maxBytes) {
+                return;
+            }
+            Files.move(tempFile, directory.resolve(entryName), StandardCopyOption.ATOMIC_MOVE);
+            tempFile = null;
+            synchronized (this) {
+                Long previousSize = entrySizes.put(entryName, size);
+                totalBytes += size - (previousSize == null ? 0 : previousSize);
+                evictOverCap();
+            }
+        } finally {
+            if (tempFile != null) {
+                Files.deleteIfExists(tempFile);
+            }
+            synchronized (this) {
+                fillingEntries.remove(entryName);
+            }
+        }
+    }
+
+    /**
+     * Remove an entry from the cache.
+     *
+     * @param key The key of the entry.
+     * @throws IOException If the entry's file can't be deleted.
+     */
+    public void invalidate(String key) throws IOException {
+        String entryName = entryName(key);
+        synchronized (this) {
+            Long size = entrySizes.remove(entryName);
+            if (size == null) {
+                return;
+            }
+            totalBytes -= size;
+            Files.deleteIfExists(directory.resolve(entryName));
+        }
+    }
+
+    public synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return entrySizes.size();
+    }
+
+    private void evictOverCap() {
+        Iterator<Map.Entry<String, Long>> eldest = entrySizes.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            totalBytes -= entry.getValue();
+            try {
+                Files.deleteIfExists(directory.resolve(entry.getKey()));
+            } catch (IOException e) {
+                // Not tracked any more either way, the file is only wasted space
+                System.err.println("Error evicting cached content " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void loadExistingEntries() throws IOException {
+        List<Path> entryFiles = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                if (fileName.endsWith(TEMP_SUFFIX)) {
+                    // Left behind by a fill that never finished
+                    Files.deleteIfExists(file);
+                } else if (fileName.endsWith(CONTENT_SUFFIX)) {
+                    entryFiles.add(file);
+                }
+            }
+        }
+
+        // Oldest first, so the most recently filled entries are kept longest
+        entryFiles.sort(Comparator.comparing(file -> file.toFile().lastModified()));
+        synchronized (this) {
+            for (Path file : entryFiles) {
+                long size = Files.size(file);
+                entrySizes.put(file.getFileName().toString(), size);
+                totalBytes += size;
+            }
+            evictOverCap();
+        }
+    }
+
+    private static String entryName(String key) {
+        // Hashing keeps arbitrary keys safe to use as file names
+        return TokenHashes.sha256Hex(key) + CONTENT_SUFFIX;
+    }
+
+    /**
+     * Writes the content of a cache entry.
+     */
+    @FunctionalInterface
+    public interface ContentWriter {
+        /**
+         * Write the content to the given stream. The stream must not be closed.
+         *
+         * @param outputStream The stream to write the content to.
+         * @throws IOException If an I/O error occurs.
+         */
+        void writeTo(OutputStream outputStream) throws IOException;
+    }
+}
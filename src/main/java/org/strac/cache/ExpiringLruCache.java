@@ -0,0 +1,84 @@
+package org.strac.cache;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread safe in-memory cache whose entries expire at a per-entry instant.
+ * When the cache is full the least recently used entry is evicted.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+public class ExpiringLruCache<K, V> {
+    private final Clock clock;
+    private final LinkedHashMap<K, CacheEntry<V>> entries;
+
+    public ExpiringLruCache(int maxEntries) {
+        this(maxEntries, Clock.systemUTC());
+    }
+
+    public ExpiringLruCache(int maxEntries, Clock clock) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get a value from the cache.
+     *
+     * @param key The key to look up.
+     * @return The cached value, or null if it is absent or expired.
+     */
+    public synchronized V get(K key) {
+        CacheEntry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!clock.instant().isBefore(entry.expiresAt)) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Put a value in the cache. Values that are already expired are not stored.
+     *
+     * @param key       The key to store the value under.
+     * @param value     The value to store.
+     * @param expiresAt The instant at which the value expires.
+     */
+    public synchronized void put(K key, V value, Instant expiresAt) {
+        if (!clock.instant().isBefore(expiresAt)) {
+            entries.remove(key);
+            return;
+        }
+        entries.put(key, new CacheEntry<>(value, expiresAt));
+    }
+
+    /**
+     * Remove a value from the cache.
+     *
+     * @param key The key to remove.
+     */
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private record CacheEntry<V>(V value, Instant expiresAt) {
+    }
+}
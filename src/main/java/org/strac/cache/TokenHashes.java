@@ -0,0 +1,26 @@
+package org.strac.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+public final class TokenHashes {
+    private TokenHashes() {
+    }
+
+    /**
+     * Hash a token so it can be used as a cache key without keeping the raw token in memory.
+     *
+     * @param token The token to hash.
+     * @return The hex encoded SHA-256 digest of the token.
+     */
+    public static String sha256Hex(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.strac.dao;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.FileList;
+import org.strac.cache.DiskLruContentCache;
+import org.strac.cache.ExpiringLruCache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A GoogleDriveDao that keeps binary file content and Google Workspace exports in a local disk cache.
+ * Content is only served from the cache once the caller holds metadata fetched with the user's own credential,
+ * so Drive still decides who may read a file. Binary files are keyed by file ID and md5Checksum, or version when
+ * Drive reports no checksum, exports by file ID, export MIME type and modifiedTime, so a new revision is never served
+ * stale content.
+ */
+public class CachingGoogleDriveDao implements GoogleDriveDao {
+    private static final int DEFAULT_MAX_TRACKED_REVISIONS = 100_000;
+
+    private final GoogleDriveDao delegate;
+    private final DiskLruContentCache contentCache;
+    // The revision last cached per file and rendition, so the entry of an older revision is dropped when it changes
+    private final ExpiringLruCache<String, String> cachedRevisions;
+
+    public CachingGoogleDriveDao(GoogleDriveDao delegate, DiskLruContentCache contentCache) {
+        this.delegate = delegate;
+        this.contentCache = contentCache;
+        this.cachedRevisions = new ExpiringLruCache<>(DEFAULT_MAX_TRACKED_REVISIONS);
+    }
+
+    @Override
+    public FileList listFiles(Credential credential, String parentId) {
+        return delegate.listFiles(credential, parentId);
+    }
+
+    @Override
+    public FileList listFilesPage(Credential credential, String parentId, String pageToken) {
+        return delegate.listFilesPage(credential, parentId, pageToken);
+    }
+
+    @Override
+    public Map<String, List<File>> listChildrenOfFolders(Credential credential, Collection<String> parentIds) {
+        return delegate.listChildrenOfFolders(credential, parentIds);
+    }
+
+    @Override
+    public File uploadFile(Credential credential, String name, String mimeType, long length, InputStream content, String folderId) {
+        return delegate.uploadFile(credential, name, mimeType, length, content, folderId);
+    }
+
+    @Override
+    public File getFileMetadata(Credential credential, String fileId) {
+        return delegate.getFileMetadata(credential, fileId);
+    }
+
+    @Override
+    public void downloadFileToStream(Credential credential, String fileId, OutputStream outputStream) {
+        // The metadata lookup doubles as the access check for this user
+        downloadFileContentToStream(credential, delegate.getFileMetadata(credential, fileId), outputStream);
+    }
+
+    @Override
+    public void downloadFileContentToStream(Credential credential, File fileMetadata, OutputStream outputStream) {
+        if (DriveExportFormats.isGoogleWorkspaceFile(fileMetadata.getMimeType())) {
+            String exportMimeType = DriveExportFormats.getExportMimeType(fileMetadata.getMimeType());
+            if (exportMimeType == null) {
+                throw new RuntimeException("File type not supported for export: " + fileMetadata.getMimeType());
+            }
+            exportFileToStream(credential, fileMetadata, exportMimeType, outputStream);
+            return;
+        }
+        String revision = binaryRevision(fileMetadata);
+        if (revision == null) {
+            // Without a checksum or version there is nothing to tell revisions apart by
+            delegate.downloadFileContentToStream(credential, fileMetadata, outputStream);
+            return;
+        }
+
+        serveOrFill(fileMetadata.getId(), revision, outputStream,
+                cacheStream -> delegate.downloadFileContentToStream(credential, fileMetadata, cacheStream));
+    }
+
+    /**
+     * Drive does not report md5Checksum for every binary file, but version goes up whenever the content changes, so it
+     * stands in for the checksum. The "v" prefix keeps a version from ever equalling a checksum.
+     */
+    private static String binaryRevision(File fileMetadata) {
+        if (fileMetadata.getMd5Checksum() != null) {
+            return fileMetadata.getMd5Checksum();
+        }
+        return fileMetadata.getVersion() != null ? "v" + fileMetadata.getVersion() : null;
+    }
+
+    @Override
+    public void exportFileToStream(Credential credential, File fileMetadata, String exportMimeType, OutputStream outputStream) {
+        if (fileMetadata.getModifiedTime() == null) {
+            delegate.exportFileToStream(credential, fileMetadata, exportMimeType, outputStream);
+            return;
+        }
+
+        serveOrFill(fileMetadata.getId() + ":" + exportMimeType, fileMetadata.getModifiedTime().toStringRfc3339(), outputStream,
+                cacheStream -> delegate.exportFileToStream(credential, fileMetadata, exportMimeType, cacheStream));
+    }
+
+    private void serveOrFill(String rendition, String revision, OutputStream outputStream,
+                             DiskLruContentCache.ContentWriter download) {
+        String cacheKey = rendition + ":" + revision;
+        try {
+            String cachedRevision = cachedRevisions.get(rendition);
+            if (cachedRevision != null && !cachedRevision.equals(revision)) {
+                // The file changed since it was cached, the old rendition will never be asked for again
+                contentCache.invalidate(rendition + ":" + cachedRevision);
+            }
+            cachedRevisions.put(rendition, revision, Instant.MAX);
+
+            if (!contentCache.serve(cacheKey, outputStream)) {
+                contentCache.fill(cacheKey, download, outputStream);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error downloading file from Google Drive", e);
+        }
+    }
+
+    @Override
+    public void downloadFileRangeToStream(Credential credential, String fileId, long firstBytePos, long lastBytePos,
+                                          OutputStream outputStream) {
+        delegate.downloadFileRangeToStream(credential, fileId, firstBytePos, lastBytePos, outputStream);
+    }
+
+    @Override
+    public void deleteFile(Credential credential, String fileId) {
+        delegate.deleteFile(credential, fileId);
+    }
+}
@@ -0,0 +1,119 @@
+package org.strac.dao;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+public final class DriveExportFormats {
+    public static final String GOOGLE_APPS_MIME_TYPE_PREFIX = "application/vnd.google-apps";
+    public static final String FOLDER_MIME_TYPE = "application/vnd.google-apps.folder";
+
+    private static final String DOCUMENT_MIME_TYPE = "application/vnd.google-apps.document";
+    private static final String SPREADSHEET_MIME_TYPE = "application/vnd.google-apps.spreadsheet";
+    private static final String PRESENTATION_MIME_TYPE = "application/vnd.google-apps.presentation";
+    private static final String DRAWING_MIME_TYPE = "application/vnd.google-apps.drawing";
+
+    // Export formats clients can pick per Google Workspace type, keyed by file extension. The first one is the default.
+    private static final Map<String, Map<String, String>> EXPORT_FORMATS = Map.of(
+            DOCUMENT_MIME_TYPE, formats(
+                    "pdf", "application/pdf",
+                    "docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+                    "odt", "application/vnd.oasis.opendocument.text",
+                    "rtf", "application/rtf",
+                    "txt", "text/plain",
+                    "md", "text/markdown",
+                    "epub", "application/epub+zip"),
+            SPREADSHEET_MIME_TYPE, formats(
+                    "xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+                    "pdf", "application/pdf",
+                    "ods", "application/x-vnd.oasis.opendocument.spreadsheet",
+                    "csv", "text/csv",
+                    "tsv", "text/tab-separated-values"),
+            PRESENTATION_MIME_TYPE, formats(
+                    "pptx", "application/vnd.openxmlformats-officedocument.presentationml.presentation",
+                    "pdf", "application/pdf",
+                    "odp", "application/vnd.oasis.opendocument.presentation",
+                    "txt", "text/plain"),
+            DRAWING_MIME_TYPE, formats(
+                    "pdf", "application/pdf",
+                    "png", "image/png",
+                    "jpg", "image/jpeg",
+                    "svg", "image/svg+xml"));
+
+    private DriveExportFormats() {
+    }
+
+    /**
+     * Check whether a file is a Google Workspace file, which has to be exported rather than downloaded.
+     *
+     * @param mimeType The MIME type of the file.
+     * @return True if the file is a Google Workspace file.
+     */
+    public static boolean isGoogleWorkspaceFile(String mimeType) {
+        return mimeType != null && mimeType.startsWith(GOOGLE_APPS_MIME_TYPE_PREFIX);
+    }
+
+    /**
+     * Get the default export MIME type for Google Workspace files.
+     * Docs and drawings are exported as PDF, Sheets as Excel and Slides as PPTX.
+     *
+     * @param mimeType The MIME type of the file.
+     * @return The export MIME type, or null if the file type is not supported for export.
+     */
+    public static String getExportMimeType(String mimeType) {
+        Map<String, String> formats = EXPORT_FORMATS.get(mimeType);
+        return formats == null ? null : formats.values().iterator().next();
+    }
+
+    /**
+     * Get the export MIME type of a format a client asked for.
+     *
+     * @param mimeType The MIME type of the file.
+     * @param format   The format, named by its file extension, e.g. "docx" or "csv".
+     * @return The export MIME type, or null if the file can't be exported in that format.
+     */
+    public static String getExportMimeType(String mimeType, String format) {
+        Map<String, String> formats = EXPORT_FORMATS.get(mimeType);
+        return formats == null || format == null ? null : formats.get(format.toLowerCase());
+    }
+
+    /**
+     * Get the formats a Google Workspace file can be exported in.
+     *
+     * @param mimeType The MIME type of the file.
+     * @return The format names, empty if the file type is not supported for export.
+     */
+    public static Set<String> getExportFormats(String mimeType) {
+        Map<String, String> formats = EXPORT_FORMATS.get(mimeType);
+        return formats == null ? Collections.emptySet() : formats.keySet();
+    }
+
+    /**
+     * Get the file extension exported files of a MIME type should be saved with.
+     *
+     * @param exportMimeType The export MIME type.
+     * @return The extension without a leading dot, or null if unknown.
+     */
+    public static String getFileExtension(String exportMimeType) {
+        if (exportMimeType == null) {
+            return null;
+        }
+        for (Map<String, String> formats : EXPORT_FORMATS.values()) {
+            for (Map.Entry<String, String> format : formats.entrySet()) {
+                if (format.getValue().equals(exportMimeType)) {
+                    return format.getKey();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, String> formats(String... extensionsAndMimeTypes) {
+        Map<String, String> formats = new LinkedHashMap<>();
+        for (int i = 0; i < extensionsAndMimeTypes.length; i += 2) {
+            formats.put(extensionsAndMimeTypes[i], extensionsAndMimeTypes[i + 1]);
+        }
+        return Collections.unmodifiableMap(formats);
+    }
+}
@@ -7,7 +7,11 @@ import com.google.api.services.drive.model.FileList;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 public interface GoogleDriveDao {
     /**
@@ -22,18 +26,90 @@ public interface GoogleDriveDao {
     FileList listFiles(Credential credential, String parentId);
 
     /**
-     * Upload a file to Google Drive.
+     * List one page of a folder's children, including the metadata needed to download them.
      *
      * @param credential The OAuth credential containing the access token.
-     * @param localFile  The local file to upload.
+     * @param parentId   The parent folder ID, or null for the top-level folder.
+     * @param pageToken  The nextPageToken of the previous page, or null for the first page.
+     * @return A page of files, with a nextPageToken if more pages follow.
+     */
+    FileList listFilesPage(Credential credential, String parentId, String pageToken);
+
+    /**
+     * List the children of many folders with as few Drive queries as possible.
+     * Folders are OR-combined into "in parents" queries up to Drive's query length limit, and every page is fetched.
+     *
+     * @param credential The OAuth credential containing the access token.
+     * @param parentIds  The IDs of the folders to list, "root" for the top-level folder.
+     * @return The children of each folder, keyed by folder ID in the order given. Folders without children map to an empty list.
+     */
+    Map<String, List<File>> listChildrenOfFolders(Credential credential, Collection<String> parentIds);
+
+    /**
+     * Upload a file to Google Drive, piping its content from a stream as it is sent.
+     *
+     * @param credential The OAuth credential containing the access token.
+     * @param name       The name of the file in Drive.
      * @param mimeType   The MIME type of the file.
+     * @param length     The length of the content in bytes, or -1 if unknown.
+     * @param content    The content of the file, read once and not closed.
      * @param folderId   The ID of the folder where the file should be uploaded (optional).
      * @return The uploaded file's metadata.
      */
-    File uploadFile(Credential credential, java.io.File localFile, String mimeType, String folderId);
+    File uploadFile(Credential credential, String name, String mimeType, long length, InputStream content, String folderId);
+
+    /**
+     * Get a file's metadata from Google Drive.
+     *
+     * @param credential The OAuth credential containing the access token.
+     * @param fileId     The ID of the file.
+     * @return The file's name, MIME type, size, checksum, modification time and version.
+     */
+    File getFileMetadata(Credential credential, String fileId);
 
+    /**
+     * Download a file from Google Drive to a stream.
+     * Google Workspace files are exported to a supported format.
+     *
+     * @param credential   The OAuth credential containing the access token.
+     * @param fileId       The ID of the file to download.
+     * @param outputStream The OutputStream to write the file to.
+     */
     void downloadFileToStream(Credential credential, String fileId, OutputStream outputStream);
 
+    /**
+     * Download a file whose metadata the caller already has, skipping the metadata lookup.
+     * Google Workspace files are exported, other files are downloaded as is.
+     *
+     * @param credential   The OAuth credential containing the access token.
+     * @param fileMetadata The file's metadata, at least its ID and MIME type.
+     * @param outputStream The output stream to write the file content to.
+     */
+    void downloadFileContentToStream(Credential credential, File fileMetadata, OutputStream outputStream);
+
+    /**
+     * Export a Google Workspace file in a given format.
+     *
+     * @param credential     The OAuth credential containing the access token.
+     * @param fileMetadata   The file's metadata, at least its ID and modification time.
+     * @param exportMimeType The MIME type to export the file as.
+     * @param outputStream   The output stream to write the exported content to.
+     */
+    void exportFileToStream(Credential credential, File fileMetadata, String exportMimeType, OutputStream outputStream);
+
+    /**
+     * Download a byte range of a binary file from Google Drive to a stream.
+     * Google Workspace files can't be downloaded in ranges, as their exports have no fixed bytes.
+     *
+     * @param credential   The OAuth credential containing the access token.
+     * @param fileId       The ID of the file to download.
+     * @param firstBytePos The position of the first byte to download.
+     * @param lastBytePos  The position of the last byte to download, inclusive.
+     * @param outputStream The OutputStream to write the bytes to.
+     */
+    void downloadFileRangeToStream(Credential credential, String fileId, long firstBytePos, long lastBytePos,
+                                   OutputStream outputStream);
+
     /**
      * Delete a file from Google Drive.
      *
@@ -1,17 +1,43 @@
 package org.strac.dao;
 
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.InputStreamContent;
 import com.google.api.services.drive.Drive;
 import com.google.api.services.drive.model.File;
 import com.google.api.services.drive.model.FileList;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.springframework.stereotype.Repository;
+import org.strac.dao.metrics.UpstreamMetrics;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 @Repository
 public class GoogleDriveDaoImpl implements GoogleDriveDao {
+    private static final String UPSTREAM = "drive";
+    private static final String FILE_METADATA_FIELDS = "id, name, mimeType, size, md5Checksum, modifiedTime, version";
+    // Largest page size Drive accepts, fewer pages means fewer round trips for big folders
+    private static final int LIST_PAGE_SIZE = 1000;
+    // Drive rejects overly long queries, keep batched "in parents" queries well under the limit
+    private static final int MAX_BATCH_QUERY_LENGTH = 2000;
+    private static final String ROOT_FOLDER_ALIAS = "root";
+    // Media is downloaded in requests of this many bytes. A cancelled download still reads the rest of its current
+    // request, as closing the response drains it, so this bounds the waste, at one round trip per chunk
+    private static final int MEDIA_DOWNLOAD_CHUNK_BYTES = 4 * 1024 * 1024;
+
+    private final UpstreamMetrics upstreamMetrics;
+
+    public GoogleDriveDaoImpl(UpstreamMetrics upstreamMetrics) {
+        this.upstreamMetrics = upstreamMetrics;
+    }
 
     /**
      * List files from the user's Google Drive.
@@ -34,95 +60,232 @@ public class GoogleDriveDaoImpl implements GoogleDriveDao {
                     : "'" + parentId + "' in parents and trashed = false";
 
             // Fetch the list of files
-            return driveService.files().list()
+            Drive.Files.List listRequest = driveService.files().list()
                     .setQ(query)
                     //.setPageSize(10) // Limit the number of files returned
-                    .setFields("nextPageToken, files(id, name, mimeType, modifiedTime)") // Specify fields to fetch
-                    .execute();
+                    .setFields("nextPageToken, files(id, name, mimeType, modifiedTime)"); // Specify fields to fetch
+            return upstreamMetrics.record(UPSTREAM, "list", listRequest::execute);
         } catch (IOException e) {
             throw new RuntimeException("Error listing files from Google Drive", e);
         }
     }
 
-    /**
-     * Upload a file to Google Drive.
-     *
-     * @param credential The OAuth credential containing the access token.
-     * @param localFile  The local file to upload.
-     * @param mimeType   The MIME type of the file.
-     * @param folderId   The ID of the folder where the file should be uploaded (optional).
-     * @return The uploaded file's metadata.
-     */
     @Override
-    public File uploadFile(Credential credential, java.io.File localFile, String mimeType, String folderId) {
+    public FileList listFilesPage(Credential credential, String parentId, String pageToken) {
         try {
-            // Create a Drive service instance
             Drive driveService = createDriveService(credential);
 
-            // Metadata for the uploaded file
-            File fileMetadata = new File();
-            fileMetadata.setName(localFile.getName());
+            Drive.Files.List listRequest = driveService.files().list()
+                    .setQ("'" + (parentId == null ? ROOT_FOLDER_ALIAS : parentId) + "' in parents and trashed = false")
+                    .setPageSize(LIST_PAGE_SIZE)
+                    .setPageToken(pageToken)
+                    .setFields("nextPageToken, files(" + FILE_METADATA_FIELDS + ")");
+            return upstreamMetrics.record(UPSTREAM, "list", listRequest::execute);
+        } catch (IOException e) {
+            throw new RuntimeException("Error listing files from Google Drive", e);
+        }
+    }
+
+    @Override
+    public Map<String, List<File>> listChildrenOfFolders(Credential credential, Collection<String> parentIds) {
+        Map<String, List<File>> childrenByParent = new LinkedHashMap<>();
+        for (String parentId : parentIds) {
+            childrenByParent.put(parentId, new ArrayList<>());
+        }
+
+        try {
+            Drive driveService = createDriveService(credential);
+
+            // Files report the real ID of the top-level folder as their parent, never the alias, so it is listed on its own
+            if (childrenByParent.containsKey(ROOT_FOLDER_ALIAS)) {
+                for (File file : listAllPages(driveService, "'" + ROOT_FOLDER_ALIAS + "' in parents and trashed = false", "list")) {
+                    childrenByParent.get(ROOT_FOLDER_ALIAS).add(file);
+                }
+            }
 
+            StringBuilder clauses = new StringBuilder();
+            for (String parentId : childrenByParent.keySet()) {
+                if (ROOT_FOLDER_ALIAS.equals(parentId)) {
+                    continue;
+                }
+                String clause = "'" + parentId + "' in parents";
+                if (clauses.length() > 0 && clauses.length() + clause.length() + 4 > MAX_BATCH_QUERY_LENGTH) {
+                    addChildrenByParent(driveService, clauses, childrenByParent);
+                    clauses.setLength(0);
+                }
+                clauses.append(clauses.length() > 0 ? " or " : "").append(clause);
+            }
+            if (clauses.length() > 0) {
+                addChildrenByParent(driveService, clauses, childrenByParent);
+            }
+            return childrenByParent;
+        } catch (IOException e) {
+            throw new RuntimeException("Error listing files from Google Drive", e);
+        }
+    }
+
+    private void addChildrenByParent(Drive driveService, CharSequence parentClauses,
+                                     Map<String, List<File>> childrenByParent) throws IOException {
+        for (File file : listAllPages(driveService, "(" + parentClauses + ") and trashed = false", "list_batch")) {
+            if (file.getParents() == null) {
+                continue;
+            }
+            // A file in several of the listed folders belongs to each of them
+            for (String parentId : file.getParents()) {
+                List<File> children = childrenByParent.get(parentId);
+                if (children != null) {
+                    children.add(file);
+                }
+            }
+        }
+    }
+
+    private List<File> listAllPages(Drive driveService, String query, String operation) throws IOException {
+        List<File> files = new ArrayList<>();
+        String pageToken = null;
+        do {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Listing cancelled");
+            }
+            Drive.Files.List listRequest = driveService.files().list()
+                    .setQ(query)
+                    .setPageSize(LIST_PAGE_SIZE)
+                    .setPageToken(pageToken)
+                    .setFields("nextPageToken, files(" + FILE_METADATA_FIELDS + ", parents)");
+            FileList fileList = upstreamMetrics.record(UPSTREAM, operation, listRequest::execute);
+            if (fileList.getFiles() != null) {
+                files.addAll(fileList.getFiles());
+            }
+            pageToken = fileList.getNextPageToken();
+        } while (pageToken != null);
+        return files;
+    }
+
+    @Override
+    public File uploadFile(Credential credential, String name, String mimeType, long length, InputStream content, String folderId) {
+        try {
+            Drive driveService = createDriveService(credential);
+
+            File fileMetadata = new File();
+            fileMetadata.setName(name);
             if (folderId != null) {
                 fileMetadata.setParents(java.util.Collections.singletonList(folderId));
             }
 
-            // Create and execute the upload request
-            return driveService.files().create(fileMetadata,
-                            new com.google.api.client.http.FileContent(mimeType, localFile))
-                    .setFields("id, name")
-                    .execute();
+            // The content is read as it is sent, so it never has to be copied to a local file first
+            InputStreamContent mediaContent = new InputStreamContent(mimeType, content).setLength(length);
+            Drive.Files.Create createRequest = driveService.files().create(fileMetadata, mediaContent)
+                    .setFields("id, name");
+            File uploadedFile = upstreamMetrics.record(UPSTREAM, "create", createRequest::execute);
+            if (length >= 0) {
+                upstreamMetrics.recordBytes(UPSTREAM, "create", length);
+            }
+            return uploadedFile;
         } catch (IOException e) {
             throw new RuntimeException("Error uploading file to Google Drive", e);
         }
     }
 
+    @Override
+    public File getFileMetadata(Credential credential, String fileId) {
+        try {
+            Drive driveService = createDriveService(credential);
+
+            Drive.Files.Get metadataRequest = driveService.files().get(fileId).setFields(FILE_METADATA_FIELDS);
+            return upstreamMetrics.record(UPSTREAM, "get", metadataRequest::execute);
+        } catch (IOException e) {
+            throw new RuntimeException("Error fetching file metadata from Google Drive", e);
+        }
+    }
+
     @Override
     public void downloadFileToStream(Credential credential, String fileId, OutputStream outputStream) {
         try {
             Drive driveService = createDriveService(credential);
 
             // Fetch file metadata to determine the MIME type
-            Drive.Files.Get metadataRequest = driveService.files().get(fileId).setFields("mimeType, name");
-            com.google.api.services.drive.model.File fileMetadata = metadataRequest.execute();
-            String mimeType = fileMetadata.getMimeType();
-
-            // Check if the file is a Google Workspace file that requires export
-            if (mimeType.startsWith("application/vnd.google-apps")) {
-                // Export the file to a supported MIME type
-                String exportMimeType = getExportMimeType(mimeType);
-                if (exportMimeType == null) {
-                    throw new RuntimeException("File type not supported for export: " + mimeType);
-                }
-                driveService.files().export(fileId, exportMimeType).executeMediaAndDownloadTo(outputStream);
-            } else {
-                // Directly download the binary file
-                driveService.files().get(fileId).executeMediaAndDownloadTo(outputStream);
-            }
+            Drive.Files.Get metadataRequest = driveService.files().get(fileId).setFields("id, mimeType, name");
+            File fileMetadata = upstreamMetrics.record(UPSTREAM, "get", metadataRequest::execute);
+            downloadFileContentToStream(driveService, fileMetadata.setId(fileId), outputStream);
         } catch (IOException e) {
             throw new RuntimeException("Error downloading file from Google Drive", e);
         }
     }
 
-    /**
-     * Get the appropriate export MIME type for Google Workspace files.
-     *
-     * @param mimeType The MIME type of the file.
-     * @return The export MIME type, or null if the file type is not supported for export.
-     */
-    private String getExportMimeType(String mimeType) {
-        switch (mimeType) {
-            case "application/vnd.google-apps.document":
-                return "application/pdf"; // Export Google Docs as PDF
-            case "application/vnd.google-apps.spreadsheet":
-                return "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"; // Export Sheets as Excel
-            case "application/vnd.google-apps.presentation":
-                return "application/vnd.openxmlformats-officedocument.presentationml.presentation"; // Export Slides as PPTX
-            default:
-                return null; // Unsupported Google Workspace file type
+    @Override
+    public void downloadFileContentToStream(Credential credential, File fileMetadata, OutputStream outputStream) {
+        try {
+            downloadFileContentToStream(createDriveService(credential), fileMetadata, outputStream);
+        } catch (IOException e) {
+            throw new RuntimeException("Error downloading file from Google Drive", e);
+        }
+    }
+
+    private void downloadFileContentToStream(Drive driveService, File fileMetadata, OutputStream outputStream) throws IOException {
+        String mimeType = fileMetadata.getMimeType();
+
+        // Check if the file is a Google Workspace file that requires export
+        if (DriveExportFormats.isGoogleWorkspaceFile(mimeType)) {
+            // Export the file to a supported MIME type
+            String exportMimeType = DriveExportFormats.getExportMimeType(mimeType);
+            if (exportMimeType == null) {
+                throw new RuntimeException("File type not supported for export: " + mimeType);
+            }
+            exportFileToStream(driveService, fileMetadata.getId(), exportMimeType, outputStream);
+        } else {
+            // Directly download the binary file, stopping early if the caller is cancelled
+            CountingOutputStream countingOutputStream = new CountingOutputStream(InterruptibleOutputStream.of(outputStream));
+            Drive.Files.Get mediaRequest = driveService.files().get(fileMetadata.getId());
+            mediaRequest.getMediaHttpDownloader().setChunkSize(MEDIA_DOWNLOAD_CHUNK_BYTES);
+            upstreamMetrics.record(UPSTREAM, "media", () -> {
+                mediaRequest.executeMediaAndDownloadTo(countingOutputStream);
+                return null;
+            });
+            upstreamMetrics.recordBytes(UPSTREAM, "media", countingOutputStream.getByteCount());
         }
     }
 
+    @Override
+    public void exportFileToStream(Credential credential, File fileMetadata, String exportMimeType, OutputStream outputStream) {
+        try {
+            exportFileToStream(createDriveService(credential), fileMetadata.getId(), exportMimeType, outputStream);
+        } catch (IOException e) {
+            throw new RuntimeException("Error exporting file from Google Drive", e);
+        }
+    }
+
+    private void exportFileToStream(Drive driveService, String fileId, String exportMimeType, OutputStream outputStream)
+            throws IOException {
+        CountingOutputStream countingOutputStream = new CountingOutputStream(InterruptibleOutputStream.of(outputStream));
+        Drive.Files.Export exportRequest = driveService.files().export(fileId, exportMimeType);
+        upstreamMetrics.record(UPSTREAM, "export", () -> {
+            exportRequest.executeMediaAndDownloadTo(countingOutputStream);
+            return null;
+        });
+        upstreamMetrics.recordBytes(UPSTREAM, "export", countingOutputStream.getByteCount());
+    }
+
+    @Override
+    public void downloadFileRangeToStream(Credential credential, String fileId, long firstBytePos, long lastBytePos,
+                                          OutputStream outputStream) {
+        try {
+            Drive driveService = createDriveService(credential);
+            CountingOutputStream countingOutputStream = new CountingOutputStream(InterruptibleOutputStream.of(outputStream));
+
+            // Only the requested bytes are fetched from Drive, sent as a Range header on the media request
+            Drive.Files.Get mediaRequest = driveService.files().get(fileId);
+            mediaRequest.getMediaHttpDownloader()
+                    .setContentRange(firstBytePos, lastBytePos)
+                    .setChunkSize(MEDIA_DOWNLOAD_CHUNK_BYTES);
+            upstreamMetrics.record(UPSTREAM, "media_range", () -> {
+                mediaRequest.executeMediaAndDownloadTo(countingOutputStream);
+                return null;
+            });
+            upstreamMetrics.recordBytes(UPSTREAM, "media_range", countingOutputStream.getByteCount());
+        } catch (IOException e) {
+            throw new RuntimeException("Error downloading file range from Google Drive", e);
+        }
+    }
 
     /**
      * Delete a file from Google Drive.
@@ -137,7 +300,8 @@ public class GoogleDriveDaoImpl implements GoogleDriveDao {
             Drive driveService = createDriveService(credential);
 
             // Execute the delete request
-            driveService.files().delete(fileId).execute();
+            Drive.Files.Delete deleteRequest = driveService.files().delete(fileId);
+            upstreamMetrics.record(UPSTREAM, "delete", deleteRequest::execute);
         } catch (IOException e) {
             throw new RuntimeException("Error deleting file from Google Drive", e);
         }
@@ -145,6 +309,8 @@ public class GoogleDriveDaoImpl implements GoogleDriveDao {
 
     /**
      * Helper method to create a Drive service instance.
+     * The instance is a lightweight per-request wrapper around the credential, the underlying
+     * transport is shared so connections are pooled across requests.
      *
      * @param credential The OAuth credential containing the access token.
      * @return A configured Drive service instance.
@@ -0,0 +1,41 @@
+package org.strac.dao;
+
+import org.apache.commons.io.output.ProxyOutputStream;
+
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream that fails once the writing thread is interrupted. Drive's HTTP client blocks on socket reads that
+ * ignore interrupts, but it writes each chunk it reads to the destination, so a transfer into this stream stops at
+ * the next chunk after its thread is interrupted, and the client then drops the connection.
+ */
+public class InterruptibleOutputStream extends ProxyOutputStream {
+
+    public InterruptibleOutputStream(OutputStream outputStream) {
+        super(outputStream);
+    }
+
+    /**
+     * Wrap a stream for a transfer that is about to start, failing right away if the thread is already interrupted.
+     *
+     * @param outputStream The destination of the transfer.
+     * @return The wrapped stream.
+     * @throws InterruptedIOException If the thread is interrupted.
+     */
+    public static InterruptibleOutputStream of(OutputStream outputStream) throws InterruptedIOException {
+        checkInterrupted();
+        return new InterruptibleOutputStream(outputStream);
+    }
+
+    @Override
+    protected void beforeWrite(int n) throws InterruptedIOException {
+        checkInterrupted();
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Transfer cancelled");
+        }
+    }
+}
@@ -2,24 +2,41 @@ package org.strac.dao.config;
 
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonFactory;
 
 import com.google.api.client.json.gson.GsonFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import org.apache.commons.io.IOUtils;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.strac.cache.DiskLruContentCache;
+import org.strac.dao.CachingGoogleDriveDao;
 import org.strac.dao.GoogleDriveDao;
 import org.strac.dao.GoogleDriveDaoImpl;
+import org.strac.dao.metrics.UpstreamMetrics;
 
 import java.io.FileInputStream;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
+import java.net.http.HttpClient;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Configuration
 public class StracExamDaoConfig {
@@ -46,6 +63,47 @@ public class StracExamDaoConfig {
         return new NetHttpTransport();
     }
 
+    /**
+     * Shared, pooled transport for all Google Drive calls.
+     * Connections and TLS sessions to Drive are reused across requests instead of opened per call.
+     */
+    @Bean
+    public HttpTransport driveHttpTransport(@Value("${strac.drive.http.max-connections:200}") int maxConnections,
+                                            @Value("${strac.drive.http.max-connections-per-route:100}") int maxConnectionsPerRoute,
+                                            @Value("${strac.drive.http.connection-ttl-seconds:300}") long connectionTtlSeconds) {
+        return new ApacheHttpTransport(ApacheHttpTransport.newDefaultHttpClientBuilder()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setConnectionTimeToLive(connectionTtlSeconds, TimeUnit.SECONDS)
+                .build());
+    }
+
+    /**
+     * Shared HTTP/2 client for calls to Google's OAuth endpoints.
+     * Connections are pooled and kept alive by the client, so TLS handshakes are not repeated per request.
+     * HTTP/1.1 pool limits (jdk.httpclient.connectionPoolSize, jdk.httpclient.keepalive.timeout) are JVM-wide and read
+     * once, so they belong on the java command line rather than here.
+     */
+    @Bean
+    public HttpClient googleHttpClient(@Value("${strac.http.connect-timeout-ms:5000}") long connectTimeoutMs,
+                                       @Qualifier("googleHttpClientExecutor") ExecutorService googleHttpClientExecutor) {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .executor(googleHttpClientExecutor)
+                .build();
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService googleHttpClientExecutor(@Value("${strac.http.executor-threads:8}") int executorThreads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(executorThreads, runnable -> {
+            Thread thread = new Thread(runnable, "google-http-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     @Bean
     public GoogleAuthorizationCodeFlow googleAuthorizationCodeFlow(NetHttpTransport netHttpTransport,
                                                                    JsonFactory jsonFactory,
@@ -55,7 +113,8 @@ public class StracExamDaoConfig {
                 jsonFactory,
                 googleClientSecrets,
                 //Collections.singletonList("https://www.googleapis.com/auth/drive.file")
-                Collections.singletonList("https://www.googleapis.com/auth/drive")
+                // openid makes Google return an ID token, used to identify the user in session tokens
+                List.of("https://www.googleapis.com/auth/drive", "openid")
         )
                 .setAccessType("offline") // Needed for refresh tokens
                 .build();
@@ -67,7 +126,20 @@ public class StracExamDaoConfig {
     }
 
     @Bean
-    public GoogleDriveDao googleDriveDao() {
-        return new GoogleDriveDaoImpl();
+    public UpstreamMetrics upstreamMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+        // Falls back to the global registry when no actuator registry is configured, e.g. in slim test contexts
+        return new UpstreamMetrics(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+
+    @Bean
+    public GoogleDriveDao googleDriveDao(UpstreamMetrics upstreamMetrics,
+                                         @Value("${strac.drive.content-cache.enabled:true}") boolean contentCacheEnabled,
+                                         @Value("${strac.drive.content-cache.directory:${java.io.tmpdir}/strac-drive-content-cache}") String contentCacheDirectory,
+                                         @Value("${strac.drive.content-cache.max-bytes:1073741824}") long contentCacheMaxBytes) throws IOException {
+        GoogleDriveDao googleDriveDao = new GoogleDriveDaoImpl(upstreamMetrics);
+        if (!contentCacheEnabled) {
+            return googleDriveDao;
+        }
+        return new CachingGoogleDriveDao(googleDriveDao, new DiskLruContentCache(Paths.get(contentCacheDirectory), contentCacheMaxBytes));
     }
 }
@@ -0,0 +1,14 @@
+package org.strac.dao.metrics;
+
+import java.io.IOException;
+
+@FunctionalInterface
+public interface UpstreamCall<T> {
+    /**
+     * Execute a call to an upstream Google API.
+     *
+     * @return The call's result.
+     * @throws IOException If the call fails.
+     */
+    T execute() throws IOException;
+}
@@ -0,0 +1,107 @@
+package org.strac.dao.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.IOException;
+
+/**
+ * Records latency, outcome and transferred bytes of calls to upstream Google APIs.
+ * Every meter is tagged by upstream (drive, tokeninfo, oauth_token, ...) and operation.
+ */
+public class UpstreamMetrics {
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_REJECTED = "rejected";
+    public static final String OUTCOME_ERROR = "error";
+
+    private static final String REQUESTS_METRIC = "strac.upstream.requests";
+    private static final String ERRORS_METRIC = "strac.upstream.errors";
+    private static final String BYTES_METRIC = "strac.upstream.bytes";
+
+    private final MeterRegistry meterRegistry;
+
+    public UpstreamMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Time an upstream call, tagging it as a success or an error depending on whether it throws.
+     *
+     * @param upstream  The upstream being called.
+     * @param operation The operation being performed.
+     * @param call      The call to time.
+     * @return The call's result.
+     * @throws IOException If the call fails.
+     */
+    public <T> T record(String upstream, String operation, UpstreamCall<T> call) throws IOException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            T result = call.execute();
+            stop(sample, upstream, operation, OUTCOME_SUCCESS);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            stop(sample, upstream, operation, OUTCOME_ERROR);
+            recordError(upstream, operation, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Start timing an upstream call whose outcome is only known later, e.g. an asynchronous call.
+     *
+     * @return The started sample, to be passed to {@link #stop}.
+     */
+    public Timer.Sample start() {
+        return Timer.start(meterRegistry);
+    }
+
+    /**
+     * Stop timing an upstream call.
+     *
+     * @param sample    The sample returned by {@link #start}.
+     * @param upstream  The upstream that was called.
+     * @param operation The operation that was performed.
+     * @param outcome   The outcome of the call.
+     */
+    public void stop(Timer.Sample sample, String upstream, String operation, String outcome) {
+        sample.stop(Timer.builder(REQUESTS_METRIC)
+                .description("Latency of calls to upstream Google APIs")
+                .tags("upstream", upstream, "operation", operation, "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    /**
+     * Count a failed upstream call by exception type.
+     *
+     * @param upstream  The upstream that was called.
+     * @param operation The operation that was performed.
+     * @param error     The error the call failed with.
+     */
+    public void recordError(String upstream, String operation, Throwable error) {
+        Counter.builder(ERRORS_METRIC)
+                .description("Failed calls to upstream Google APIs")
+                .tags("upstream", upstream, "operation", operation, "exception", error.getClass().getSimpleName())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Record how many bytes an upstream call transferred.
+     *
+     * @param upstream  The upstream that was called.
+     * @param operation The operation that was performed.
+     * @param bytes     The number of bytes sent or received.
+     */
+    public void recordBytes(String upstream, String operation, long bytes) {
+        DistributionSummary.builder(BYTES_METRIC)
+                .description("Bytes transferred by calls to upstream Google APIs")
+                .baseUnit("bytes")
+                .tags("upstream", upstream, "operation", operation)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(bytes);
+    }
+}
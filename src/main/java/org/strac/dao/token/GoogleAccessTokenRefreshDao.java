@@ -1,5 +1,7 @@
 package org.strac.dao.token;
 
+import org.strac.model.RefreshedAccessToken;
+
 public interface GoogleAccessTokenRefreshDao {
     /**
      * Refresh a Google access token using a refresh token.
@@ -8,4 +10,12 @@ public interface GoogleAccessTokenRefreshDao {
      * @return The new access token.
      */
     String refreshAccessToken(String refreshToken);
+
+    /**
+     * Refresh a Google access token using a refresh token, keeping when the new token expires.
+     *
+     * @param refreshToken The refresh token to use.
+     * @return The new access token with its scope and expiry.
+     */
+    RefreshedAccessToken refreshAccessTokenWithExpiry(String refreshToken);
 }
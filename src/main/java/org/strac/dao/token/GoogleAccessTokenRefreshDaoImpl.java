@@ -8,26 +8,39 @@ import com.google.api.client.http.UrlEncodedContent;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import org.springframework.stereotype.Service;
+import org.strac.dao.metrics.UpstreamMetrics;
+import org.strac.model.RefreshedAccessToken;
 
+import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
 
 @Service
 public class GoogleAccessTokenRefreshDaoImpl implements GoogleAccessTokenRefreshDao {
+    private static final GenericUrl TOKEN_URL = new GenericUrl("https://oauth2.googleapis.com/token");
+    private static final String UPSTREAM = "oauth_token";
+
     private final GoogleClientSecrets googleClientSecrets;
-    private final NetHttpTransport netHttpTransport;
-    private final JsonFactory jsonFactory;
+    // Built once and shared, so refreshes reuse the transport's connections
+    private final HttpRequestFactory requestFactory;
+    private final UpstreamMetrics upstreamMetrics;
 
     public GoogleAccessTokenRefreshDaoImpl(GoogleClientSecrets googleClientSecrets,
                                            NetHttpTransport netHttpTransport,
-                                           JsonFactory jsonFactory) {
+                                           JsonFactory jsonFactory,
+                                           UpstreamMetrics upstreamMetrics) {
         this.googleClientSecrets = googleClientSecrets;
-        this.netHttpTransport = netHttpTransport;
-        this.jsonFactory = jsonFactory;
+        this.upstreamMetrics = upstreamMetrics;
+        this.requestFactory = netHttpTransport.createRequestFactory(request -> request.setParser(jsonFactory.createJsonObjectParser()));
     }
 
     @Override
     public String refreshAccessToken(String refreshToken) {
+        return refreshAccessTokenWithExpiry(refreshToken).getAccessToken();
+    }
+
+    @Override
+    public RefreshedAccessToken refreshAccessTokenWithExpiry(String refreshToken) {
         try {
             // Build the token request payload
             Map<String, String> parameters = new HashMap<>();
@@ -37,14 +50,14 @@ public class GoogleAccessTokenRefreshDaoImpl implements GoogleAccessTokenRefresh
             parameters.put("grant_type", "refresh_token");
 
             // Make the HTTP POST request
-            HttpRequestFactory requestFactory = netHttpTransport.createRequestFactory(request -> request.setParser(jsonFactory.createJsonObjectParser()));
-
-            GoogleTokenResponse tokenResponse = requestFactory
-                    .buildPostRequest(new GenericUrl("https://oauth2.googleapis.com/token"),
-                            new UrlEncodedContent(parameters))
+            GoogleTokenResponse tokenResponse = upstreamMetrics.record(UPSTREAM, "refresh", () -> requestFactory
+                    .buildPostRequest(TOKEN_URL, new UrlEncodedContent(parameters))
                     .execute()
-                    .parseAs(GoogleTokenResponse.class);
-            return tokenResponse.getAccessToken();
+                    .parseAs(GoogleTokenResponse.class));
+            Instant expiresAt = tokenResponse.getExpiresInSeconds() != null
+                    ? Instant.now().plusSeconds(tokenResponse.getExpiresInSeconds())
+                    : null;
+            return new RefreshedAccessToken(tokenResponse.getAccessToken(), tokenResponse.getScope(), expiresAt);
         } catch (Exception e) {
             throw new RuntimeException("Error refreshing access token", e);
         }
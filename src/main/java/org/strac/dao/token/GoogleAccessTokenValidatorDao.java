@@ -1,5 +1,9 @@
 package org.strac.dao.token;
 
+import org.strac.model.GoogleAccessTokenInfo;
+
+import java.util.concurrent.CompletableFuture;
+
 public interface GoogleAccessTokenValidatorDao {
     /**
      * Validate a Google access token.
@@ -8,4 +12,21 @@ public interface GoogleAccessTokenValidatorDao {
      * @return True if the token is valid, false otherwise.
      */
     boolean validateGoogleAccessToken(String token);
+
+    /**
+     * Look up a Google access token with the tokeninfo endpoint.
+     *
+     * @param token The access token to look up.
+     * @return The token info, including when the token expires, or null if the token is invalid.
+     */
+    GoogleAccessTokenInfo getGoogleAccessTokenInfo(String token);
+
+    /**
+     * Look up a Google access token with the tokeninfo endpoint without blocking the calling thread.
+     *
+     * @param token The access token to look up.
+     * @return A future completed with the token info, or with null if Google rejected the token.
+     * The future completes exceptionally if tokeninfo could not be reached or failed.
+     */
+    CompletableFuture<GoogleAccessTokenInfo> getGoogleAccessTokenInfoAsync(String token);
 }
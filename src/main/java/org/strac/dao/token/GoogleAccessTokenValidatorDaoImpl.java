@@ -1,46 +1,95 @@
 package org.strac.dao.token;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Repository;
+import org.strac.dao.metrics.UpstreamMetrics;
+import org.strac.model.GoogleAccessTokenInfo;
 
-import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Scanner;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Repository
 public class GoogleAccessTokenValidatorDaoImpl implements GoogleAccessTokenValidatorDao {
 
     private static final String TOKEN_INFO_URL = "https://oauth2.googleapis.com/tokeninfo?access_token=";
+    private static final String UPSTREAM = "tokeninfo";
+    private static final String OPERATION = "validate";
+
+    // Shared client, connections and TLS sessions to tokeninfo are kept alive and reused across validations
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+    private final UpstreamMetrics upstreamMetrics;
+
+    public GoogleAccessTokenValidatorDaoImpl(HttpClient httpClient, Duration requestTimeout, UpstreamMetrics upstreamMetrics) {
+        this.httpClient = httpClient;
+        this.requestTimeout = requestTimeout;
+        this.upstreamMetrics = upstreamMetrics;
+    }
 
     @Override
     public boolean validateGoogleAccessToken(String token) {
+        return getGoogleAccessTokenInfo(token) != null;
+    }
+
+    @Override
+    public GoogleAccessTokenInfo getGoogleAccessTokenInfo(String token) {
         try {
-            // Construct the token info URL
-            URL url = new URL(TOKEN_INFO_URL + token);
-
-            // Open HTTP connection
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(5000); // 5 seconds timeout
-            connection.setReadTimeout(5000);
-
-            // Check response code
-            int responseCode = connection.getResponseCode();
-            if (responseCode == 200) {
-                // Token is valid
-                return true;
-            } else {
-                // Log the error response (e.g., invalid or expired token)
-                Scanner scanner = new Scanner(connection.getErrorStream());
-                while (scanner.hasNextLine()) {
-                    System.err.println(scanner.nextLine());
-                }
-                scanner.close();
-                return false;
-            }
-        } catch (IOException e) {
+            return getGoogleAccessTokenInfoAsync(token).join();
+        } catch (CompletionException e) {
             e.printStackTrace();
-            return false;
+            return null;
         }
     }
+
+    @Override
+    public CompletableFuture<GoogleAccessTokenInfo> getGoogleAccessTokenInfoAsync(String token) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(TOKEN_INFO_URL + URLEncoder.encode(token, StandardCharsets.UTF_8)))
+                .timeout(requestTimeout)
+                .GET()
+                .build();
+
+        Timer.Sample sample = upstreamMetrics.start();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    if (response.statusCode() == 200) {
+                        // Token is valid, read when it expires
+                        GoogleAccessTokenInfo tokenInfo = parseTokenInfo(response.body());
+                        upstreamMetrics.stop(sample, UPSTREAM, OPERATION, UpstreamMetrics.OUTCOME_SUCCESS);
+                        return tokenInfo;
+                    }
+                    if (response.statusCode() >= 500) {
+                        // Google failed, this says nothing about the token itself
+                        throw new RuntimeException("tokeninfo failed with status " + response.statusCode());
+                    }
+                    upstreamMetrics.stop(sample, UPSTREAM, OPERATION, UpstreamMetrics.OUTCOME_REJECTED);
+                    // Log the error response (e.g., invalid or expired token)
+                    System.err.println(response.body());
+                    return (GoogleAccessTokenInfo) null;
+                })
+                .whenComplete((tokenInfo, error) -> {
+                    if (error != null) {
+                        upstreamMetrics.stop(sample, UPSTREAM, OPERATION, UpstreamMetrics.OUTCOME_ERROR);
+                        upstreamMetrics.recordError(UPSTREAM, OPERATION, error.getCause() != null ? error.getCause() : error);
+                    }
+                });
+    }
+
+    private GoogleAccessTokenInfo parseTokenInfo(String body) {
+        JsonObject json = JsonParser.parseString(body).getAsJsonObject();
+        long expiresIn = json.has("expires_in") ? json.get("expires_in").getAsLong() : 0;
+        String subject = json.has("sub") ? json.get("sub").getAsString() : null;
+        String scope = json.has("scope") ? json.get("scope").getAsString() : null;
+        return new GoogleAccessTokenInfo(subject, scope, Instant.now().plusSeconds(expiresIn));
+    }
 }
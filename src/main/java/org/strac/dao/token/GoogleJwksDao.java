@@ -0,0 +1,12 @@
+package org.strac.dao.token;
+
+import io.jsonwebtoken.security.JwkSet;
+
+public interface GoogleJwksDao {
+    /**
+     * Fetch the JSON Web Key Set Google signs its ID tokens with.
+     *
+     * @return Google's current public signing keys.
+     */
+    JwkSet fetchGoogleJwks();
+}
@@ -0,0 +1,48 @@
+package org.strac.dao.token;
+
+import io.jsonwebtoken.security.JwkSet;
+import io.jsonwebtoken.security.Jwks;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+@Repository
+public class GoogleJwksDaoImpl implements GoogleJwksDao {
+
+    private static final String GOOGLE_JWKS_URL = "https://www.googleapis.com/oauth2/v3/certs";
+
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+
+    public GoogleJwksDaoImpl(HttpClient httpClient, Duration requestTimeout) {
+        this.httpClient = httpClient;
+        this.requestTimeout = requestTimeout;
+    }
+
+    @Override
+    public JwkSet fetchGoogleJwks() {
+        try {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(GOOGLE_JWKS_URL))
+                    .timeout(requestTimeout)
+                    .GET()
+                    .build();
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new RuntimeException("Unexpected status fetching Google JWKS: " + response.statusCode());
+            }
+            // Google publishes keys for algorithms we don't use, skip them rather than failing the whole set
+            return Jwks.setParser().ignoreUnsupported(true).build().parse(response.body());
+        } catch (IOException e) {
+            throw new RuntimeException("Error fetching Google JWKS", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while fetching Google JWKS", e);
+        }
+    }
+}
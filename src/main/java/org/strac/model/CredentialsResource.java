@@ -3,9 +3,16 @@ package org.strac.model;
 public class CredentialsResource {
     private String accessToken;
     private String refreshToken;
+    private String sessionToken;
 
     public CredentialsResource(String accessToken, String refreshToken) {
         this.accessToken = accessToken;
         this.refreshToken = refreshToken;
     }
+
+    public CredentialsResource(String accessToken, String refreshToken, String sessionToken) {
+        this.accessToken = accessToken;
+        this.refreshToken = refreshToken;
+        this.sessionToken = sessionToken;
+    }
 }
@@ -0,0 +1,22 @@
+package org.strac.model;
+
+import com.google.api.services.drive.model.File;
+
+public class DriveTreeEntry {
+    private final File file;
+    // Slash separated path relative to the folder the walk started from
+    private final String path;
+
+    public DriveTreeEntry(File file, String path) {
+        this.file = file;
+        this.path = path;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getPath() {
+        return path;
+    }
+}
@@ -0,0 +1,27 @@
+package org.strac.model;
+
+import java.time.Instant;
+
+public class GoogleAccessTokenInfo {
+    private final String subject;
+    private final String scope;
+    private final Instant expiresAt;
+
+    public GoogleAccessTokenInfo(String subject, String scope, Instant expiresAt) {
+        this.subject = subject;
+        this.scope = scope;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+}
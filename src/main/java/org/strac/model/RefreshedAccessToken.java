@@ -0,0 +1,27 @@
+package org.strac.model;
+
+import java.time.Instant;
+
+public class RefreshedAccessToken {
+    private final String accessToken;
+    private final String scope;
+    private final Instant expiresAt;
+
+    public RefreshedAccessToken(String accessToken, String scope, Instant expiresAt) {
+        this.accessToken = accessToken;
+        this.scope = scope;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getAccessToken() {
+        return accessToken;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+}
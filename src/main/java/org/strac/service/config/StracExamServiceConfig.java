@@ -1,25 +1,66 @@
 package org.strac.service.config;
 
 import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
+import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonFactory;
+import com.google.api.services.drive.model.File;
+import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Lazy;
+import org.strac.cache.DiskLruContentCache;
+import org.strac.cache.ExpiringLruCache;
 import org.strac.dao.GoogleDriveDao;
 import org.strac.dao.config.StracExamDaoConfig;
+import org.strac.dao.metrics.UpstreamMetrics;
+import org.strac.service.file.ParallelDeflateZipServiceImpl;
+import org.strac.service.file.TarService;
+import org.strac.service.file.TarServiceImpl;
 import org.strac.service.file.ZipService;
+import org.strac.service.file.ZipMetrics;
 import org.strac.service.file.ZipServiceImpl;
+import org.strac.service.drive.DriveFolderTreeWalkerService;
+import org.strac.service.drive.DriveFolderTreeWalkerServiceImpl;
 import org.strac.service.drive.GoogleDriveCredentialService;
 import org.strac.service.drive.GoogleDriveCredentialServiceImpl;
 import org.strac.service.drive.GoogleDriveService;
 import org.strac.service.drive.GoogleDriveServiceImpl;
-import org.strac.service.file.MultiPartFileToFileTransformerServiceImpl;
-import org.strac.service.file.MultipartFileToFileTransformerService;
 import org.strac.dao.token.GoogleAccessTokenRefreshDao;
 import org.strac.dao.token.GoogleAccessTokenRefreshDaoImpl;
 import org.strac.dao.token.GoogleAccessTokenValidatorDao;
 import org.strac.dao.token.GoogleAccessTokenValidatorDaoImpl;
+import org.strac.dao.token.GoogleJwksDao;
+import org.strac.dao.token.GoogleJwksDaoImpl;
+import org.strac.model.GoogleAccessTokenInfo;
+import org.strac.model.RefreshedAccessToken;
+import org.strac.service.token.GoogleAccessTokenRefreshService;
+import org.strac.service.token.GoogleAccessTokenRefreshServiceImpl;
+import org.strac.service.token.GoogleAccessTokenValidationService;
+import org.strac.service.token.GoogleAccessTokenValidationServiceImpl;
+import org.strac.service.token.GoogleIdTokenVerificationService;
+import org.strac.service.token.GoogleIdTokenVerificationServiceImpl;
+import org.strac.service.token.SessionTokenService;
+import org.strac.service.token.SessionTokenServiceImpl;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Configuration
 @Import({StracExamDaoConfig.class})
@@ -27,35 +68,180 @@ public class StracExamServiceConfig {
     @Bean
     public GoogleDriveService googleDriveService(GoogleDriveDao googleDriveDao,
                                                  GoogleDriveCredentialService googleDriveCredentialService,
-                                                 MultipartFileToFileTransformerService multipartFileToFileTransformerService,
-                                                 ZipService zipService) {
-        return new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService, multipartFileToFileTransformerService, zipService);
+                                                 ZipService zipService,
+                                                 TarService tarService,
+                                                 DriveFolderTreeWalkerService driveFolderTreeWalkerService,
+                                                 @Qualifier("folderPrefetchExecutor") ExecutorService folderPrefetchExecutor,
+                                                 @Value("${strac.drive.metadata-cache.max-entries:10000}") int metadataCacheMaxEntries,
+                                                 @Value("${strac.drive.metadata-cache.ttl-seconds:30}") long metadataCacheTtlSeconds,
+                                                 @Value("${strac.drive.folder-download.prefetch-concurrency:8}") int prefetchConcurrency,
+                                                 @Value("${strac.drive.folder-download.spill-threshold-bytes:1048576}") int spillThresholdBytes,
+                                                 @Value("${strac.drive.folder-archive-cache.enabled:true}") boolean folderArchiveCacheEnabled,
+                                                 @Value("${strac.drive.folder-archive-cache.directory:${java.io.tmpdir}/strac-folder-archive-cache}") String folderArchiveCacheDirectory,
+                                                 @Value("${strac.drive.folder-archive-cache.max-bytes:4294967296}") long folderArchiveCacheMaxBytes) throws IOException {
+        return new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService, zipService,
+                driveFolderTreeWalkerService, new ExpiringLruCache<String, File>(metadataCacheMaxEntries),
+                Duration.ofSeconds(metadataCacheTtlSeconds), prefetchConcurrency, spillThresholdBytes,
+                folderPrefetchExecutor, tarService,
+                // Kept apart from the Drive content cache, so large archives don't evict the files they are built from
+                folderArchiveCacheEnabled ? new DiskLruContentCache(Paths.get(folderArchiveCacheDirectory), folderArchiveCacheMaxBytes) : null);
+    }
+
+    /**
+     * Shared by all folder downloads, so it also caps how many Drive downloads run at once across requests.
+     * Tasks never wait on each other, so queued prefetches always make progress.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService folderPrefetchExecutor(@Value("${strac.drive.folder-download.prefetch-threads:64}") int prefetchThreads) {
+        return newDaemonThreadPool(prefetchThreads, "folder-prefetch-");
+    }
+
+    @Bean
+    public DriveFolderTreeWalkerService driveFolderTreeWalkerService(GoogleDriveDao googleDriveDao,
+                                                                     @Qualifier("folderWalkExecutor") ExecutorService folderWalkExecutor,
+                                                                     @Value("${strac.drive.folder-walk.parallelism:8}") int parallelism,
+                                                                     @Value("${strac.drive.folder-walk.batch-size:50}") int folderBatchSize) {
+        return new DriveFolderTreeWalkerServiceImpl(googleDriveDao, folderWalkExecutor, parallelism, folderBatchSize);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService folderWalkExecutor(@Value("${strac.drive.folder-walk.threads:16}") int walkThreads) {
+        return newDaemonThreadPool(walkThreads, "folder-walk-");
     }
 
     @Bean
-    public GoogleDriveCredentialService googleDriveCredentialService() {
-        return new GoogleDriveCredentialServiceImpl();
+    public GoogleDriveCredentialService googleDriveCredentialService(@Qualifier("driveHttpTransport") HttpTransport driveHttpTransport,
+                                                                     JsonFactory jsonFactory) {
+        return new GoogleDriveCredentialServiceImpl(driveHttpTransport, jsonFactory);
+    }
+
+    @Bean
+    public ZipMetrics zipMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+        // Falls back to the global registry when no actuator registry is configured, e.g. in slim test contexts
+        return new ZipMetrics(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+
+    @Bean
+    public ZipService zipService(ZipMetrics zipMetrics,
+                                 @Qualifier("zipDeflateExecutor") ObjectProvider<ExecutorService> zipDeflateExecutor,
+                                 @Value("${strac.zip.parallel-deflate.enabled:true}") boolean parallelDeflateEnabled,
+                                 @Value("${strac.zip.parallel-deflate.chunk-size-bytes:131072}") int chunkSizeBytes,
+                                 @Value("${strac.zip.parallel-deflate.max-pending-chunks:64}") int maxPendingChunks) {
+        if (!parallelDeflateEnabled) {
+            return new ZipServiceImpl(zipMetrics);
+        }
+        return new ParallelDeflateZipServiceImpl(zipMetrics, zipDeflateExecutor.getObject(), chunkSizeBytes, maxPendingChunks);
+    }
+
+    /**
+     * Deflating is CPU bound, so by default there is one thread per core, shared by all zips being written.
+     * Lazy, so no threads are started when parallel deflate is disabled.
+     */
+    @Bean(destroyMethod = "shutdown")
+    @Lazy
+    public ExecutorService zipDeflateExecutor(@Value("${strac.zip.parallel-deflate.threads:0}") int deflateThreads) {
+        int threads = deflateThreads > 0 ? deflateThreads : Runtime.getRuntime().availableProcessors();
+        return newDaemonThreadPool(threads, "zip-deflate-");
     }
 
     @Bean
-    public MultipartFileToFileTransformerService multipartFileToFileTransformerService() {
-        return new MultiPartFileToFileTransformerServiceImpl();
+    public TarService tarService(@Value("${strac.tar.spill-threshold-bytes:1048576}") int spillThresholdBytes) {
+        return new TarServiceImpl(spillThresholdBytes);
     }
 
     @Bean
-    public ZipService zipService() {
-        return new ZipServiceImpl();
+    public GoogleAccessTokenValidatorDao tokenValidatorService(HttpClient googleHttpClient,
+                                                               @Value("${strac.http.request-timeout-ms:5000}") long requestTimeoutMs,
+                                                               UpstreamMetrics upstreamMetrics) {
+        return new GoogleAccessTokenValidatorDaoImpl(googleHttpClient, Duration.ofMillis(requestTimeoutMs), upstreamMetrics);
     }
 
     @Bean
-    public GoogleAccessTokenValidatorDao tokenValidatorService() {
-        return new GoogleAccessTokenValidatorDaoImpl();
+    public GoogleAccessTokenValidationService googleAccessTokenValidationService(
+            GoogleAccessTokenValidatorDao googleAccessTokenValidatorDao,
+            @Value("${strac.token.validation-cache.max-entries:10000}") int validationCacheMaxEntries,
+            @Value("${strac.token.rejected-cache.max-entries:10000}") int rejectedCacheMaxEntries,
+            @Value("${strac.token.rejected-cache.ttl-seconds:30}") long rejectedCacheTtlSeconds) {
+        return new GoogleAccessTokenValidationServiceImpl(googleAccessTokenValidatorDao,
+                new ExpiringLruCache<String, GoogleAccessTokenInfo>(validationCacheMaxEntries),
+                new ExpiringLruCache<String, Boolean>(rejectedCacheMaxEntries),
+                Duration.ofSeconds(rejectedCacheTtlSeconds));
     }
 
     @Bean
     public GoogleAccessTokenRefreshDao tokenRefreshService(GoogleClientSecrets googleClientSecrets,
                                                            NetHttpTransport netHttpTransport,
-                                                           JsonFactory jsonFactory) {
-        return new GoogleAccessTokenRefreshDaoImpl(googleClientSecrets, netHttpTransport, jsonFactory);
+                                                           JsonFactory jsonFactory,
+                                                           UpstreamMetrics upstreamMetrics) {
+        return new GoogleAccessTokenRefreshDaoImpl(googleClientSecrets, netHttpTransport, jsonFactory, upstreamMetrics);
+    }
+
+    @Bean
+    public GoogleAccessTokenRefreshService googleAccessTokenRefreshService(
+            GoogleAccessTokenRefreshDao googleAccessTokenRefreshDao,
+            GoogleAccessTokenValidationService googleAccessTokenValidationService,
+            @Value("${strac.token.refresh-cache.max-entries:10000}") int refreshCacheMaxEntries,
+            @Value("${strac.token.refresh-cache.expiry-margin-seconds:60}") long expiryMarginSeconds) {
+        return new GoogleAccessTokenRefreshServiceImpl(googleAccessTokenRefreshDao, googleAccessTokenValidationService,
+                new ExpiringLruCache<String, RefreshedAccessToken>(refreshCacheMaxEntries),
+                Duration.ofSeconds(expiryMarginSeconds));
+    }
+
+    @Bean
+    public GoogleJwksDao googleJwksDao(HttpClient googleHttpClient,
+                                       @Value("${strac.http.request-timeout-ms:5000}") long requestTimeoutMs) {
+        return new GoogleJwksDaoImpl(googleHttpClient, Duration.ofMillis(requestTimeoutMs));
+    }
+
+    @Bean
+    public GoogleIdTokenVerificationService googleIdTokenVerificationService(
+            GoogleJwksDao googleJwksDao,
+            GoogleClientSecrets googleClientSecrets,
+            @Value("${strac.auth.google-jwks.refresh-interval-minutes:60}") long refreshIntervalMinutes) {
+        return new GoogleIdTokenVerificationServiceImpl(googleJwksDao, googleClientSecrets.getDetails().getClientId(),
+                Duration.ofMinutes(refreshIntervalMinutes));
+    }
+
+    @Bean
+    public SessionTokenService sessionTokenService(
+            @Value("${strac.auth.session-token.enabled:false}") boolean sessionTokenAuthEnabled,
+            @Value("${strac.auth.session-token.secret:}") String secret,
+            @Value("${strac.auth.session-token.lifetime-minutes:15}") long lifetimeMinutes) {
+        SecretKey encryptionKey;
+        if (!secret.isBlank()) {
+            encryptionKey = sessionTokenKey(secret);
+        } else if (sessionTokenAuthEnabled) {
+            // A key of our own would only accept tokens this instance issued, and none of them after a restart
+            throw new IllegalStateException(
+                    "strac.auth.session-token.secret must be set when strac.auth.session-token.enabled is true");
+        } else {
+            // Session tokens are still issued but never accepted, so a key that only this instance knows will do
+            encryptionKey = Jwts.ENC.A256GCM.key().build();
+        }
+        return new SessionTokenServiceImpl(encryptionKey, Duration.ofMinutes(lifetimeMinutes));
+    }
+
+    /**
+     * Derive the AES-256 session token key from the configured base64 secret, so secrets of any length can be used
+     * and every instance sharing the secret derives the same key.
+     */
+    private static SecretKey sessionTokenKey(String secret) {
+        try {
+            byte[] key = MessageDigest.getInstance("SHA-256").digest(Base64.getDecoder().decode(secret));
+            return new SecretKeySpec(key, "AES");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    // Worker pools are injected by qualifier only, so no other bean queues unrelated work behind them, and are beans so
+    // the context shuts them down on close
+    private static ExecutorService newDaemonThreadPool(int threads, String threadNamePrefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, threadNamePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 }
@@ -0,0 +1,19 @@
+package org.strac.service.drive;
+
+import com.google.api.client.auth.oauth2.Credential;
+
+import java.io.IOException;
+
+public interface DriveFolderTreeWalkerService {
+    /**
+     * Walk a Drive folder tree breadth-first, listing the children of many folders per Drive query
+     * and several such batches at once.
+     * Every page of every folder is listed, and a folder reachable through several parents is only walked once.
+     *
+     * @param credential   The OAuth credential containing the access token.
+     * @param rootFolderId The ID of the folder to start from, or null for the top-level folder.
+     * @param consumer     Receives each file and folder below the root as soon as its batch is listed.
+     * @throws IOException If the consumer fails.
+     */
+    void walk(Credential credential, String rootFolderId, DriveTreeEntryConsumer consumer) throws IOException;
+}
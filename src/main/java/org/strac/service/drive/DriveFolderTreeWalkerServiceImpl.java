@@ -0,0 +1,139 @@
+package org.strac.service.drive;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.services.drive.model.File;
+import org.strac.dao.DriveExportFormats;
+import org.strac.dao.GoogleDriveDao;
+import org.strac.model.DriveTreeEntry;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+public class DriveFolderTreeWalkerServiceImpl implements DriveFolderTreeWalkerService {
+    private static final String ROOT_FOLDER_ALIAS = "root";
+    private static final int DEFAULT_FOLDER_BATCH_SIZE = 50;
+
+    private final GoogleDriveDao googleDriveDao;
+    private final Executor listingExecutor;
+    // Most folder batches listed at once by a single walk
+    private final int parallelism;
+    // Most folders listed together in one batch, the DAO splits a batch further if its query gets too long
+    private final int folderBatchSize;
+
+    /**
+     * Create a walker that lists one batch of folders at a time on the calling thread.
+     *
+     * @param googleDriveDao The DAO used to list folders.
+     */
+    public DriveFolderTreeWalkerServiceImpl(GoogleDriveDao googleDriveDao) {
+        this(googleDriveDao, Runnable::run, 1, DEFAULT_FOLDER_BATCH_SIZE);
+    }
+
+    public DriveFolderTreeWalkerServiceImpl(GoogleDriveDao googleDriveDao, Executor listingExecutor, int parallelism,
+                                            int folderBatchSize) {
+        this.googleDriveDao = googleDriveDao;
+        this.listingExecutor = listingExecutor;
+        this.parallelism = Math.max(1, parallelism);
+        this.folderBatchSize = Math.max(1, folderBatchSize);
+    }
+
+    @Override
+    public void walk(Credential credential, String rootFolderId, DriveTreeEntryConsumer consumer) throws IOException {
+        CompletionService<ListedBatch> completionService = new ExecutorCompletionService<>(listingExecutor);
+        Deque<FolderRequest> pendingFolders = new ArrayDeque<>();
+        List<Future<ListedBatch>> inFlightBatches = new ArrayList<>();
+        Set<String> visitedFolderIds = new HashSet<>();
+
+        String rootId = rootFolderId == null ? ROOT_FOLDER_ALIAS : rootFolderId;
+        visitedFolderIds.add(rootId);
+        pendingFolders.add(new FolderRequest(rootId, ""));
+        try {
+            while (!pendingFolders.isEmpty() || !inFlightBatches.isEmpty()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // The download was cancelled while the tree was still being listed, so no more batches are sent
+                    throw new InterruptedIOException("Interrupted while listing Drive folders");
+                }
+                while (inFlightBatches.size() < parallelism && !pendingFolders.isEmpty()) {
+                    List<FolderRequest> batch = takeBatch(pendingFolders, parallelism - inFlightBatches.size());
+                    List<String> folderIds = batch.stream().map(FolderRequest::folderId).toList();
+                    inFlightBatches.add(completionService.submit(() ->
+                            new ListedBatch(batch, googleDriveDao.listChildrenOfFolders(credential, folderIds))));
+                }
+
+                Future<ListedBatch> completed = takeCompleted(completionService);
+                inFlightBatches.remove(completed);
+                ListedBatch listedBatch = await(completed);
+
+                for (FolderRequest folderRequest : listedBatch.folders()) {
+                    List<File> children = listedBatch.childrenByFolderId().getOrDefault(folderRequest.folderId(), List.of());
+                    for (File file : children) {
+                        String filePath = folderRequest.path().isEmpty() ? file.getName() : folderRequest.path() + "/" + file.getName();
+                        if (DriveExportFormats.FOLDER_MIME_TYPE.equals(file.getMimeType())) {
+                            if (!visitedFolderIds.add(file.getId())) {
+                                // Already reached through another parent
+                                continue;
+                            }
+                            pendingFolders.addLast(new FolderRequest(file.getId(), filePath));
+                        }
+                        consumer.accept(new DriveTreeEntry(file, filePath));
+                    }
+                }
+            }
+        } finally {
+            // Only non-empty if the walk failed part way through
+            inFlightBatches.forEach(future -> future.cancel(true));
+        }
+    }
+
+    private List<FolderRequest> takeBatch(Deque<FolderRequest> pendingFolders, int freeSlots) {
+        // Spread the pending folders over the free slots so a wide level is still listed in parallel
+        int batchSize = Math.min(folderBatchSize, (pendingFolders.size() + freeSlots - 1) / freeSlots);
+        List<FolderRequest> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize && !pendingFolders.isEmpty()) {
+            batch.add(pendingFolders.pollFirst());
+        }
+        return batch;
+    }
+
+    private static Future<ListedBatch> takeCompleted(CompletionService<ListedBatch> completionService) throws IOException {
+        try {
+            return completionService.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while listing Drive folders");
+        }
+    }
+
+    private static ListedBatch await(Future<ListedBatch> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while listing Drive folders");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException("Error listing Drive folders", cause);
+        }
+    }
+
+    private record FolderRequest(String folderId, String path) {
+    }
+
+    private record ListedBatch(List<FolderRequest> folders, Map<String, List<File>> childrenByFolderId) {
+    }
+}
@@ -0,0 +1,19 @@
+package org.strac.service.drive;
+
+import org.strac.model.DriveTreeEntry;
+
+import java.io.IOException;
+
+/**
+ * Receives the entries of a folder tree as they are discovered.
+ */
+@FunctionalInterface
+public interface DriveTreeEntryConsumer {
+    /**
+     * Handle a discovered file or folder. Always called on the thread that started the walk.
+     *
+     * @param entry The file or folder and its path.
+     * @throws IOException If handling the entry fails, which stops the walk.
+     */
+    void accept(DriveTreeEntry entry) throws IOException;
+}
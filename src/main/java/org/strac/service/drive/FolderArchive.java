@@ -0,0 +1,99 @@
+package org.strac.service.drive;
+
+import org.strac.dao.DriveExportFormats;
+import org.strac.model.DriveTreeEntry;
+import org.strac.service.file.ArchiveFormat;
+import org.strac.service.file.StoredZipLayout;
+import org.strac.service.file.ZipCompressionPolicy;
+
+import java.util.List;
+
+/**
+ * A folder's archive, as it would be built from the folder tree listed when it was prepared.
+ * A tree of binary files always builds the same bytes, so the fingerprint identifies the archive's content.
+ * Google Workspace files are exported afresh on every build, and exports may differ byte for byte, so an archive
+ * with any of them is not deterministic: its fingerprint only identifies the tree it was built from.
+ * A zip that stores every file has a precomputed layout, so its length is known without building or caching it.
+ */
+public class FolderArchive {
+    private final String folderId;
+    // Hash of the listed files' paths, IDs, MIME types, checksums and modification times, of the format and of the compression level
+    private final String fingerprint;
+    private final ArchiveFormat format;
+    private final ZipCompressionPolicy compressionPolicy;
+    // Files to archive, sorted by path
+    private final List<DriveTreeEntry> entries;
+    // Size of the archive in the archive cache, or -1 if it has to be built
+    private final long cachedSize;
+    // Layout of the zip with every file stored, in the order of the entries, or null if it is built as a stream
+    private final StoredZipLayout storedLayout;
+    // Whether every build of the tree writes the same bytes, i.e. it has no Google Workspace files to export
+    private final boolean deterministic;
+
+    public FolderArchive(String folderId, String fingerprint, ArchiveFormat format, ZipCompressionPolicy compressionPolicy,
+                         List<DriveTreeEntry> entries, long cachedSize) {
+        this(folderId, fingerprint, format, compressionPolicy, entries, cachedSize, null);
+    }
+
+    public FolderArchive(String folderId, String fingerprint, ArchiveFormat format, ZipCompressionPolicy compressionPolicy,
+                         List<DriveTreeEntry> entries, long cachedSize, StoredZipLayout storedLayout) {
+        if (storedLayout != null && format != ArchiveFormat.ZIP) {
+            throw new IllegalArgumentException("Only a zip has a stored layout, not a " + format.getExtension());
+        }
+        this.folderId = folderId;
+        this.fingerprint = fingerprint;
+        this.format = format;
+        this.compressionPolicy = compressionPolicy;
+        this.entries = entries;
+        this.cachedSize = cachedSize;
+        this.storedLayout = storedLayout;
+        this.deterministic = entries.stream()
+                .noneMatch(entry -> DriveExportFormats.isGoogleWorkspaceFile(entry.getFile().getMimeType()));
+    }
+
+    public String getFolderId() {
+        return folderId;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public ArchiveFormat getFormat() {
+        return format;
+    }
+
+    public ZipCompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    public List<DriveTreeEntry> getEntries() {
+        return entries;
+    }
+
+    public long getCachedSize() {
+        return cachedSize;
+    }
+
+    public StoredZipLayout getStoredLayout() {
+        return storedLayout;
+    }
+
+    public boolean isDeterministic() {
+        return deterministic;
+    }
+
+    public boolean isCached() {
+        return cachedSize >= 0;
+    }
+
+    /**
+     * @return The length of the archive in bytes, or -1 if it is only known once the archive is built.
+     */
+    public long getContentLength() {
+        if (storedLayout != null) {
+            return storedLayout.getLength();
+        }
+        return cachedSize;
+    }
+}
@@ -2,14 +2,25 @@ package org.strac.service.drive;
 
 import com.google.api.client.auth.oauth2.BearerToken;
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.JsonFactory;
 import org.springframework.stereotype.Service;
 
 @Service
 public class GoogleDriveCredentialServiceImpl implements GoogleDriveCredentialService {
+    // Shared by every credential, so Drive calls reuse pooled connections
+    private final HttpTransport httpTransport;
+    private final JsonFactory jsonFactory;
+
+    public GoogleDriveCredentialServiceImpl(HttpTransport httpTransport, JsonFactory jsonFactory) {
+        this.httpTransport = httpTransport;
+        this.jsonFactory = jsonFactory;
+    }
+
     public Credential createCredentialFromAccessToken(String accessToken) {
         return new Credential.Builder(BearerToken.authorizationHeaderAccessMethod())
-                .setTransport(new com.google.api.client.http.javanet.NetHttpTransport())
-                .setJsonFactory(new com.google.api.client.json.gson.GsonFactory())
+                .setTransport(httpTransport)
+                .setJsonFactory(jsonFactory)
                 .build()
                 .setAccessToken(accessToken);
     }
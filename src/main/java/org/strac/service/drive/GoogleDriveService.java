@@ -4,6 +4,8 @@ import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.services.drive.model.File;
 import com.google.api.services.drive.model.FileList;
 import org.springframework.web.multipart.MultipartFile;
+import org.strac.service.file.ArchiveFormat;
+import org.strac.service.file.ZipCompressionPolicy;
 
 import java.io.OutputStream;
 import java.util.List;
@@ -30,6 +32,15 @@ public interface GoogleDriveService {
      */
     List<File> listFiles(String accessToken, String parentId);
 
+    /**
+     * Get a file's metadata from Google Drive.
+     *
+     * @param accessToken The access token for Google API.
+     * @param fileId The ID of the file.
+     * @return The file's metadata.
+     */
+    File getFileMetadata(String accessToken, String fileId);
+
     /**
      * Download a file from Google Drive to a stream.
      *
@@ -39,6 +50,28 @@ public interface GoogleDriveService {
      */
     void downloadFileToStream(String accessToken, String fileId, OutputStream outputStream);
 
+    /**
+     * Export a Google Workspace file from Google Drive to a stream in a given format.
+     *
+     * @param accessToken The access token for Google API.
+     * @param fileId The ID of the file to export.
+     * @param exportMimeType The MIME type to export the file as.
+     * @param outputStream The OutputStream to write the exported file to.
+     */
+    void exportFileToStream(String accessToken, String fileId, String exportMimeType, OutputStream outputStream);
+
+    /**
+     * Download a byte range of a binary file from Google Drive to a stream.
+     *
+     * @param accessToken The access token for Google API.
+     * @param fileId The ID of the file to download.
+     * @param firstBytePos The position of the first byte to download.
+     * @param lastBytePos The position of the last byte to download, inclusive.
+     * @param outputStream The OutputStream to write the bytes to.
+     */
+    void downloadFileRangeToStream(String accessToken, String fileId, long firstBytePos, long lastBytePos,
+                                   OutputStream outputStream);
+
     /**
      * Download a folder from Google Drive as a zip.
      *
@@ -48,6 +81,50 @@ public interface GoogleDriveService {
      */
     void downloadFolderAsStream(String accessToken, String folderId, OutputStream outputStream);
 
+    /**
+     * Download a folder from Google Drive as a zip, compressing each file as the policy says for its MIME type.
+     *
+     * @param accessToken The access token for Google API.
+     * @param folderId The ID of the folder to download.
+     * @param compressionPolicy Decides how each file is compressed.
+     * @param outputStream The OutputStream to write the zip to.
+     */
+    void downloadFolderAsStream(String accessToken, String folderId, ZipCompressionPolicy compressionPolicy,
+                                OutputStream outputStream);
+
+    /**
+     * List a folder tree to find out which archive it builds and whether that archive is already cached.
+     *
+     * @param accessToken The access token for Google API.
+     * @param folderId The ID of the folder to archive.
+     * @param format The archive format: zip, tar, tar.gz or tar.zst.
+     * @param compressionPolicy Decides how each file of a zip is compressed, or the level of a compressed tar.
+     * @return The folder's archive, identified by a fingerprint of the listed tree and the format.
+     */
+    FolderArchive prepareFolderArchive(String accessToken, String folderId, ArchiveFormat format,
+                                       ZipCompressionPolicy compressionPolicy);
+
+    /**
+     * Write a prepared folder archive, from the cache if it is there, otherwise building and caching it.
+     *
+     * @param accessToken The access token for Google API.
+     * @param archive The archive prepared by prepareFolderArchive.
+     * @param outputStream The OutputStream to write the archive to.
+     */
+    void writeFolderArchiveToStream(String accessToken, FolderArchive archive, OutputStream outputStream);
+
+    /**
+     * Write a byte range of a prepared folder archive, from the cache if it is there, otherwise cut out of a rebuild.
+     *
+     * @param accessToken The access token for Google API.
+     * @param archive The archive prepared by prepareFolderArchive.
+     * @param firstBytePos The position of the first byte to write.
+     * @param lastBytePos The position of the last byte to write, inclusive.
+     * @param outputStream The OutputStream to write the bytes to.
+     */
+    void writeFolderArchiveRangeToStream(String accessToken, FolderArchive archive, long firstBytePos, long lastBytePos,
+                                         OutputStream outputStream);
+
     /**
      * Delete a file from Google Drive.
      *
@@ -3,43 +3,129 @@ package org.strac.service.drive;
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.services.drive.model.File;
 import com.google.api.services.drive.model.FileList;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import org.strac.cache.DiskLruContentCache;
+import org.strac.cache.ExpiringLruCache;
+import org.strac.cache.TokenHashes;
+import org.strac.dao.DriveExportFormats;
 import org.strac.dao.GoogleDriveDao;
-import org.strac.service.file.MultipartFileToFileTransformerService;
+import org.strac.model.DriveTreeEntry;
+import org.strac.service.file.ArchiveFormat;
+import org.strac.service.file.StoredZipContent;
+import org.strac.service.file.StoredZipLayout;
+import org.strac.service.file.TarService;
+import org.strac.service.file.TarServiceImpl;
+import org.strac.service.file.ZipCompressionPolicy;
+import org.strac.service.file.ZipEntryWriter;
 import org.strac.service.file.ZipService;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 import java.util.zip.ZipOutputStream;
 
 @Service
 public class GoogleDriveServiceImpl implements GoogleDriveService {
+    private static final int DEFAULT_FILE_METADATA_CACHE_MAX_ENTRIES = 10_000;
+    private static final Duration DEFAULT_FILE_METADATA_TTL = Duration.ofSeconds(30);
+    private static final int STORED_ENTRY_CRC_CACHE_MAX_ENTRIES = 100_000;
+    private static final Duration STORED_ENTRY_CRC_TTL = Duration.ofDays(1);
+    private static final String STORED_ZIP_CRC_TABLE_CACHE_KEY_SUFFIX = ":crc32";
+
     private final GoogleDriveDao googleDriveDao;
     private final GoogleDriveCredentialService googleDriveCredentialService;
-    private final MultipartFileToFileTransformerService multipartFileToFileTransformerService;
     private final ZipService zipService;
+    private final TarService tarService;
+    private final DriveFolderTreeWalkerService driveFolderTreeWalkerService;
+    // File metadata per access token hash and file ID, so a download right after a metadata lookup skips Drive's files.get
+    private final ExpiringLruCache<String, File> fileMetadataCache;
+    private final Duration fileMetadataTtl;
+    // Folder downloads fetch up to this many files ahead in parallel, 1 keeps them strictly serial
+    private final int folderPrefetchConcurrency;
+    // Prefetched files larger than this are spilled to a temp file instead of kept in memory
+    private final int folderPrefetchSpillThresholdBytes;
+    private final ExecutorService folderPrefetchExecutor;
+    // Built folder zips per folder ID and tree fingerprint, or null to always stream them straight from Drive
+    private final DiskLruContentCache folderArchiveCache;
+    // CRC-32s of files in stored zips per file ID and version, so resuming one doesn't download them again
+    private final ExpiringLruCache<String, Long> storedEntryCrcCache = new ExpiringLruCache<>(STORED_ENTRY_CRC_CACHE_MAX_ENTRIES);
 
     public GoogleDriveServiceImpl(GoogleDriveDao googleDriveDao,
                                   GoogleDriveCredentialService googleDriveCredentialService,
-                                  MultipartFileToFileTransformerService multipartFileToFileTransformerService,
                                   ZipService zipService) {
+        this(googleDriveDao, googleDriveCredentialService, zipService,
+                new DriveFolderTreeWalkerServiceImpl(googleDriveDao), new ExpiringLruCache<>(DEFAULT_FILE_METADATA_CACHE_MAX_ENTRIES),
+                DEFAULT_FILE_METADATA_TTL, 1, 0, null);
+    }
+
+    public GoogleDriveServiceImpl(GoogleDriveDao googleDriveDao,
+                                  GoogleDriveCredentialService googleDriveCredentialService,
+                                  ZipService zipService,
+                                  DriveFolderTreeWalkerService driveFolderTreeWalkerService,
+                                  ExpiringLruCache<String, File> fileMetadataCache,
+                                  Duration fileMetadataTtl,
+                                  int folderPrefetchConcurrency,
+                                  int folderPrefetchSpillThresholdBytes,
+                                  ExecutorService folderPrefetchExecutor) {
+        this(googleDriveDao, googleDriveCredentialService, zipService,
+                driveFolderTreeWalkerService, fileMetadataCache, fileMetadataTtl, folderPrefetchConcurrency,
+                folderPrefetchSpillThresholdBytes, folderPrefetchExecutor, new TarServiceImpl(), null);
+    }
+
+    public GoogleDriveServiceImpl(GoogleDriveDao googleDriveDao,
+                                  GoogleDriveCredentialService googleDriveCredentialService,
+                                  ZipService zipService,
+                                  DriveFolderTreeWalkerService driveFolderTreeWalkerService,
+                                  ExpiringLruCache<String, File> fileMetadataCache,
+                                  Duration fileMetadataTtl,
+                                  int folderPrefetchConcurrency,
+                                  int folderPrefetchSpillThresholdBytes,
+                                  ExecutorService folderPrefetchExecutor,
+                                  TarService tarService,
+                                  DiskLruContentCache folderArchiveCache) {
         this.googleDriveDao = googleDriveDao;
         this.googleDriveCredentialService = googleDriveCredentialService;
-        this.multipartFileToFileTransformerService = multipartFileToFileTransformerService;
         this.zipService = zipService;
+        this.tarService = tarService;
+        this.driveFolderTreeWalkerService = driveFolderTreeWalkerService;
+        this.fileMetadataCache = fileMetadataCache;
+        this.fileMetadataTtl = fileMetadataTtl;
+        this.folderPrefetchConcurrency = folderPrefetchConcurrency;
+        this.folderPrefetchSpillThresholdBytes = folderPrefetchSpillThresholdBytes;
+        this.folderPrefetchExecutor = folderPrefetchExecutor;
+        this.folderArchiveCache = folderArchiveCache;
     }
 
     public void uploadFile(String accessToken, MultipartFile multipartFile, String folderId) {
         try {
             Credential credential = googleDriveCredentialService.createCredentialFromAccessToken(accessToken);
 
-            // Convert MultipartFile to java.io.File
-            java.io.File file = multipartFileToFileTransformerService.convertMultipartFileToFile(multipartFile);
-
-            googleDriveDao.uploadFile(credential, file, multipartFile.getContentType(), folderId);
+            // Pipe the upload straight into Drive, rather than copying it to a local file and reading it back
+            try (InputStream content = multipartFile.getInputStream()) {
+                googleDriveDao.uploadFile(credential, multipartFile.getOriginalFilename(), multipartFile.getContentType(),
+                        multipartFile.getSize(), content, folderId);
+            }
         } catch (Exception e) {
             throw new RuntimeException("Error uploading file to Google Drive", e);
         }
@@ -58,19 +144,70 @@ public class GoogleDriveServiceImpl implements GoogleDriveService {
         }
     }
 
+    @Override
+    public File getFileMetadata(String accessToken, String fileId) {
+        try {
+            String cacheKey = fileMetadataCacheKey(accessToken, fileId);
+            File cachedMetadata = fileMetadataCache.get(cacheKey);
+            if (cachedMetadata != null) {
+                return cachedMetadata;
+            }
+
+            Credential credential = googleDriveCredentialService.createCredentialFromAccessToken(accessToken);
+            File metadata = googleDriveDao.getFileMetadata(credential, fileId);
+            if (metadata != null) {
+                fileMetadataCache.put(cacheKey, metadata, Instant.now().plus(fileMetadataTtl));
+            }
+            return metadata;
+        } catch (Exception e) {
+            throw new RuntimeException("Error fetching file metadata from Google Drive", e);
+        }
+    }
+
     @Override
     public void downloadFileToStream(String accessToken, String fileId, OutputStream outputStream) {
         try {
             Credential credential = googleDriveCredentialService.createCredentialFromAccessToken(accessToken);
-            googleDriveDao.downloadFileToStream(credential, fileId, outputStream);
+            File cachedMetadata = fileMetadataCache.get(fileMetadataCacheKey(accessToken, fileId));
+            if (cachedMetadata != null) {
+                // The MIME type is already known, so go straight to the content
+                googleDriveDao.downloadFileContentToStream(credential, cachedMetadata, outputStream);
+            } else {
+                googleDriveDao.downloadFileToStream(credential, fileId, outputStream);
+            }
         } catch (Exception e) {
             throw new RuntimeException("Error downloading file from Google Drive", e);
         }
     }
 
 
+    @Override
+    public void exportFileToStream(String accessToken, String fileId, String exportMimeType, OutputStream outputStream) {
+        try {
+            // The metadata carries the modification time exports are cached by
+            File metadata = getFileMetadata(accessToken, fileId);
+            Credential credential = googleDriveCredentialService.createCredentialFromAccessToken(accessToken);
+            googleDriveDao.exportFileToStream(credential, metadata, exportMimeType, outputStream);
+        } catch (Exception e) {
+            throw new RuntimeException("Error exporting file from Google Drive", e);
+        }
+    }
+
+    @Override
+    public void downloadFileRangeToStream(String accessToken, String fileId, long firstBytePos, long lastBytePos,
+                                          OutputStream outputStream) {
+        try {
+            Credential credential = googleDriveCredentialService.createCredentialFromAccessToken(accessToken);
+            googleDriveDao.downloadFileRangeToStream(credential, fileId, firstBytePos, lastBytePos, outputStream);
+        } catch (Exception e) {
+            throw new RuntimeException("Error downloading file range from Google Drive", e);
+        }
+    }
+
     /**
      * Download a folder from Google Drive as a zipped stream.
+     * The folder tree is listed breadth-first, several folders at a time, and each file is piped from Drive into
+     * its zip entry, either directly or through a bounded prefetch window that downloads upcoming files in parallel.
      *
      * @param accessToken The access token for Google API.
      * @param folderId    The ID of the folder to download.
@@ -78,37 +215,482 @@ public class GoogleDriveServiceImpl implements GoogleDriveService {
      */
     @Override
     public void downloadFolderAsStream(String accessToken, String folderId, OutputStream outputStream) {
+        downloadFolderAsStream(accessToken, folderId, ZipCompressionPolicy.DEFAULT, outputStream);
+    }
+
+    /**
+     * Download a folder from Google Drive as a zipped stream, compressing each file as the policy says for its MIME type.
+     * With an archive cache the tree is listed first, so a zip built from the same tree before is served from disk.
+     *
+     * @param accessToken       The access token for Google API.
+     * @param folderId          The ID of the folder to download.
+     * @param compressionPolicy Decides how each file is compressed.
+     * @param outputStream      The HTTP output stream to write the zip data to.
+     */
+    @Override
+    public void downloadFolderAsStream(String accessToken, String folderId, ZipCompressionPolicy compressionPolicy,
+                                       OutputStream outputStream) {
+        if (folderArchiveCache != null) {
+            writeFolderArchiveToStream(accessToken, prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP, compressionPolicy),
+                    outputStream);
+            return;
+        }
+        try {
+            Credential credential = googleDriveCredentialService.createCredentialFromAccessToken(accessToken);
+            // Without a cache to look in, files are downloaded while the tree is still being listed
+            writeFolderArchive(credential, ArchiveFormat.ZIP, compressionPolicy,
+                    consumer -> driveFolderTreeWalkerService.walk(credential, folderId, consumer), outputStream);
+        } catch (Exception e) {
+            throw new RuntimeException("Error streaming folder from Google Drive", e);
+        }
+    }
+
+    @Override
+    public FolderArchive prepareFolderArchive(String accessToken, String folderId, ArchiveFormat format,
+                                              ZipCompressionPolicy compressionPolicy) {
         try {
             Credential credential = googleDriveCredentialService.createCredentialFromAccessToken(accessToken);
 
-            // Use a ZipOutputStream to stream the folder contents
-            try (ZipOutputStream zos = new ZipOutputStream(outputStream)) {
-                fetchAndDownloadFolderContentsToStream(credential, folderId, "", zos);
+            List<DriveTreeEntry> entries = new ArrayList<>();
+            driveFolderTreeWalkerService.walk(credential, folderId, entry -> {
+                // Folders only contribute to the paths of their files
+                if (!DriveExportFormats.FOLDER_MIME_TYPE.equals(entry.getFile().getMimeType())) {
+                    entries.add(entry);
+                }
+            });
+            // Folders are listed in parallel, so sort to build the same archive from the same tree every time
+            entries.sort(Comparator.comparing(DriveTreeEntry::getPath).thenComparing(entry -> entry.getFile().getId()));
+
+            String fingerprint = folderTreeFingerprint(entries, format, compressionPolicy);
+            StoredZipLayout storedLayout = format == ArchiveFormat.ZIP ? storedZipLayout(entries, compressionPolicy) : null;
+            // A stored zip is generated on the fly for any range, so it isn't cached
+            long cachedSize = storedLayout != null || folderArchiveCache == null
+                    ? -1 : folderArchiveCache.length(folderArchiveCacheKey(folderId, fingerprint));
+            return new FolderArchive(folderId, fingerprint, format, compressionPolicy, List.copyOf(entries), cachedSize, storedLayout);
+        } catch (Exception e) {
+            throw new RuntimeException("Error listing folder from Google Drive", e);
+        }
+    }
+
+    @Override
+    public void writeFolderArchiveToStream(String accessToken, FolderArchive archive, OutputStream outputStream) {
+        try {
+            Credential credential = googleDriveCredentialService.createCredentialFromAccessToken(accessToken);
+            if (archive.getStoredLayout() != null) {
+                DriveStoredZipContent content = new DriveStoredZipContent(credential, archive);
+                archive.getStoredLayout().writeTo(content, outputStream);
+                content.storeCrcTable();
+                return;
+            }
+
+            DiskLruContentCache.ContentWriter build = stream -> writeFolderArchive(credential, archive, stream);
+            if (folderArchiveCache == null) {
+                build.writeTo(outputStream);
+                return;
+            }
+
+            String cacheKey = folderArchiveCacheKey(archive.getFolderId(), archive.getFingerprint());
+            if (!folderArchiveCache.serve(cacheKey, outputStream)) {
+                folderArchiveCache.fill(cacheKey, build, outputStream);
             }
         } catch (Exception e) {
             throw new RuntimeException("Error streaming folder from Google Drive", e);
         }
     }
 
-    private void fetchAndDownloadFolderContentsToStream(Credential credential, String folderId, String currentPath, ZipOutputStream zos) {
-        FileList fileList = googleDriveDao.listFiles(credential, folderId);
-        for (File file : fileList.getFiles()) {
-            String filePath = currentPath.isEmpty() ? file.getName() : currentPath + "/" + file.getName();
-            if ("application/vnd.google-apps.folder".equals(file.getMimeType())) {
-                // Recursively fetch and download folder contents
-                fetchAndDownloadFolderContentsToStream(credential, file.getId(), filePath, zos);
+    @Override
+    public void writeFolderArchiveRangeToStream(String accessToken, FolderArchive archive, long firstBytePos, long lastBytePos,
+                                                OutputStream outputStream) {
+        try {
+            if (archive.getStoredLayout() != null) {
+                // Only the entries the range covers are read from Drive, and those it covers partly only in ranges
+                Credential credential = googleDriveCredentialService.createCredentialFromAccessToken(accessToken);
+                DriveStoredZipContent content = new DriveStoredZipContent(credential, archive);
+                archive.getStoredLayout().writeRange(firstBytePos, lastBytePos, content, outputStream);
+                content.storeCrcTable();
+                return;
+            }
+            if (folderArchiveCache != null && folderArchiveCache.serveRange(folderArchiveCacheKey(archive.getFolderId(), archive.getFingerprint()),
+                    firstBytePos, lastBytePos, outputStream)) {
+                return;
+            }
+            if (!archive.isDeterministic()) {
+                // A rebuild exports the Workspace files again, so its bytes may not line up with the ones already sent
+                throw new IllegalStateException("Archive of folder " + archive.getFolderId()
+                        + " is no longer cached and can't be rebuilt byte for byte");
+            }
+            // Evicted since it was prepared, but the tree builds the same bytes again, so the range can be cut out of a rebuild
+            Credential credential = googleDriveCredentialService.createCredentialFromAccessToken(accessToken);
+            writeFolderArchive(credential, archive, new ByteRangeOutputStream(outputStream, firstBytePos, lastBytePos));
+        } catch (Exception e) {
+            if (isRangeComplete(e)) {
+                // The rebuild was stopped once it passed the end of the range, nothing after it needs downloading
+                return;
+            }
+            throw new RuntimeException("Error streaming folder range from Google Drive", e);
+        }
+    }
+
+    private static boolean isRangeComplete(Throwable throwable) {
+        // The DAO wraps what the stream throws, so look through the causes
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RangeCompleteException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeFolderArchive(Credential credential, FolderArchive archive, OutputStream outputStream) throws IOException {
+        writeFolderArchive(credential, archive.getFormat(), archive.getCompressionPolicy(), consumer -> {
+            for (DriveTreeEntry entry : archive.getEntries()) {
+                consumer.accept(entry);
+            }
+        }, outputStream);
+    }
+
+    private void writeFolderArchive(Credential credential, ArchiveFormat format, ZipCompressionPolicy compressionPolicy,
+                                    FolderTree folderTree, OutputStream outputStream) throws IOException {
+        if (format.isTar()) {
+            writeFolderTar(credential, format, compressionPolicy, folderTree, outputStream);
+        } else {
+            writeFolderZip(credential, compressionPolicy, folderTree, outputStream);
+        }
+    }
+
+    private void writeFolderZip(Credential credential, ZipCompressionPolicy compressionPolicy, FolderTree folderTree,
+                                OutputStream outputStream) throws IOException {
+        // Use a ZipOutputStream to stream the folder contents, leaving the caller's stream open
+        try (ZipOutputStream zos = zipService.createZipOutputStream(CloseShieldOutputStream.wrap(outputStream))) {
+            if (folderPrefetchConcurrency <= 1 || folderPrefetchExecutor == null) {
+                downloadFolderContentsToStream(credential, folderTree,
+                        (filePath, mimeType, lastModifiedTime, size, download) ->
+                                zipService.addFileToZip(zos, filePath, mimeType, lastModifiedTime, compressionPolicy, download));
             } else {
-                // If it's a file, add it to the zip
-                try (ByteArrayOutputStream fileOutputStream = new ByteArrayOutputStream()) {
-                    googleDriveDao.downloadFileToStream(credential, file.getId(), fileOutputStream);
-                    zipService.addFileToZip(zos, filePath, fileOutputStream.toByteArray());
-                } catch (IOException e) {
-                    throw new RuntimeException("Error adding file to zip: " + filePath, e);
+                try (PrefetchingArchiveWriter zipWriter = new PrefetchingArchiveWriter(
+                        (filePath, mimeType, lastModifiedTime, size, crc, content) -> zipService.addFileToZip(zos, filePath,
+                                mimeType, lastModifiedTime, compressionPolicy, size, crc, content),
+                        folderPrefetchExecutor, folderPrefetchConcurrency, folderPrefetchSpillThresholdBytes)) {
+                    downloadFolderContentsToStream(credential, folderTree,
+                            (filePath, mimeType, lastModifiedTime, size, download) ->
+                                    zipWriter.add(filePath, mimeType, lastModifiedTime, download));
+                    zipWriter.finish();
                 }
             }
         }
     }
 
+    private void writeFolderTar(Credential credential, ArchiveFormat format, ZipCompressionPolicy compressionPolicy,
+                                FolderTree folderTree, OutputStream outputStream) throws IOException {
+        // The whole tar is compressed as one stream, so the policy only gives the level, not a choice per MIME type
+        try (TarArchiveOutputStream tos = tarService.createTarOutputStream(CloseShieldOutputStream.wrap(outputStream), format,
+                compressionPolicy)) {
+            if (folderPrefetchConcurrency <= 1 || folderPrefetchExecutor == null) {
+                downloadFolderContentsToStream(credential, folderTree, (filePath, mimeType, lastModifiedTime, size, download) -> {
+                    // A tar header holds the size, so only files of a listed size are piped straight through
+                    if (size >= 0) {
+                        tarService.addFileToTar(tos, filePath, lastModifiedTime, size, download);
+                    } else {
+                        tarService.addFileToTar(tos, filePath, lastModifiedTime, download);
+                    }
+                });
+            } else {
+                // Prefetched files are buffered anyway, so their size is known by the time they are written
+                try (PrefetchingArchiveWriter tarWriter = new PrefetchingArchiveWriter(
+                        (filePath, mimeType, lastModifiedTime, size, crc, content) ->
+                                tarService.addFileToTar(tos, filePath, lastModifiedTime, size, content),
+                        folderPrefetchExecutor, folderPrefetchConcurrency, folderPrefetchSpillThresholdBytes)) {
+                    downloadFolderContentsToStream(credential, folderTree,
+                            (filePath, mimeType, lastModifiedTime, size, download) ->
+                                    tarWriter.add(filePath, mimeType, lastModifiedTime, download));
+                    tarWriter.finish();
+                }
+            }
+        }
+    }
+
+    private void downloadFolderContentsToStream(Credential credential, FolderTree folderTree, FolderEntrySink entrySink)
+            throws IOException {
+        folderTree.walk(entry -> {
+            File file = entry.getFile();
+            // Folders only contribute to the paths of their files
+            if (!DriveExportFormats.FOLDER_MIME_TYPE.equals(file.getMimeType())) {
+                // If it's a file, hand over a download that pipes its content from Drive, using the listed MIME type
+                String contentMimeType = DriveExportFormats.isGoogleWorkspaceFile(file.getMimeType())
+                        ? DriveExportFormats.getExportMimeType(file.getMimeType()) : file.getMimeType();
+                // Drive's modification time rather than the current time, so the same tree always builds the same bytes
+                long lastModifiedTime = file.getModifiedTime() == null ? -1 : file.getModifiedTime().getValue();
+                // Exports have no size until they are generated
+                long size = file.getSize() == null || DriveExportFormats.isGoogleWorkspaceFile(file.getMimeType())
+                        ? -1 : file.getSize();
+                entrySink.accept(entry.getPath(), contentMimeType, lastModifiedTime, size,
+                        entryStream -> googleDriveDao.downloadFileContentToStream(credential, file, entryStream));
+            }
+        });
+    }
+
+    private static String folderTreeFingerprint(List<DriveTreeEntry> entries, ArchiveFormat format,
+                                                ZipCompressionPolicy compressionPolicy) {
+        StringBuilder tree = new StringBuilder("format=").append(format.getExtension()).append('\n')
+                .append("level=").append(compressionPolicy.getLevel()).append('\n');
+        for (DriveTreeEntry entry : entries) {
+            File file = entry.getFile();
+            tree.append(entry.getPath()).append('\0')
+                    .append(file.getId()).append('\0')
+                    .append(file.getMimeType()).append('\0')
+                    .append(file.getSize()).append('\0')
+                    .append(file.getMd5Checksum()).append('\0')
+                    .append(file.getModifiedTime() == null ? null : file.getModifiedTime().getValue()).append('\n');
+        }
+        return TokenHashes.sha256Hex(tree.toString());
+    }
+
+    /**
+     * Lay out a zip that stores every file, if the policy stores everything and every file's size is listed.
+     * Exports have no size until they are generated, so a tree with Google Workspace files is zipped as a stream.
+     */
+    private static StoredZipLayout storedZipLayout(List<DriveTreeEntry> entries, ZipCompressionPolicy compressionPolicy) {
+        if (compressionPolicy.getLevel() != ZipCompressionPolicy.MIN_LEVEL) {
+            return null;
+        }
+        List<StoredZipLayout.Entry> layoutEntries = new ArrayList<>(entries.size());
+        for (DriveTreeEntry entry : entries) {
+            File file = entry.getFile();
+            if (file.getSize() == null || DriveExportFormats.isGoogleWorkspaceFile(file.getMimeType())) {
+                return null;
+            }
+            long lastModifiedTime = file.getModifiedTime() == null ? -1 : file.getModifiedTime().getValue();
+            layoutEntries.add(new StoredZipLayout.Entry(entry.getPath(), file.getSize(), lastModifiedTime));
+        }
+        return new StoredZipLayout(layoutEntries);
+    }
+
+    private static String storedEntryCrcCacheKey(File file) {
+        return file.getId() + ":" + file.getMd5Checksum() + ":" + (file.getModifiedTime() == null ? null : file.getModifiedTime().getValue());
+    }
+
+    private static String folderArchiveCacheKey(String folderId, String fingerprint) {
+        return folderId + ":" + fingerprint;
+    }
+
+    private static String fileMetadataCacheKey(String accessToken, String fileId) {
+        // Keyed per token so a user is never served metadata of a file they can't read
+        return TokenHashes.sha256Hex(accessToken) + ":" + fileId;
+    }
+
+    @FunctionalInterface
+    private interface FolderTree {
+        void walk(DriveTreeEntryConsumer consumer) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface FolderEntrySink {
+        void accept(String filePath, String mimeType, long lastModifiedTime, long size, ZipEntryWriter download) throws IOException;
+    }
+
+    /**
+     * Reads the files of a stored folder zip from Drive, downloading only the ranges that are asked for.
+     * Checksums of files written in full are worked out as they stream past. Those a range needs without the file,
+     * all of them once it reaches the central directory, are downloaded in parallel like prefetched files, read
+     * straight into the checksum with nothing kept. The complete table is kept in the folder archive cache next to
+     * where the zip would be, so resuming on another node or after a restart doesn't download every file again.
+     */
+    private class DriveStoredZipContent implements StoredZipContent {
+        private final Credential credential;
+        private final List<DriveTreeEntry> entries;
+        // Key of the zip's checksums in the folder archive cache, or null without one
+        private final String crcTableCacheKey;
+        private boolean crcTableLoaded;
+        private boolean crcTableStored;
+
+        DriveStoredZipContent(Credential credential, FolderArchive archive) {
+            this.credential = credential;
+            this.entries = archive.getEntries();
+            this.crcTableCacheKey = folderArchiveCache == null ? null
+                    : folderArchiveCacheKey(archive.getFolderId(), archive.getFingerprint()) + STORED_ZIP_CRC_TABLE_CACHE_KEY_SUFFIX;
+        }
+
+        @Override
+        public void writeEntry(int index, OutputStream outputStream) {
+            googleDriveDao.downloadFileContentToStream(credential, entries.get(index).getFile(), outputStream);
+        }
+
+        @Override
+        public void writeEntryRange(int index, long firstBytePos, long lastBytePos, OutputStream outputStream) {
+            googleDriveDao.downloadFileRangeToStream(credential, entries.get(index).getFile().getId(), firstBytePos, lastBytePos,
+                    outputStream);
+        }
+
+        @Override
+        public long crc32(int index) throws IOException {
+            Long crc32 = cachedCrc32(index);
+            // Not streamed since it changed or was evicted, so the file has to be read once more for its checksum
+            return crc32 != null ? crc32 : downloadCrc32(entries.get(index).getFile());
+        }
+
+        @Override
+        public void crc32Computed(int index, long crc32) {
+            storedEntryCrcCache.put(storedEntryCrcCacheKey(entries.get(index).getFile()), crc32,
+                    Instant.now().plus(STORED_ENTRY_CRC_TTL));
+        }
+
+        @Override
+        public void loadCrc32s(int[] indexes) throws IOException {
+            List<File> missingFiles = new ArrayList<>();
+            for (int index : indexes) {
+                if (cachedCrc32(index) == null) {
+                    missingFiles.add(entries.get(index).getFile());
+                }
+            }
+            if (folderPrefetchConcurrency <= 1 || folderPrefetchExecutor == null) {
+                for (File file : missingFiles) {
+                    downloadCrc32(file);
+                }
+                return;
+            }
+
+            // At most as many downloads in flight as a folder download prefetches
+            Deque<Future<Long>> downloads = new ArrayDeque<>();
+            try {
+                for (File file : missingFiles) {
+                    if (downloads.size() >= folderPrefetchConcurrency) {
+                        awaitCrc32(downloads.removeFirst());
+                    }
+                    downloads.addLast(folderPrefetchExecutor.submit(() -> downloadCrc32(file)));
+                }
+                while (!downloads.isEmpty()) {
+                    awaitCrc32(downloads.removeFirst());
+                }
+            } finally {
+                downloads.forEach(download -> download.cancel(true));
+            }
+        }
+
+        /**
+         * Keep the zip's checksums in the folder archive cache, if every one of them is known by now.
+         */
+        void storeCrcTable() throws IOException {
+            if (crcTableCacheKey == null || crcTableStored) {
+                return;
+            }
+            ByteArrayOutputStream crcTable = new ByteArrayOutputStream(entries.size() * Integer.BYTES);
+            DataOutputStream crcTableStream = new DataOutputStream(crcTable);
+            for (int i = 0; i < entries.size(); i++) {
+                Long crc32 = cachedCrc32(i);
+                if (crc32 == null) {
+                    return;
+                }
+                crcTableStream.writeInt((int) (long) crc32);
+            }
+            folderArchiveCache.fill(crcTableCacheKey, crcTable::writeTo, NullOutputStream.INSTANCE);
+            crcTableStored = true;
+        }
+
+        private Long cachedCrc32(int index) throws IOException {
+            loadCrcTable();
+            File file = entries.get(index).getFile();
+            // Empty content has a zero checksum
+            return file.getSize() != null && file.getSize() == 0 ? Long.valueOf(0) : storedEntryCrcCache.get(storedEntryCrcCacheKey(file));
+        }
+
+        private void loadCrcTable() throws IOException {
+            if (crcTableLoaded) {
+                return;
+            }
+            crcTableLoaded = true;
+            ByteArrayOutputStream crcTable = new ByteArrayOutputStream();
+            if (crcTableCacheKey == null || !folderArchiveCache.serve(crcTableCacheKey, crcTable)) {
+                return;
+            }
+            if (crcTable.size() != entries.size() * Integer.BYTES) {
+                // Not a table of this zip, the tree is fingerprinted in the key so this only happens if the file is damaged
+                return;
+            }
+            DataInputStream crcTableStream = new DataInputStream(new ByteArrayInputStream(crcTable.toByteArray()));
+            Instant expiresAt = Instant.now().plus(STORED_ENTRY_CRC_TTL);
+            for (DriveTreeEntry entry : entries) {
+                storedEntryCrcCache.put(storedEntryCrcCacheKey(entry.getFile()), Integer.toUnsignedLong(crcTableStream.readInt()), expiresAt);
+            }
+            crcTableStored = true;
+        }
+
+        private long downloadCrc32(File file) {
+            CheckedOutputStream checksumStream = new CheckedOutputStream(NullOutputStream.INSTANCE, new CRC32());
+            googleDriveDao.downloadFileContentToStream(credential, file, checksumStream);
+            storedEntryCrcCache.put(storedEntryCrcCacheKey(file), checksumStream.getChecksum().getValue(),
+                    Instant.now().plus(STORED_ENTRY_CRC_TTL));
+            return checksumStream.getChecksum().getValue();
+        }
+
+        private void awaitCrc32(Future<Long> download) throws IOException {
+            try {
+                download.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while downloading checksums");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new IOException("Error downloading checksum", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Passes on only the bytes of a range of what is written to it, and stops the writer once the range is complete
+     * by failing its next write with a RangeCompleteException.
+     */
+    private static class ByteRangeOutputStream extends OutputStream {
+        private final OutputStream outputStream;
+        private final long firstBytePos;
+        private final long lastBytePos;
+        private long position;
+
+        ByteRangeOutputStream(OutputStream outputStream, long firstBytePos, long lastBytePos) {
+            this.outputStream = outputStream;
+            this.firstBytePos = firstBytePos;
+            this.lastBytePos = lastBytePos;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            long start = Math.max(position, firstBytePos);
+            long end = Math.min(position + length, lastBytePos + 1);
+            if (start < end) {
+                outputStream.write(bytes, offset + (int) (start - position), (int) (end - start));
+            }
+            position += length;
+            if (position > lastBytePos) {
+                throw new RangeCompleteException();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * Thrown to stop building an archive once the requested range of it has been written.
+     */
+    private static class RangeCompleteException extends IOException {
+        RangeCompleteException() {
+            super("Range complete", null);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
     /**
      * Delete a file from Google Drive.
      *
@@ -120,6 +702,7 @@ public class GoogleDriveServiceImpl implements GoogleDriveService {
             Credential credential = googleDriveCredentialService.createCredentialFromAccessToken(accessToken);
 
             googleDriveDao.deleteFile(credential, fileId);
+            fileMetadataCache.invalidate(fileMetadataCacheKey(accessToken, fileId));
         } catch (Exception e) {
             throw new RuntimeException("Error deleting file from Google Drive", e);
         }
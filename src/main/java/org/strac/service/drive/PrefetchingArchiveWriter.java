@@ -0,0 +1,229 @@
+package org.strac.service.drive;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.strac.dao.InterruptibleOutputStream;
+import org.strac.service.file.ZipEntryWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes archive entries in the order they are added while downloading up to a fixed number of them ahead in parallel.
+ * Downloaded content is held in memory up to a threshold per entry and spilled to a temp file above it,
+ * so at most concurrency times the threshold is buffered on the heap.
+ * Buffered entries have a known size and checksum, so zip entries the compression policy stores are written with
+ * the STORED method, and tar entries get their size header without being buffered again.
+ */
+class PrefetchingArchiveWriter implements Closeable {
+    private static final String SPILL_FILE_PREFIX = "strac-archive-entry-";
+    private static final String SPILL_FILE_SUFFIX = ".tmp";
+
+    private final BufferedEntryWriter entryWriter;
+    private final ExecutorService executor;
+    private final int concurrency;
+    private final int spillThresholdBytes;
+    private final Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+    private final AtomicBoolean aborted = new AtomicBoolean();
+
+    PrefetchingArchiveWriter(BufferedEntryWriter entryWriter, ExecutorService executor, int concurrency, int spillThresholdBytes) {
+        this.entryWriter = entryWriter;
+        this.executor = executor;
+        this.concurrency = concurrency;
+        this.spillThresholdBytes = spillThresholdBytes;
+    }
+
+    /**
+     * Start downloading an entry, first writing out the oldest pending entry if the window is full.
+     *
+     * @param filePath The path of the file in the archive.
+     * @param mimeType The MIME type of the file's content (optional).
+     * @param lastModifiedTime The file's modification time in epoch milliseconds, or -1 for the current time.
+     * @param download Writes the content of the file.
+     * @throws IOException If writing an earlier entry fails.
+     */
+    void add(String filePath, String mimeType, long lastModifiedTime, ZipEntryWriter download) throws IOException {
+        while (pendingEntries.size() >= concurrency) {
+            writeNextEntry();
+        }
+        Prefetch prefetch = new Prefetch(download);
+        pendingEntries.addLast(new PendingEntry(filePath, mimeType, lastModifiedTime, prefetch, executor.submit(prefetch)));
+    }
+
+    /**
+     * Write out every pending entry in order.
+     *
+     * @throws IOException If an entry fails to download or write.
+     */
+    void finish() throws IOException {
+        while (!pendingEntries.isEmpty()) {
+            writeNextEntry();
+        }
+    }
+
+    /**
+     * Cancel any download that has not been written and remove its spill file.
+     * Queued downloads never start, running ones are interrupted and stop at the next chunk they receive,
+     * so a failed write, e.g. to a client that went away, stops every transfer this writer started.
+     * Waits for running downloads to stop, so none of them can create a spill file after it has been cleaned up.
+     */
+    @Override
+    public void close() {
+        aborted.set(true);
+        for (PendingEntry pendingEntry : pendingEntries) {
+            pendingEntry.content().cancel(true);
+        }
+        boolean interrupted = false;
+        for (PendingEntry pendingEntry : pendingEntries) {
+            interrupted |= pendingEntry.prefetch().discard();
+        }
+        pendingEntries.clear();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private PrefetchedContent prefetch(ZipEntryWriter download, Prefetch prefetch) throws IOException {
+        DeferredFileOutputStream buffer = DeferredFileOutputStream.builder()
+                .setThreshold(spillThresholdBytes)
+                .setPrefix(SPILL_FILE_PREFIX)
+                .setSuffix(SPILL_FILE_SUFFIX)
+                .get();
+        prefetch.buffer = buffer;
+        CRC32 crc = new CRC32();
+        try {
+            download.writeTo(new CheckedOutputStream(InterruptibleOutputStream.of(CloseShieldOutputStream.wrap(buffer)), crc));
+            buffer.close();
+        } catch (IOException | RuntimeException e) {
+            buffer.close();
+            deleteSpillFile(buffer);
+            throw e;
+        }
+        return new PrefetchedContent(buffer, crc.getValue());
+    }
+
+    private void writeNextEntry() throws IOException {
+        // Left in the queue until its content arrives, so close() still cleans up after a failed wait
+        PendingEntry pendingEntry = pendingEntries.getFirst();
+        PrefetchedContent content = await(pendingEntry);
+        pendingEntries.removeFirst();
+        DeferredFileOutputStream buffer = content.buffer();
+        try {
+            entryWriter.write(pendingEntry.filePath(), pendingEntry.mimeType(), pendingEntry.lastModifiedTime(),
+                    buffer.getByteCount(), content.crc(), buffer::writeTo);
+        } finally {
+            deleteSpillFile(buffer);
+        }
+    }
+
+    private PrefetchedContent await(PendingEntry pendingEntry) throws IOException {
+        try {
+            return pendingEntry.content().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading " + pendingEntry.filePath());
+        } catch (CancellationException e) {
+            throw new IOException("Download cancelled: " + pendingEntry.filePath(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException("Error downloading " + pendingEntry.filePath(), cause);
+        }
+    }
+
+    private static void deleteSpillFile(DeferredFileOutputStream buffer) throws IOException {
+        if (!buffer.isInMemory() && buffer.getFile() != null) {
+            Files.deleteIfExists(buffer.getFile().toPath());
+        }
+    }
+
+    /**
+     * Adds a downloaded entry to the archive.
+     */
+    @FunctionalInterface
+    interface BufferedEntryWriter {
+        void write(String filePath, String mimeType, long lastModifiedTime, long size, long crc, ZipEntryWriter content)
+                throws IOException;
+    }
+
+    /**
+     * Downloads one entry, recording whether it started and which buffer it wrote to so close() can clean up after it
+     * even when its result is never collected.
+     */
+    private final class Prefetch implements Callable<PrefetchedContent> {
+        private final ZipEntryWriter download;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile boolean started;
+        private volatile DeferredFileOutputStream buffer;
+
+        private Prefetch(ZipEntryWriter download) {
+            this.download = download;
+        }
+
+        @Override
+        public PrefetchedContent call() throws IOException {
+            started = true;
+            try {
+                // Pairs with close(): either close() sees this download started and waits for it, or it sees the abort
+                if (aborted.get()) {
+                    throw new InterruptedIOException("Archive writer closed");
+                }
+                return prefetch(download, this);
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        /**
+         * Wait for the download to stop if it started, then remove its spill file.
+         *
+         * @return Whether the calling thread was interrupted while waiting.
+         */
+        private boolean discard() {
+            boolean interrupted = false;
+            if (started) {
+                while (true) {
+                    try {
+                        finished.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (buffer != null) {
+                try {
+                    deleteSpillFile(buffer);
+                } catch (IOException ignored) {
+                    // Best effort, the temp directory is cleaned up eventually
+                }
+            }
+            return interrupted;
+        }
+    }
+
+    private record PendingEntry(String filePath, String mimeType, long lastModifiedTime, Prefetch prefetch,
+                                Future<PrefetchedContent> content) {
+    }
+
+    private record PrefetchedContent(DeferredFileOutputStream buffer, long crc) {
+    }
+}
@@ -0,0 +1,70 @@
+package org.strac.service.file;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The archive formats a folder can be downloaded in.
+ * Zip compresses each entry on its own, the tar formats compress the whole archive as one stream,
+ * which saves the per-entry overhead on folders of many small files.
+ */
+public enum ArchiveFormat {
+    ZIP("zip", "application/zip"),
+    TAR("tar", "application/x-tar"),
+    TAR_GZ("tar.gz", "application/gzip"),
+    TAR_ZST("tar.zst", "application/zstd");
+
+    private final String extension;
+    private final String mediaType;
+
+    ArchiveFormat(String extension, String mediaType) {
+        this.extension = extension;
+        this.mediaType = mediaType;
+    }
+
+    /**
+     * @return The file name extension of the format, which is also its name in requests, e.g. "tar.gz".
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Find a format by its extension, ignoring case.
+     *
+     * @param extension The extension, e.g. "tar.zst".
+     * @return The format, or null if there is none with that extension.
+     */
+    public static ArchiveFormat fromExtension(String extension) {
+        return Arrays.stream(values())
+                .filter(format -> format.extension.equalsIgnoreCase(extension))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Find a format by its media type, ignoring case and parameters.
+     *
+     * @param mediaType The media type, e.g. "application/x-tar".
+     * @return The format, or null if there is none with that media type.
+     */
+    public static ArchiveFormat fromMediaType(String mediaType) {
+        String type = mediaType.split(";", 2)[0].trim();
+        return Arrays.stream(values())
+                .filter(format -> format.mediaType.equalsIgnoreCase(type))
+                .findFirst()
+                .orElse(null);
+    }
+
+    public static List<String> getExtensions() {
+        return Arrays.stream(values()).map(ArchiveFormat::getExtension).toList();
+    }
+
+    public boolean isTar() {
+        return this != ZIP;
+    }
+}
@@ -0,0 +1,386 @@
+package org.strac.service.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A ZipOutputStream that deflates on a pool of threads, in the style of pigz.
+ * Entry content is cut into fixed size chunks, each chunk is deflated on its own with the previous 32 KiB as its dictionary
+ * and ended on a byte boundary with a sync flush, so the compressed chunks concatenate into one valid deflate stream.
+ * Headers and chunks are written to the underlying stream strictly in order as they become ready, with at most a fixed
+ * number of chunks in flight, so small entries are compressed in parallel with each other and large ones chunk by chunk.
+ * Chunks of stored entries count against that limit too, as they are held until every chunk ahead of them is written.
+ * Sizes are only known after an entry's content, so deflated entries are followed by a data descriptor,
+ * and Zip64 fields are written where sizes, offsets or the entry count need them.
+ * Not thread safe, like any ZipOutputStream: only the deflating runs on the pool.
+ */
+class ParallelDeflateZipOutputStream extends ZipOutputStream {
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private final ExecutorService executor;
+    private final int chunkSize;
+    private final int maxPendingChunks;
+
+    private final Deque<PendingWrite> pendingWrites = new ArrayDeque<>();
+    private final List<EntryState> entries = new ArrayList<>();
+    private final Set<String> entryNames = new HashSet<>();
+    // Chunks buffered until their turn to be written, whether stored or being deflated
+    private int pendingChunks;
+    private long written;
+
+    private int defaultMethod = DEFLATED;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private EntryState current;
+    private byte[] chunk;
+    private int chunkLength;
+    private byte[] dictionary;
+    private boolean finished;
+    private boolean closed;
+
+    ParallelDeflateZipOutputStream(OutputStream outputStream, ExecutorService executor, int chunkSize, int maxPendingChunks) {
+        super(outputStream);
+        this.executor = executor;
+        this.chunkSize = Math.max(chunkSize, DICTIONARY_SIZE);
+        this.maxPendingChunks = Math.max(maxPendingChunks, 1);
+    }
+
+    @Override
+    public void setMethod(int method) {
+        if (method != DEFLATED && method != STORED) {
+            throw new IllegalArgumentException("Invalid compression method");
+        }
+        defaultMethod = method;
+    }
+
+    @Override
+    public void setLevel(int level) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level");
+        }
+        this.level = level;
+    }
+
+    @Override
+    public void putNextEntry(ZipEntry zipEntry) throws IOException {
+        ensureOpen();
+        if (current != null) {
+            closeEntry();
+        }
+        if (!entryNames.add(zipEntry.getName())) {
+            throw new ZipException("duplicate entry: " + zipEntry.getName());
+        }
+        int method = zipEntry.getMethod() == -1 ? defaultMethod : zipEntry.getMethod();
+        if (method == STORED && (zipEntry.getSize() == -1 || zipEntry.getCrc() == -1)) {
+            throw new ZipException("STORED entry missing size, compressed size, or crc-32");
+        }
+        if (zipEntry.getTime() == -1) {
+            zipEntry.setTime(System.currentTimeMillis());
+        }
+
+        current = new EntryState(zipEntry, method, level);
+        entries.add(current);
+        EntryState entry = current;
+        enqueue(new PendingWrite(null, () -> {
+            entry.offset = written;
+            writeBytes(localHeader(entry));
+        }));
+        chunk = new byte[chunkSize];
+        chunkLength = 0;
+        dictionary = null;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        if (current == null) {
+            throw new ZipException("no current ZIP entry");
+        }
+        current.crc.update(bytes, offset, length);
+        current.size += length;
+        while (length > 0) {
+            int copied = Math.min(length, chunk.length - chunkLength);
+            System.arraycopy(bytes, offset, chunk, chunkLength, copied);
+            chunkLength += copied;
+            offset += copied;
+            length -= copied;
+            if (chunkLength == chunk.length) {
+                submitChunk(current, false);
+            }
+        }
+    }
+
+    @Override
+    public void closeEntry() throws IOException {
+        ensureOpen();
+        if (current == null) {
+            return;
+        }
+        EntryState entry = current;
+        current = null;
+        if (entry.method == STORED) {
+            submitChunk(entry, false);
+            if (entry.size != entry.zipEntry.getSize()) {
+                throw new ZipException("invalid entry size (expected " + entry.zipEntry.getSize() + " but got " + entry.size + " bytes)");
+            }
+            if (entry.crc.getValue() != entry.zipEntry.getCrc()) {
+                throw new ZipException("invalid entry crc-32 (expected 0x" + Long.toHexString(entry.zipEntry.getCrc())
+                        + " but got 0x" + Long.toHexString(entry.crc.getValue()) + ")");
+            }
+        } else {
+            // The last chunk finishes the deflate stream, even when it is empty
+            submitChunk(entry, true);
+            entry.zipEntry.setSize(entry.size);
+            entry.zipEntry.setCrc(entry.crc.getValue());
+            enqueue(new PendingWrite(null, () -> {
+                entry.zipEntry.setCompressedSize(entry.compressedSize);
+                writeBytes(dataDescriptor(entry));
+            }));
+        }
+        chunk = null;
+        dictionary = null;
+    }
+
+    /**
+     * Run an action once everything written so far has reached the underlying stream, which for a closed deflated
+     * entry is when its compressed size is known. Runs right away if nothing is waiting.
+     *
+     * @param action The action to run.
+     * @throws IOException If writing what became ready in the meantime fails.
+     */
+    public void afterPendingWrites(Runnable action) throws IOException {
+        ensureOpen();
+        if (pendingWrites.isEmpty()) {
+            action.run();
+            return;
+        }
+        enqueue(new PendingWrite(null, action::run));
+    }
+
+    @Override
+    public void finish() throws IOException {
+        ensureOpen();
+        if (finished) {
+            return;
+        }
+        if (current != null) {
+            closeEntry();
+        }
+        while (!pendingWrites.isEmpty()) {
+            writeNext();
+        }
+        writeCentralDirectory();
+        out.flush();
+        finished = true;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        // Only what is ready can go out, the rest of the current chunk waits for more content
+        while (!pendingWrites.isEmpty() && pendingWrites.peekFirst().isReady()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            finish();
+        } finally {
+            closed = true;
+            for (PendingWrite pendingWrite : pendingWrites) {
+                if (pendingWrite.chunk() != null) {
+                    pendingWrite.chunk().cancel(true);
+                }
+            }
+            pendingWrites.clear();
+            def.end();
+            out.close();
+        }
+    }
+
+    private void submitChunk(EntryState entry, boolean last) throws IOException {
+        if (chunkLength == 0 && !last) {
+            return;
+        }
+        // The chunk buffer is handed over to the task, the next chunk gets a new one
+        byte[] content = chunkLength == chunk.length ? chunk : Arrays.copyOf(chunk, chunkLength);
+        chunk = new byte[chunkSize];
+        chunkLength = 0;
+
+        if (entry.method == STORED) {
+            pendingChunks++;
+            enqueue(new PendingWrite(null, () -> {
+                pendingChunks--;
+                entry.compressedSize += content.length;
+                writeBytes(content);
+            }));
+            return;
+        }
+
+        byte[] chunkDictionary = dictionary;
+        int chunkLevel = entry.level;
+        Future<byte[]> compressed = executor.submit(() -> deflate(content, chunkDictionary, chunkLevel, last));
+        pendingChunks++;
+        // Only the last chunk of an entry can be shorter than the dictionary, and nothing follows it
+        if (!last) {
+            // The next chunk is primed with the tail of this one, so matches across the boundary aren't lost
+            dictionary = Arrays.copyOfRange(content, content.length - DICTIONARY_SIZE, content.length);
+        }
+        enqueue(new PendingWrite(compressed, () -> {
+            byte[] bytes = await(compressed);
+            pendingChunks--;
+            entry.compressedSize += bytes.length;
+            writeBytes(bytes);
+        }));
+    }
+
+    private static byte[] deflate(byte[] content, byte[] dictionary, int level, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(content);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 2 + 64);
+            byte[] buffer = new byte[Math.max(content.length / 2, 4096)];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // A full buffer means the sync flush may not be complete yet
+                int length;
+                do {
+                    length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, length);
+                } while (length == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void enqueue(PendingWrite pendingWrite) throws IOException {
+        pendingWrites.addLast(pendingWrite);
+        // Write whatever is ready, and wait for the oldest chunk when too many are buffered
+        while (!pendingWrites.isEmpty() && (pendingWrites.peekFirst().isReady() || pendingChunks >= maxPendingChunks)) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        pendingWrites.removeFirst().write().run();
+    }
+
+    private byte[] await(Future<byte[]> compressed) throws IOException {
+        try {
+            return compressed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing a zip entry");
+        } catch (ExecutionException e) {
+            throw new IOException("Error compressing a zip entry", e.getCause());
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        out.write(bytes);
+        written += bytes.length;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private byte[] localHeader(EntryState entry) {
+        byte[] name = entry.zipEntry.getName().getBytes(StandardCharsets.UTF_8);
+        if (entry.method == STORED) {
+            long size = entry.zipEntry.getSize();
+            return ZipRecords.localHeader(name, STORED, ZipRecords.FLAG_UTF8, entry.dosTime, entry.zipEntry.getCrc(), size, size,
+                    size >= ZipRecords.ZIP64_MAGIC);
+        }
+        // Deflated entries only know their checksum and sizes after their content, in the data descriptor
+        return ZipRecords.localHeader(name, DEFLATED, ZipRecords.FLAG_UTF8 | ZipRecords.FLAG_DATA_DESCRIPTOR, entry.dosTime,
+                0, 0, 0, false);
+    }
+
+    private static byte[] dataDescriptor(EntryState entry) {
+        boolean zip64 = entry.size >= ZipRecords.ZIP64_MAGIC || entry.compressedSize >= ZipRecords.ZIP64_MAGIC;
+        return ZipRecords.dataDescriptor(entry.crc.getValue(), entry.compressedSize, entry.size, zip64);
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long centralDirectoryOffset = written;
+        for (EntryState entry : entries) {
+            writeBytes(centralHeader(entry));
+        }
+        long centralDirectorySize = written - centralDirectoryOffset;
+        writeBytes(ZipRecords.endOfCentralDirectory(entries.size(), centralDirectoryOffset, centralDirectorySize));
+    }
+
+    private static byte[] centralHeader(EntryState entry) {
+        byte[] name = entry.zipEntry.getName().getBytes(StandardCharsets.UTF_8);
+        boolean stored = entry.method == STORED;
+        int flags = ZipRecords.FLAG_UTF8 | (stored ? 0 : ZipRecords.FLAG_DATA_DESCRIPTOR);
+        return ZipRecords.centralHeader(name, entry.method, flags, entry.dosTime, entry.crc.getValue(),
+                stored ? entry.size : entry.compressedSize, entry.size, entry.offset);
+    }
+
+    private static class EntryState {
+        final ZipEntry zipEntry;
+        final int method;
+        final int level;
+        final long dosTime;
+        final CRC32 crc = new CRC32();
+        long size;
+        long compressedSize;
+        long offset;
+
+        EntryState(ZipEntry zipEntry, int method, int level) {
+            this.zipEntry = zipEntry;
+            this.method = method;
+            this.level = level;
+            this.dosTime = ZipRecords.toDosTime(zipEntry.getTime());
+        }
+    }
+
+    @FunctionalInterface
+    private interface WriteAction {
+        void run() throws IOException;
+    }
+
+    /**
+     * Bytes waiting for their turn to be written: a header, which is ready straight away, or a chunk being compressed.
+     */
+    private record PendingWrite(Future<byte[]> chunk, WriteAction write) {
+        boolean isReady() {
+            return chunk == null || chunk.isDone();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.strac.service.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A ZipService whose zip streams deflate on a pool of threads instead of the writing thread,
+ * so a single large zip can use every core. Entries are added to the zips exactly as with {@link ZipServiceImpl}.
+ * The CPU time metric only covers the writing thread, so it leaves out the deflating done on the pool.
+ */
+public class ParallelDeflateZipServiceImpl extends ZipServiceImpl {
+    private final ExecutorService deflateExecutor;
+    // Content is cut into chunks of this size, each deflated as its own task
+    private final int chunkSizeBytes;
+    // Chunks each zip may have waiting to be deflated or written, which bounds its memory use
+    private final int maxPendingChunks;
+
+    public ParallelDeflateZipServiceImpl(ZipMetrics zipMetrics, ExecutorService deflateExecutor, int chunkSizeBytes,
+                                         int maxPendingChunks) {
+        super(zipMetrics);
+        this.deflateExecutor = deflateExecutor;
+        this.chunkSizeBytes = chunkSizeBytes;
+        this.maxPendingChunks = maxPendingChunks;
+    }
+
+    @Override
+    public ZipOutputStream createZipOutputStream(OutputStream outputStream) {
+        return new ParallelDeflateZipOutputStream(outputStream, deflateExecutor, chunkSizeBytes, maxPendingChunks);
+    }
+
+    @Override
+    protected void afterEntryWritten(ZipOutputStream zos, Runnable action) throws IOException {
+        if (zos instanceof ParallelDeflateZipOutputStream parallelZos) {
+            // The entry's last chunks may still be deflating, its compressed size is only set once they are written
+            parallelZos.afterPendingWrites(action);
+        } else {
+            super.afterEntryWritten(zos, action);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.strac.service.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Supplies the content of the entries of a StoredZipLayout, by their index in the layout.
+ */
+public interface StoredZipContent {
+    /**
+     * Write the whole content of an entry.
+     *
+     * @param index        The index of the entry.
+     * @param outputStream The stream to write the content to. The stream must not be closed.
+     * @throws IOException If an I/O error occurs.
+     */
+    void writeEntry(int index, OutputStream outputStream) throws IOException;
+
+    /**
+     * Write a byte range of an entry's content.
+     *
+     * @param index        The index of the entry.
+     * @param firstBytePos The position of the first byte to write.
+     * @param lastBytePos  The position of the last byte to write, inclusive.
+     * @param outputStream The stream to write the bytes to. The stream must not be closed.
+     * @throws IOException If an I/O error occurs.
+     */
+    void writeEntryRange(int index, long firstBytePos, long lastBytePos, OutputStream outputStream) throws IOException;
+
+    /**
+     * Get the CRC-32 of an entry's content, for an entry whose records are written without all of its content.
+     *
+     * @param index The index of the entry.
+     * @return The CRC-32 of the entry's content.
+     * @throws IOException If the content has to be read and that fails.
+     */
+    long crc32(int index) throws IOException;
+
+    /**
+     * Called with the CRC-32 of an entry whose content was written in full, so it can be remembered for later ranges.
+     *
+     * @param index The index of the entry.
+     * @param crc32 The CRC-32 of the entry's content.
+     */
+    default void crc32Computed(int index, long crc32) {
+    }
+
+    /**
+     * Called once before a range is written, with the entries whose checksum the range needs for a record without
+     * their content being written in full, so an implementation can work them out together rather than one
+     * crc32 call at a time. Does nothing by default.
+     *
+     * @param indexes The indexes of the entries, in order.
+     * @throws IOException If the content has to be read and that fails.
+     */
+    default void loadCrc32s(int[] indexes) throws IOException {
+    }
+}
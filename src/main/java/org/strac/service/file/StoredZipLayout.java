@@ -0,0 +1,233 @@
+package org.strac.service.file;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * The byte layout of a zip whose entries are all stored, worked out from the entries' names, sizes and times alone.
+ * Stored content takes exactly its own size, so the position of every record and the length of the zip are known
+ * before any content is read, and any byte range can be generated on its own by writing only the records and
+ * content it covers.
+ * Checksums are the only thing that depends on the content, so each entry is followed by a data descriptor with its
+ * CRC-32 instead of carrying it in its local header, and the sizes are in both. That way content is streamed as it
+ * is read, with nothing buffered to learn its checksum first. APPNOTE allows descriptors after stored entries, and
+ * unzip, 7-Zip and libarchive read them, but java.util.zip.ZipInputStream, which only follows the local headers,
+ * rejects them; ZipFile reads the central directory and has no trouble.
+ * The same entries always lay out the same bytes.
+ */
+public class StoredZipLayout {
+    private static final int FLAGS = ZipRecords.FLAG_UTF8 | ZipRecords.FLAG_DATA_DESCRIPTOR;
+
+    private final List<Entry> entries;
+    private final byte[][] names;
+    private final long[] dosTimes;
+    // Position of each entry's local header
+    private final long[] offsets;
+    private final long centralDirectoryOffset;
+    private final long centralDirectorySize;
+    private final byte[] endOfCentralDirectory;
+
+    /**
+     * Lay out a zip of entries, written in the given order.
+     *
+     * @param entries The entries of the zip.
+     */
+    public StoredZipLayout(List<Entry> entries) {
+        this.entries = List.copyOf(entries);
+        int count = this.entries.size();
+        names = new byte[count][];
+        dosTimes = new long[count];
+        offsets = new long[count];
+
+        long position = 0;
+        for (int i = 0; i < count; i++) {
+            Entry entry = this.entries.get(i);
+            names[i] = entry.name().getBytes(StandardCharsets.UTF_8);
+            dosTimes[i] = ZipRecords.toDosTime(entry.lastModifiedTime() < 0 ? 0 : entry.lastModifiedTime());
+            offsets[i] = position;
+            position += localHeader(i).length + entry.size() + dataDescriptor(i, 0).length;
+        }
+
+        centralDirectoryOffset = position;
+        for (int i = 0; i < count; i++) {
+            // The checksum doesn't change a header's length
+            position += centralHeader(i, 0).length;
+        }
+        centralDirectorySize = position - centralDirectoryOffset;
+        endOfCentralDirectory = ZipRecords.endOfCentralDirectory(count, centralDirectoryOffset, centralDirectorySize);
+    }
+
+    /**
+     * @return The length of the zip in bytes.
+     */
+    public long getLength() {
+        return centralDirectoryOffset + centralDirectorySize + endOfCentralDirectory.length;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Write the whole zip.
+     *
+     * @param content      Supplies the content of the entries.
+     * @param outputStream The stream to write the zip to.
+     * @throws IOException If the content or the stream fails, or an entry's content doesn't have its listed size.
+     */
+    public void writeTo(StoredZipContent content, OutputStream outputStream) throws IOException {
+        writeRange(0, getLength() - 1, content, outputStream);
+    }
+
+    /**
+     * Write a byte range of the zip. Content is only read for the entries the range covers, in ranges if it covers
+     * them partly, and checksums are asked for the entries whose data descriptor or central directory header is
+     * in the range but whose content is not entirely. Those are loaded together up front; a range that reaches the
+     * central directory needs them for every entry it doesn't write in full, which for content that has no checksums
+     * stored means reading all of those files.
+     *
+     * @param firstBytePos The position of the first byte to write.
+     * @param lastBytePos  The position of the last byte to write, inclusive.
+     * @param content      Supplies the content of the entries.
+     * @param outputStream The stream to write the bytes to.
+     * @throws IOException If the content or the stream fails, or an entry's content doesn't have its listed size.
+     */
+    public void writeRange(long firstBytePos, long lastBytePos, StoredZipContent content, OutputStream outputStream)
+            throws IOException {
+        long last = Math.min(lastBytePos, getLength() - 1);
+        int[] unwrittenCrcs = unwrittenCrcs(firstBytePos, last);
+        if (unwrittenCrcs.length > 0) {
+            content.loadCrc32s(unwrittenCrcs);
+        }
+        // Checksums of the entries written in full, so the central directory doesn't ask for them again
+        Long[] crcs = new Long[entries.size()];
+
+        for (int i = 0; i < entries.size() && offsets[i] <= last; i++) {
+            long size = entries.get(i).size();
+            byte[] localHeader = localHeader(i);
+            long dataOffset = offsets[i] + localHeader.length;
+            long descriptorOffset = dataOffset + size;
+            if (descriptorOffset + ZipRecords.dataDescriptor(0, size, size, isZip64(i)).length <= firstBytePos) {
+                continue;
+            }
+
+            writeSlice(localHeader, offsets[i], firstBytePos, last, outputStream);
+            if (firstBytePos <= dataOffset && descriptorOffset - 1 <= last) {
+                crcs[i] = writeEntry(i, content, outputStream);
+            } else if (dataOffset <= last && firstBytePos < descriptorOffset) {
+                content.writeEntryRange(i, Math.max(firstBytePos, dataOffset) - dataOffset,
+                        Math.min(last, descriptorOffset - 1) - dataOffset, outputStream);
+            }
+            if (descriptorOffset <= last) {
+                writeSlice(dataDescriptor(i, crc(i, crcs, content)), descriptorOffset, firstBytePos, last, outputStream);
+            }
+        }
+
+        long position = centralDirectoryOffset;
+        for (int i = 0; i < entries.size() && position <= last; i++) {
+            byte[] centralHeader = centralHeader(i, 0);
+            if (position + centralHeader.length > firstBytePos) {
+                writeSlice(centralHeader(i, crc(i, crcs, content)), position, firstBytePos, last, outputStream);
+            }
+            position += centralHeader.length;
+        }
+        writeSlice(endOfCentralDirectory, position, firstBytePos, last, outputStream);
+        outputStream.flush();
+    }
+
+    /**
+     * The entries whose checksum goes in a record in the range without their content being written in full with it,
+     * which once the range reaches the central directory is every entry not written in full.
+     */
+    private int[] unwrittenCrcs(long firstBytePos, long lastBytePos) {
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            long size = entries.get(i).size();
+            long dataOffset = offsets[i] + localHeader(i).length;
+            long descriptorOffset = dataOffset + size;
+            long descriptorEnd = descriptorOffset + dataDescriptor(i, 0).length;
+            boolean descriptorInRange = descriptorOffset <= lastBytePos && descriptorEnd > firstBytePos;
+            boolean contentInRange = firstBytePos <= dataOffset && descriptorOffset - 1 <= lastBytePos;
+            if (size > 0 && !contentInRange && (descriptorInRange || lastBytePos >= centralDirectoryOffset)) {
+                indexes.add(i);
+            }
+        }
+        return indexes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private long writeEntry(int index, StoredZipContent content, OutputStream outputStream) throws IOException {
+        long size = entries.get(index).size();
+        CheckedOutputStream checkedStream = new CheckedOutputStream(CloseShieldOutputStream.wrap(outputStream), new CRC32());
+        CountingOutputStream countingStream = new CountingOutputStream(checkedStream);
+        if (size > 0) {
+            content.writeEntry(index, countingStream);
+        }
+        // The layout is already on its way to the client, so content of another size can only abort it
+        if (countingStream.getByteCount() != size) {
+            throw new ZipException("invalid entry size for " + entries.get(index).name() + " (expected " + size
+                    + " but got " + countingStream.getByteCount() + " bytes)");
+        }
+        long crc = checkedStream.getChecksum().getValue();
+        content.crc32Computed(index, crc);
+        return crc;
+    }
+
+    private long crc(int index, Long[] crcs, StoredZipContent content) throws IOException {
+        if (crcs[index] == null) {
+            // Empty content has a zero checksum, there is nothing to read
+            crcs[index] = entries.get(index).size() == 0 ? 0 : content.crc32(index);
+        }
+        return crcs[index];
+    }
+
+    private boolean isZip64(int index) {
+        return entries.get(index).size() >= ZipRecords.ZIP64_MAGIC;
+    }
+
+    private byte[] localHeader(int index) {
+        long size = entries.get(index).size();
+        return ZipRecords.localHeader(names[index], ZipEntry.STORED, FLAGS, dosTimes[index], 0, size, size, isZip64(index));
+    }
+
+    private byte[] dataDescriptor(int index, long crc) {
+        long size = entries.get(index).size();
+        return ZipRecords.dataDescriptor(crc, size, size, isZip64(index));
+    }
+
+    private byte[] centralHeader(int index, long crc) {
+        long size = entries.get(index).size();
+        return ZipRecords.centralHeader(names[index], ZipEntry.STORED, FLAGS, dosTimes[index], crc, size, size, offsets[index]);
+    }
+
+    /**
+     * Write the part of a record that falls in the range.
+     */
+    private static void writeSlice(byte[] record, long recordOffset, long firstBytePos, long lastBytePos,
+                                   OutputStream outputStream) throws IOException {
+        long from = Math.max(firstBytePos, recordOffset);
+        long to = Math.min(lastBytePos + 1, recordOffset + record.length);
+        if (from < to) {
+            outputStream.write(record, (int) (from - recordOffset), (int) (to - from));
+        }
+    }
+
+    /**
+     * An entry of the zip.
+     *
+     * @param name             The entry's path in the zip.
+     * @param size             The size of the entry's content in bytes.
+     * @param lastModifiedTime The entry's modification time in epoch milliseconds, or -1 if unknown.
+     */
+    public record Entry(String name, long size, long lastModifiedTime) {
+    }
+}
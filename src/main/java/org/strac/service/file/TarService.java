@@ -0,0 +1,46 @@
+package org.strac.service.file;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public interface TarService {
+    /**
+     * Open a tar stream to add files to through this service, compressed as a whole as the format says.
+     * Closing the tar stream finishes the tar and its compression and closes the given stream.
+     *
+     * @param outputStream The stream to write the tar to.
+     * @param format The tar format: tar, tar.gz or tar.zst.
+     * @param policy Decides the compression level of the whole stream.
+     * @return The TarArchiveOutputStream.
+     * @throws IOException If the compressor can't be set up.
+     */
+    TarArchiveOutputStream createTarOutputStream(OutputStream outputStream, ArchiveFormat format, ZipCompressionPolicy policy)
+            throws IOException;
+
+    /**
+     * Add a file whose size is known upfront to a tar, writing its content straight into the entry as it is produced.
+     *
+     * @param tos The TarArchiveOutputStream to write the file to.
+     * @param filePath The path of the file in the tar.
+     * @param lastModifiedTime The file's modification time in epoch milliseconds, or -1 for the current time.
+     * @param size The size of the file's content.
+     * @param entryWriter Writes the content of the file, exactly as sized.
+     * @throws IOException If an I/O error occurs, or the content doesn't match its size.
+     */
+    void addFileToTar(TarArchiveOutputStream tos, String filePath, long lastModifiedTime, long size, ZipEntryWriter entryWriter)
+            throws IOException;
+
+    /**
+     * Add a file of unknown size to a tar. Tar headers hold the size, so the content is buffered before it is added.
+     *
+     * @param tos The TarArchiveOutputStream to write the file to.
+     * @param filePath The path of the file in the tar.
+     * @param lastModifiedTime The file's modification time in epoch milliseconds, or -1 for the current time.
+     * @param entryWriter Writes the content of the file.
+     * @throws IOException If an I/O error occurs.
+     */
+    void addFileToTar(TarArchiveOutputStream tos, String filePath, long lastModifiedTime, ZipEntryWriter entryWriter)
+            throws IOException;
+}
@@ -0,0 +1,93 @@
+package org.strac.service.file;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.zip.Deflater;
+
+@Service
+public class TarServiceImpl implements TarService {
+    private static final int DEFAULT_SPILL_THRESHOLD_BYTES = 1024 * 1024;
+    // zstd's own default, which compresses about as well as gzip's default at several times its speed
+    private static final int ZSTD_DEFAULT_LEVEL = 3;
+    private static final String SPILL_FILE_PREFIX = "strac-tar-entry-";
+    private static final String SPILL_FILE_SUFFIX = ".tmp";
+
+    // Files of unknown size larger than this are buffered in a temp file instead of in memory
+    private final int spillThresholdBytes;
+
+    public TarServiceImpl() {
+        this(DEFAULT_SPILL_THRESHOLD_BYTES);
+    }
+
+    public TarServiceImpl(int spillThresholdBytes) {
+        this.spillThresholdBytes = spillThresholdBytes;
+    }
+
+    @Override
+    public TarArchiveOutputStream createTarOutputStream(OutputStream outputStream, ArchiveFormat format, ZipCompressionPolicy policy)
+            throws IOException {
+        OutputStream compressedStream = switch (format) {
+            case TAR -> outputStream;
+            case TAR_GZ -> {
+                GzipParameters parameters = new GzipParameters();
+                parameters.setCompressionLevel(policy.getLevel() < 0 ? Deflater.DEFAULT_COMPRESSION : policy.getLevel());
+                yield new GzipCompressorOutputStream(outputStream, parameters);
+            }
+            // zstd has no level that stores, so level 0 gets its fastest one
+            case TAR_ZST -> new ZstdCompressorOutputStream(outputStream,
+                    policy.getLevel() < 0 ? ZSTD_DEFAULT_LEVEL : Math.max(policy.getLevel(), 1), false, true);
+            case ZIP -> throw new IllegalArgumentException("Not a tar format: " + format);
+        };
+
+        TarArchiveOutputStream tos = new TarArchiveOutputStream(compressedStream, StandardCharsets.UTF_8.name());
+        // PAX headers for long paths, sizes of 8 GiB and up, and names that aren't ASCII
+        tos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tos.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        tos.setAddPaxHeadersForNonAsciiNames(true);
+        return tos;
+    }
+
+    @Override
+    public void addFileToTar(TarArchiveOutputStream tos, String filePath, long lastModifiedTime, long size,
+                             ZipEntryWriter entryWriter) throws IOException {
+        TarArchiveEntry tarEntry = new TarArchiveEntry(filePath);
+        tarEntry.setModTime(new Date(lastModifiedTime >= 0 ? lastModifiedTime : System.currentTimeMillis()));
+        tarEntry.setSize(size);
+        tos.putArchiveEntry(tarEntry);
+        entryWriter.writeTo(CloseShieldOutputStream.wrap(tos));
+        // Fails if the content was shorter than its size, writing past it already failed
+        tos.closeArchiveEntry();
+    }
+
+    @Override
+    public void addFileToTar(TarArchiveOutputStream tos, String filePath, long lastModifiedTime, ZipEntryWriter entryWriter)
+            throws IOException {
+        DeferredFileOutputStream buffer = DeferredFileOutputStream.builder()
+                .setThreshold(spillThresholdBytes)
+                .setPrefix(SPILL_FILE_PREFIX)
+                .setSuffix(SPILL_FILE_SUFFIX)
+                .get();
+        try {
+            try (buffer) {
+                entryWriter.writeTo(CloseShieldOutputStream.wrap(buffer));
+            }
+            addFileToTar(tos, filePath, lastModifiedTime, buffer.getByteCount(), buffer::writeTo);
+        } finally {
+            if (!buffer.isInMemory() && buffer.getFile() != null) {
+                Files.deleteIfExists(buffer.getFile().toPath());
+            }
+        }
+    }
+}
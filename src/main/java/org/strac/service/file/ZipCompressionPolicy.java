@@ -0,0 +1,95 @@
+package org.strac.service.file;
+
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Decides how each zip entry is compressed.
+ * Content that is already compressed (JPEGs, videos, PDFs, zip based office files, archives) barely shrinks when deflated,
+ * so it is stored instead, and everything else is deflated at the policy's level.
+ */
+public final class ZipCompressionPolicy {
+    public static final int MIN_LEVEL = Deflater.NO_COMPRESSION;
+    public static final int MAX_LEVEL = Deflater.BEST_COMPRESSION;
+    public static final ZipCompressionPolicy DEFAULT = new ZipCompressionPolicy(Deflater.DEFAULT_COMPRESSION);
+
+    private static final Set<String> COMPRESSED_MIME_TYPES = Set.of(
+            "image/jpeg", "image/png", "image/gif", "image/webp", "image/heic", "image/heif", "image/avif",
+            "application/pdf", "application/epub+zip",
+            "application/zip", "application/x-zip-compressed", "application/gzip", "application/x-gzip",
+            "application/x-7z-compressed", "application/x-rar-compressed", "application/vnd.rar",
+            "application/x-bzip2", "application/x-xz", "application/zstd", "application/java-archive",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+            "application/vnd.openxmlformats-officedocument.presentationml.presentation",
+            "application/vnd.oasis.opendocument.text",
+            "application/vnd.oasis.opendocument.spreadsheet",
+            "application/x-vnd.oasis.opendocument.spreadsheet",
+            "application/vnd.oasis.opendocument.presentation",
+            "audio/mpeg", "audio/mp4", "audio/aac", "audio/ogg", "audio/opus", "audio/webm", "audio/flac");
+    // Every common video container holds compressed streams
+    private static final List<String> COMPRESSED_MIME_TYPE_PREFIXES = List.of("video/");
+
+    private final int level;
+
+    private ZipCompressionPolicy(int level) {
+        this.level = level;
+    }
+
+    /**
+     * Get a policy that deflates compressible content at the given level.
+     *
+     * @param level The deflate level, from 0 (store everything) to 9 (smallest output).
+     * @return The policy.
+     * @throws IllegalArgumentException If the level is out of range.
+     */
+    public static ZipCompressionPolicy withLevel(int level) {
+        if (level < MIN_LEVEL || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("Compression level must be between " + MIN_LEVEL + " and " + MAX_LEVEL + ": " + level);
+        }
+        return new ZipCompressionPolicy(level);
+    }
+
+    /**
+     * Get the deflate level for compressible content.
+     *
+     * @return The level, or -1 for the deflater's default.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Check whether an entry should be stored without compression.
+     *
+     * @param mimeType The MIME type of the entry's content (optional).
+     * @return True if the entry should be stored.
+     */
+    public boolean shouldStore(String mimeType) {
+        return level == Deflater.NO_COMPRESSION || isAlreadyCompressed(mimeType);
+    }
+
+    /**
+     * Check whether content of a MIME type is already compressed.
+     *
+     * @param mimeType The MIME type, possibly with parameters (optional).
+     * @return True if deflating the content is not worth the CPU.
+     */
+    public static boolean isAlreadyCompressed(String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+        int parametersStart = mimeType.indexOf(';');
+        String baseType = (parametersStart < 0 ? mimeType : mimeType.substring(0, parametersStart)).trim().toLowerCase();
+        if (COMPRESSED_MIME_TYPES.contains(baseType)) {
+            return true;
+        }
+        for (String prefix : COMPRESSED_MIME_TYPE_PREFIXES) {
+            if (baseType.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
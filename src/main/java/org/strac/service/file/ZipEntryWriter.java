@@ -0,0 +1,18 @@
+package org.strac.service.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the content of a single zip entry.
+ */
+@FunctionalInterface
+public interface ZipEntryWriter {
+    /**
+     * Write the entry content to the given stream. The stream must not be closed.
+     *
+     * @param outputStream The stream of the current zip entry.
+     * @throws IOException If an I/O error occurs.
+     */
+    void writeTo(OutputStream outputStream) throws IOException;
+}
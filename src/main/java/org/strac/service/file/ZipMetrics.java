@@ -0,0 +1,66 @@
+package org.strac.service.file;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Records how much CPU zip entries cost and how much they shrink.
+ * Every meter is tagged by compression method (stored, deflated) and deflate level, so the cost of deflating can be
+ * weighed against its gain. Entries deflated at level 0, which is how content is stored when its checksum isn't known
+ * upfront, are tagged deflated with level 0 rather than stored, as that is what the zip records.
+ */
+public class ZipMetrics {
+    public static final String METHOD_STORED = "stored";
+    public static final String METHOD_DEFLATED = "deflated";
+    // Level tag of stored entries, which aren't deflated at all
+    private static final String LEVEL_NONE = "none";
+    private static final String LEVEL_DEFAULT = "default";
+
+    private static final String CPU_METRIC = "strac.zip.entry.cpu";
+    private static final String RATIO_METRIC = "strac.zip.entry.ratio";
+    private static final String BYTES_METRIC = "strac.zip.entry.bytes";
+
+    private final MeterRegistry meterRegistry;
+
+    public ZipMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Record a written zip entry.
+     *
+     * @param method            The compression method of the entry.
+     * @param level             The deflate level of a deflated entry, -1 for the deflater's default.
+     * @param cpuNanos          The CPU time the writing thread spent on the entry, or a negative value if unknown.
+     * @param uncompressedBytes The size of the entry's content.
+     * @param compressedBytes   The size of the entry in the zip, or a negative value if it is still being compressed.
+     */
+    public void recordEntry(String method, int level, long cpuNanos, long uncompressedBytes, long compressedBytes) {
+        String levelTag = METHOD_STORED.equals(method) ? LEVEL_NONE
+                : level == Deflater.DEFAULT_COMPRESSION ? LEVEL_DEFAULT : Integer.toString(level);
+        if (cpuNanos >= 0) {
+            Timer.builder(CPU_METRIC)
+                    .description("CPU time the writing thread spent on zip entries, including producing their content")
+                    .tags("method", method, "level", levelTag)
+                    .register(meterRegistry)
+                    .record(cpuNanos, TimeUnit.NANOSECONDS);
+        }
+        DistributionSummary.builder(BYTES_METRIC)
+                .description("Uncompressed size of zip entries")
+                .baseUnit("bytes")
+                .tags("method", method, "level", levelTag)
+                .register(meterRegistry)
+                .record(uncompressedBytes);
+        if (uncompressedBytes > 0 && compressedBytes >= 0) {
+            DistributionSummary.builder(RATIO_METRIC)
+                    .description("Compressed size of zip entries divided by their uncompressed size")
+                    .tags("method", method, "level", levelTag)
+                    .register(meterRegistry)
+                    .record((double) compressedBytes / uncompressedBytes);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package org.strac.service.file;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Builds the raw records of a zip file (APPNOTE 6.3), for the zip writers that lay out their own bytes.
+ * Zip64 fields are used where sizes, offsets or the entry count need them.
+ */
+final class ZipRecords {
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    static final int FLAG_UTF8 = 0x800;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+
+    private ZipRecords() {
+    }
+
+    /**
+     * Build a local file header. With zip64, both sizes go into a Zip64 extra field.
+     */
+    static byte[] localHeader(byte[] name, int method, int flags, long dosTime, long crc, long compressedSize, long size,
+                              boolean zip64) {
+        LittleEndianBuffer header = new LittleEndianBuffer(30 + name.length + 20);
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        header.putShort(flags);
+        header.putShort(method);
+        header.putInt(dosTime);
+        header.putInt(crc);
+        header.putInt(zip64 ? ZIP64_MAGIC : compressedSize);
+        header.putInt(zip64 ? ZIP64_MAGIC : size);
+        header.putShort(name.length);
+        header.putShort(zip64 ? 20 : 0);
+        header.put(name);
+        if (zip64) {
+            header.putShort(ZIP64_EXTRA_ID);
+            header.putShort(16);
+            header.putLong(size);
+            header.putLong(compressedSize);
+        }
+        return header.toByteArray();
+    }
+
+    /**
+     * Build a data descriptor, with 8 byte sizes if the entry needs zip64.
+     */
+    static byte[] dataDescriptor(long crc, long compressedSize, long size, boolean zip64) {
+        LittleEndianBuffer descriptor = new LittleEndianBuffer(24);
+        descriptor.putInt(DATA_DESCRIPTOR_SIGNATURE);
+        descriptor.putInt(crc);
+        if (zip64) {
+            descriptor.putLong(compressedSize);
+            descriptor.putLong(size);
+        } else {
+            descriptor.putInt(compressedSize);
+            descriptor.putInt(size);
+        }
+        return descriptor.toByteArray();
+    }
+
+    /**
+     * Build a central directory file header. Only the fields that overflow go into its Zip64 extra field.
+     */
+    static byte[] centralHeader(byte[] name, int method, int flags, long dosTime, long crc, long compressedSize, long size,
+                                long offset) {
+        // The Zip64 extra field holds the overflowing fields in this order
+        LittleEndianBuffer zip64Extra = new LittleEndianBuffer(28);
+        if (size >= ZIP64_MAGIC) {
+            zip64Extra.putLong(size);
+        }
+        if (compressedSize >= ZIP64_MAGIC) {
+            zip64Extra.putLong(compressedSize);
+        }
+        if (offset >= ZIP64_MAGIC) {
+            zip64Extra.putLong(offset);
+        }
+        byte[] zip64Values = zip64Extra.toByteArray();
+        boolean zip64 = zip64Values.length > 0;
+
+        LittleEndianBuffer header = new LittleEndianBuffer(46 + name.length + 4 + zip64Values.length);
+        header.putInt(CENTRAL_HEADER_SIGNATURE);
+        header.putShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        header.putShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        header.putShort(flags);
+        header.putShort(method);
+        header.putInt(dosTime);
+        header.putInt(crc);
+        header.putInt(Math.min(compressedSize, ZIP64_MAGIC));
+        header.putInt(Math.min(size, ZIP64_MAGIC));
+        header.putShort(name.length);
+        header.putShort(zip64 ? 4 + zip64Values.length : 0);
+        header.putShort(0);
+        header.putShort(0);
+        header.putShort(0);
+        header.putInt(0);
+        header.putInt(Math.min(offset, ZIP64_MAGIC));
+        header.put(name);
+        if (zip64) {
+            header.putShort(ZIP64_EXTRA_ID);
+            header.putShort(zip64Values.length);
+            header.put(zip64Values);
+        }
+        return header.toByteArray();
+    }
+
+    /**
+     * Build the records that follow the central directory: the end of central directory record,
+     * preceded by the Zip64 end record and its locator if the entry count or the directory's position need them.
+     */
+    static byte[] endOfCentralDirectory(long entryCount, long centralDirectoryOffset, long centralDirectorySize) {
+        LittleEndianBuffer end = new LittleEndianBuffer(56 + 20 + 22);
+        boolean zip64 = entryCount >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC
+                || centralDirectorySize >= ZIP64_MAGIC;
+        if (zip64) {
+            long zip64EndOffset = centralDirectoryOffset + centralDirectorySize;
+            end.putInt(ZIP64_END_SIGNATURE);
+            end.putLong(44);
+            end.putShort(VERSION_ZIP64);
+            end.putShort(VERSION_ZIP64);
+            end.putInt(0);
+            end.putInt(0);
+            end.putLong(entryCount);
+            end.putLong(entryCount);
+            end.putLong(centralDirectorySize);
+            end.putLong(centralDirectoryOffset);
+            end.putInt(ZIP64_LOCATOR_SIGNATURE);
+            end.putInt(0);
+            end.putLong(zip64EndOffset);
+            end.putInt(1);
+        }
+
+        end.putInt(END_SIGNATURE);
+        end.putShort(0);
+        end.putShort(0);
+        end.putShort((int) Math.min(entryCount, ZIP64_MAGIC_COUNT));
+        end.putShort((int) Math.min(entryCount, ZIP64_MAGIC_COUNT));
+        end.putInt(Math.min(centralDirectorySize, ZIP64_MAGIC));
+        end.putInt(Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+        end.putShort(0);
+        return end.toByteArray();
+    }
+
+    /**
+     * Convert epoch milliseconds to an MS-DOS date and time in the local time zone, as ZipOutputStream does.
+     */
+    static long toDosTime(long time) {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (dateTime.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (long) (dateTime.getYear() - 1980) << 25 | (long) dateTime.getMonthValue() << 21
+                | (long) dateTime.getDayOfMonth() << 16 | (long) dateTime.getHour() << 11
+                | (long) dateTime.getMinute() << 5 | (long) dateTime.getSecond() >> 1;
+    }
+
+    private static class LittleEndianBuffer {
+        private final ByteArrayOutputStream bytes;
+
+        LittleEndianBuffer(int initialSize) {
+            bytes = new ByteArrayOutputStream(initialSize);
+        }
+
+        void putShort(int value) {
+            bytes.write(value & 0xFF);
+            bytes.write((value >>> 8) & 0xFF);
+        }
+
+        void putInt(long value) {
+            putShort((int) (value & 0xFFFF));
+            putShort((int) ((value >>> 16) & 0xFFFF));
+        }
+
+        void putLong(long value) {
+            putInt(value & ZIP64_MAGIC);
+            putInt(value >>> 32);
+        }
+
+        void put(byte[] value) {
+            bytes.write(value, 0, value.length);
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
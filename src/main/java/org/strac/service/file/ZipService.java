@@ -2,9 +2,19 @@ package org.strac.service.file;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.zip.ZipOutputStream;
 
 public interface ZipService {
+    /**
+     * Open a zip stream to add files to through this service.
+     * Closing the zip stream finishes the zip and closes the given stream.
+     *
+     * @param outputStream The stream to write the zip to.
+     * @return The ZipOutputStream.
+     */
+    ZipOutputStream createZipOutputStream(OutputStream outputStream);
+
     /**
      * Zip a folder and its contents.
      *
@@ -31,5 +41,47 @@ public interface ZipService {
      * @throws IOException If an I/O error occurs.
      */
     void addFileToZip(ZipOutputStream zos, String filePath, byte[] fileContent) throws IOException;
-}
 
+    /**
+     * Add a file to a zip, writing its content straight into the entry as it is produced.
+     *
+     * @param zos The ZipOutputStream to write the file to.
+     * @param filePath The path of the file in the zip.
+     * @param entryWriter Writes the content of the file.
+     * @throws IOException If an I/O error occurs.
+     */
+    void addFileToZip(ZipOutputStream zos, String filePath, ZipEntryWriter entryWriter) throws IOException;
+
+    /**
+     * Add a file to a zip, compressing it as the policy says for its MIME type.
+     * The content's size and checksum are not known before it is written, so entries the policy stores are deflated
+     * at level 0 instead, which copies them into the zip without spending CPU on compression either.
+     *
+     * @param zos The ZipOutputStream to write the file to.
+     * @param filePath The path of the file in the zip.
+     * @param mimeType The MIME type of the file's content (optional).
+     * @param lastModifiedTime The file's modification time in epoch milliseconds, or -1 for the current time.
+     * @param policy Decides how the file is compressed.
+     * @param entryWriter Writes the content of the file.
+     * @throws IOException If an I/O error occurs.
+     */
+    void addFileToZip(ZipOutputStream zos, String filePath, String mimeType, long lastModifiedTime, ZipCompressionPolicy policy,
+                      ZipEntryWriter entryWriter) throws IOException;
+
+    /**
+     * Add a file whose size and CRC-32 are known upfront to a zip, compressing it as the policy says for its MIME type.
+     * Entries the policy stores are written with the STORED method.
+     *
+     * @param zos The ZipOutputStream to write the file to.
+     * @param filePath The path of the file in the zip.
+     * @param mimeType The MIME type of the file's content (optional).
+     * @param lastModifiedTime The file's modification time in epoch milliseconds, or -1 for the current time.
+     * @param policy Decides how the file is compressed.
+     * @param size The size of the file's content.
+     * @param crc The CRC-32 of the file's content.
+     * @param entryWriter Writes the content of the file, exactly as sized and checksummed.
+     * @throws IOException If an I/O error occurs, or the content doesn't match its size or checksum.
+     */
+    void addFileToZip(ZipOutputStream zos, String filePath, String mimeType, long lastModifiedTime, ZipCompressionPolicy policy,
+                      long size, long crc, ZipEntryWriter entryWriter) throws IOException;
+}
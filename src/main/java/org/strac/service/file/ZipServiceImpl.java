@@ -1,16 +1,38 @@
 package org.strac.service.file;
 
+import io.micrometer.core.instrument.Metrics;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.Objects;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 @Service
 public class ZipServiceImpl implements ZipService {
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final ZipMetrics zipMetrics;
+
+    public ZipServiceImpl() {
+        this(new ZipMetrics(Metrics.globalRegistry));
+    }
+
+    public ZipServiceImpl(ZipMetrics zipMetrics) {
+        this.zipMetrics = zipMetrics;
+    }
+
+    @Override
+    public ZipOutputStream createZipOutputStream(OutputStream outputStream) {
+        return new ZipOutputStream(outputStream);
+    }
 
     @Override
     public void zipFolder(File folder, String parentFolder, ZipOutputStream zos) throws IOException {
@@ -55,4 +77,79 @@ public class ZipServiceImpl implements ZipService {
         zos.write(fileContent);
         zos.closeEntry();
     }
+
+    @Override
+    public void addFileToZip(ZipOutputStream zos, String filePath, ZipEntryWriter entryWriter) throws IOException {
+        addFileToZip(zos, filePath, null, -1, ZipCompressionPolicy.DEFAULT, entryWriter);
+    }
+
+    @Override
+    public void addFileToZip(ZipOutputStream zos, String filePath, String mimeType, long lastModifiedTime,
+                             ZipCompressionPolicy policy, ZipEntryWriter entryWriter) throws IOException {
+        boolean store = policy.shouldStore(mimeType);
+        ZipEntry zipEntry = newZipEntry(filePath, lastModifiedTime);
+        // Without the size and checksum upfront the entry can't be STORED, so content to store is deflated at level 0
+        zipEntry.setMethod(ZipEntry.DEFLATED);
+        writeEntry(zos, zipEntry, store ? Deflater.NO_COMPRESSION : policy.getLevel(), entryWriter);
+    }
+
+    @Override
+    public void addFileToZip(ZipOutputStream zos, String filePath, String mimeType, long lastModifiedTime,
+                             ZipCompressionPolicy policy, long size, long crc, ZipEntryWriter entryWriter) throws IOException {
+        if (!policy.shouldStore(mimeType)) {
+            addFileToZip(zos, filePath, mimeType, lastModifiedTime, policy, entryWriter);
+            return;
+        }
+        ZipEntry zipEntry = newZipEntry(filePath, lastModifiedTime);
+        zipEntry.setMethod(ZipEntry.STORED);
+        zipEntry.setSize(size);
+        zipEntry.setCompressedSize(size);
+        zipEntry.setCrc(crc);
+        writeEntry(zos, zipEntry, policy.getLevel(), entryWriter);
+    }
+
+    private static ZipEntry newZipEntry(String filePath, long lastModifiedTime) {
+        ZipEntry zipEntry = new ZipEntry(filePath);
+        if (lastModifiedTime >= 0) {
+            zipEntry.setTime(lastModifiedTime);
+        }
+        return zipEntry;
+    }
+
+    private void writeEntry(ZipOutputStream zos, ZipEntry zipEntry, int level, ZipEntryWriter entryWriter) throws IOException {
+        // Sampled once per entry, as reading the thread's CPU time on every write costs more than small writes do.
+        // The sample includes whatever the writer does on this thread to produce the content
+        long startCpuNanos = currentThreadCpuNanos();
+        zos.setLevel(level);
+        zos.putNextEntry(zipEntry);
+        // Shield the zip stream so a writer closing its stream can't end the whole archive
+        entryWriter.writeTo(CloseShieldOutputStream.wrap(zos));
+        zos.closeEntry();
+        long cpuNanos = cpuNanosSince(startCpuNanos);
+
+        String method = zipEntry.getMethod() == ZipEntry.STORED ? ZipMetrics.METHOD_STORED : ZipMetrics.METHOD_DEFLATED;
+        afterEntryWritten(zos, () -> zipMetrics.recordEntry(method, level, cpuNanos, zipEntry.getSize(),
+                zipEntry.getCompressedSize()));
+    }
+
+    /**
+     * Run an action once the entry just closed has been written out, when its compressed size is known.
+     * A ZipOutputStream has written an entry by the time closeEntry returns, so the action runs right away.
+     *
+     * @param zos    The zip the entry was added to.
+     * @param action The action to run.
+     * @throws IOException If an I/O error occurs.
+     */
+    protected void afterEntryWritten(ZipOutputStream zos, Runnable action) throws IOException {
+        action.run();
+    }
+
+    private static long currentThreadCpuNanos() {
+        return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : -1;
+    }
+
+    private static long cpuNanosSince(long startCpuNanos) {
+        long now = currentThreadCpuNanos();
+        return startCpuNanos < 0 || now < 0 ? -1 : now - startCpuNanos;
+    }
 }
@@ -0,0 +1,14 @@
+package org.strac.service.token;
+
+import org.strac.model.RefreshedAccessToken;
+
+public interface GoogleAccessTokenRefreshService {
+    /**
+     * Refresh a Google access token, reusing a recently issued access token for the same refresh token
+     * while it is still valid.
+     *
+     * @param refreshToken The refresh token to use.
+     * @return The access token with its scope and expiry.
+     */
+    RefreshedAccessToken refreshAccessToken(String refreshToken);
+}
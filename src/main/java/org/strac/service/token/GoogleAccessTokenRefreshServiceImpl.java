@@ -0,0 +1,59 @@
+package org.strac.service.token;
+
+import org.springframework.stereotype.Service;
+import org.strac.cache.ExpiringLruCache;
+import org.strac.cache.SingleFlight;
+import org.strac.cache.TokenHashes;
+import org.strac.dao.token.GoogleAccessTokenRefreshDao;
+import org.strac.model.GoogleAccessTokenInfo;
+import org.strac.model.RefreshedAccessToken;
+
+import java.time.Duration;
+
+@Service
+public class GoogleAccessTokenRefreshServiceImpl implements GoogleAccessTokenRefreshService {
+    private final GoogleAccessTokenRefreshDao googleAccessTokenRefreshDao;
+    private final GoogleAccessTokenValidationService googleAccessTokenValidationService;
+    // Keyed by the SHA-256 of the refresh token, holds the access token most recently issued for it
+    private final ExpiringLruCache<String, RefreshedAccessToken> refreshedTokenCache;
+    // Cached access tokens are handed out only until this long before they expire
+    private final Duration expiryMargin;
+    // Concurrent refreshes of the same refresh token share one call to Google
+    private final SingleFlight<String, RefreshedAccessToken> refreshes = new SingleFlight<>();
+
+    public GoogleAccessTokenRefreshServiceImpl(GoogleAccessTokenRefreshDao googleAccessTokenRefreshDao,
+                                               GoogleAccessTokenValidationService googleAccessTokenValidationService,
+                                               ExpiringLruCache<String, RefreshedAccessToken> refreshedTokenCache,
+                                               Duration expiryMargin) {
+        this.googleAccessTokenRefreshDao = googleAccessTokenRefreshDao;
+        this.googleAccessTokenValidationService = googleAccessTokenValidationService;
+        this.refreshedTokenCache = refreshedTokenCache;
+        this.expiryMargin = expiryMargin;
+    }
+
+    @Override
+    public RefreshedAccessToken refreshAccessToken(String refreshToken) {
+        String refreshTokenHash = TokenHashes.sha256Hex(refreshToken);
+        RefreshedAccessToken cached = refreshedTokenCache.get(refreshTokenHash);
+        if (cached != null) {
+            return cached;
+        }
+
+        return refreshes.execute(refreshTokenHash, () -> {
+            // Another thread may have finished a refresh between our cache miss and joining the flight
+            RefreshedAccessToken refreshed = refreshedTokenCache.get(refreshTokenHash);
+            if (refreshed != null) {
+                return refreshed;
+            }
+
+            refreshed = googleAccessTokenRefreshDao.refreshAccessTokenWithExpiry(refreshToken);
+            if (refreshed.getExpiresAt() != null) {
+                refreshedTokenCache.put(refreshTokenHash, refreshed, refreshed.getExpiresAt().minus(expiryMargin));
+                // Google just issued this token, so the first request made with it doesn't need tokeninfo
+                googleAccessTokenValidationService.cacheValidToken(refreshed.getAccessToken(),
+                        new GoogleAccessTokenInfo(null, refreshed.getScope(), refreshed.getExpiresAt()));
+            }
+            return refreshed;
+        });
+    }
+}
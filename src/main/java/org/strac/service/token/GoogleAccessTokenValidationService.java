@@ -0,0 +1,29 @@
+package org.strac.service.token;
+
+import org.strac.model.GoogleAccessTokenInfo;
+
+public interface GoogleAccessTokenValidationService {
+    /**
+     * Validate a Google access token, answering from the validation caches when possible.
+     *
+     * @param accessToken The access token to validate.
+     * @return True if the token is valid, false otherwise.
+     */
+    boolean validateAccessToken(String accessToken);
+
+    /**
+     * Check whether a token can be validated from the caches alone, without calling tokeninfo.
+     *
+     * @param accessToken The access token to check.
+     * @return True if the token is cached as either valid or rejected.
+     */
+    boolean isValidationCached(String accessToken);
+
+    /**
+     * Remember a token Google has just issued as valid, so its first use doesn't need tokeninfo.
+     *
+     * @param accessToken The newly issued access token.
+     * @param tokenInfo   The token's info, including when it expires.
+     */
+    void cacheValidToken(String accessToken, GoogleAccessTokenInfo tokenInfo);
+}
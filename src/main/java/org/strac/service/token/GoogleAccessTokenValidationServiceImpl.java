@@ -0,0 +1,85 @@
+package org.strac.service.token;
+
+import org.springframework.stereotype.Service;
+import org.strac.cache.ExpiringLruCache;
+import org.strac.cache.SingleFlight;
+import org.strac.cache.TokenHashes;
+import org.strac.dao.token.GoogleAccessTokenValidatorDao;
+import org.strac.model.GoogleAccessTokenInfo;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletionException;
+
+@Service
+public class GoogleAccessTokenValidationServiceImpl implements GoogleAccessTokenValidationService {
+    private final GoogleAccessTokenValidatorDao googleAccessTokenValidatorDao;
+    // Keyed by the SHA-256 of the token so raw tokens are never kept in memory
+    private final ExpiringLruCache<String, GoogleAccessTokenInfo> validTokenCache;
+    // Tokens Google rejected, so clients retrying with a dead token don't reach tokeninfo every time
+    private final ExpiringLruCache<String, Boolean> rejectedTokenCache;
+    private final Duration rejectedTokenTtl;
+    // Only one tokeninfo lookup per token is in flight, concurrent requests wait for its result
+    private final SingleFlight<String, Boolean> tokenLookups = new SingleFlight<>();
+
+    public GoogleAccessTokenValidationServiceImpl(GoogleAccessTokenValidatorDao googleAccessTokenValidatorDao,
+                                                  ExpiringLruCache<String, GoogleAccessTokenInfo> validTokenCache,
+                                                  ExpiringLruCache<String, Boolean> rejectedTokenCache,
+                                                  Duration rejectedTokenTtl) {
+        this.googleAccessTokenValidatorDao = googleAccessTokenValidatorDao;
+        this.validTokenCache = validTokenCache;
+        this.rejectedTokenCache = rejectedTokenCache;
+        this.rejectedTokenTtl = rejectedTokenTtl;
+    }
+
+    @Override
+    public boolean validateAccessToken(String accessToken) {
+        String tokenHash = TokenHashes.sha256Hex(accessToken);
+        if (validTokenCache.get(tokenHash) != null) {
+            return true;
+        }
+        if (rejectedTokenCache.get(tokenHash) != null) {
+            return false;
+        }
+
+        return tokenLookups.execute(tokenHash, () -> lookUpToken(accessToken, tokenHash));
+    }
+
+    @Override
+    public boolean isValidationCached(String accessToken) {
+        String tokenHash = TokenHashes.sha256Hex(accessToken);
+        return validTokenCache.get(tokenHash) != null || rejectedTokenCache.get(tokenHash) != null;
+    }
+
+    @Override
+    public void cacheValidToken(String accessToken, GoogleAccessTokenInfo tokenInfo) {
+        String tokenHash = TokenHashes.sha256Hex(accessToken);
+        rejectedTokenCache.invalidate(tokenHash);
+        validTokenCache.put(tokenHash, tokenInfo, tokenInfo.getExpiresAt());
+    }
+
+    private boolean lookUpToken(String accessToken, String tokenHash) {
+        // Another thread may have finished a lookup between our cache miss and joining the flight
+        if (validTokenCache.get(tokenHash) != null) {
+            return true;
+        }
+
+        GoogleAccessTokenInfo tokenInfo;
+        try {
+            tokenInfo = googleAccessTokenValidatorDao.getGoogleAccessTokenInfoAsync(accessToken).join();
+        } catch (CompletionException e) {
+            // tokeninfo could not answer, reject this request but don't remember the token as invalid
+            e.printStackTrace();
+            return false;
+        }
+
+        if (tokenInfo == null) {
+            rejectedTokenCache.put(tokenHash, Boolean.TRUE, Instant.now().plus(rejectedTokenTtl));
+            return false;
+        }
+
+        // Entries expire when Google says the token does
+        validTokenCache.put(tokenHash, tokenInfo, tokenInfo.getExpiresAt());
+        return true;
+    }
+}
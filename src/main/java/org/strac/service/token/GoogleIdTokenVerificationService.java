@@ -0,0 +1,13 @@
+package org.strac.service.token;
+
+import io.jsonwebtoken.Claims;
+
+public interface GoogleIdTokenVerificationService {
+    /**
+     * Verify a Google-signed ID token locally against Google's cached signing keys.
+     *
+     * @param idToken The ID token to verify.
+     * @return The token's claims if it is valid, null otherwise.
+     */
+    Claims verifyIdToken(String idToken);
+}
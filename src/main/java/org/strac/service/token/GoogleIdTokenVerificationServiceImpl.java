@@ -0,0 +1,104 @@
+package org.strac.service.token;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.LocatorAdapter;
+import io.jsonwebtoken.security.Jwk;
+import io.jsonwebtoken.security.JwkSet;
+import org.springframework.stereotype.Service;
+import org.strac.dao.token.GoogleJwksDao;
+
+import java.security.Key;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+
+@Service
+public class GoogleIdTokenVerificationServiceImpl implements GoogleIdTokenVerificationService {
+    private static final Set<String> GOOGLE_ISSUERS = Set.of("accounts.google.com", "https://accounts.google.com");
+    // Don't let tokens with unknown key ids force a JWKS fetch more often than this
+    private static final Duration MIN_UNKNOWN_KEY_REFRESH_INTERVAL = Duration.ofMinutes(1);
+
+    private final GoogleJwksDao googleJwksDao;
+    private final String clientId;
+    private final Duration keySetRefreshInterval;
+    private final Clock clock;
+
+    private JwkSet keySet;
+    private Instant keySetFetchedAt = Instant.MIN;
+
+    public GoogleIdTokenVerificationServiceImpl(GoogleJwksDao googleJwksDao, String clientId, Duration keySetRefreshInterval) {
+        this(googleJwksDao, clientId, keySetRefreshInterval, Clock.systemUTC());
+    }
+
+    public GoogleIdTokenVerificationServiceImpl(GoogleJwksDao googleJwksDao, String clientId,
+                                                Duration keySetRefreshInterval, Clock clock) {
+        this.googleJwksDao = googleJwksDao;
+        this.clientId = clientId;
+        this.keySetRefreshInterval = keySetRefreshInterval;
+        this.clock = clock;
+    }
+
+    @Override
+    public Claims verifyIdToken(String idToken) {
+        try {
+            Claims claims = Jwts.parser()
+                    .keyLocator(new GoogleKeyLocator())
+                    .requireAudience(clientId)
+                    .build()
+                    .parseSignedClaims(idToken)
+                    .getPayload();
+            if (!GOOGLE_ISSUERS.contains(claims.getIssuer())) {
+                System.err.println("ID token was not issued by Google: " + claims.getIssuer());
+                return null;
+            }
+            return claims;
+        } catch (JwtException | IllegalArgumentException e) {
+            System.err.println("Invalid Google ID token: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private synchronized Key findKey(String keyId) {
+        Instant now = clock.instant();
+        if (keySet == null || now.isAfter(keySetFetchedAt.plus(keySetRefreshInterval))) {
+            refreshKeySet(now);
+        }
+
+        Key key = findKeyInKeySet(keyId);
+        if (key == null && now.isAfter(keySetFetchedAt.plus(MIN_UNKNOWN_KEY_REFRESH_INTERVAL))) {
+            // Google may have rotated its keys since the last fetch
+            refreshKeySet(now);
+            key = findKeyInKeySet(keyId);
+        }
+        return key;
+    }
+
+    private void refreshKeySet(Instant now) {
+        keySet = googleJwksDao.fetchGoogleJwks();
+        keySetFetchedAt = now;
+    }
+
+    private Key findKeyInKeySet(String keyId) {
+        for (Jwk<?> jwk : keySet.getKeys()) {
+            if (jwk.getId() != null && jwk.getId().equals(keyId)) {
+                return jwk.toKey();
+            }
+        }
+        return null;
+    }
+
+    private class GoogleKeyLocator extends LocatorAdapter<Key> {
+        @Override
+        protected Key locate(JwsHeader header) {
+            Key key = findKey(header.getKeyId());
+            if (key == null) {
+                throw new JwtException("No Google signing key found for key id " + header.getKeyId());
+            }
+            return key;
+        }
+    }
+}
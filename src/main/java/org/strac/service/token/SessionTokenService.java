@@ -0,0 +1,24 @@
+package org.strac.service.token;
+
+import java.time.Instant;
+
+public interface SessionTokenService {
+    /**
+     * Issue a short-lived session JWT that carries a Google access token.
+     * The access token is encrypted, and the session token can be verified locally, without calling Google.
+     *
+     * @param accessToken          The Google access token to carry.
+     * @param subject              The Google user the token was issued to (optional).
+     * @param accessTokenExpiresAt When the Google access token expires (optional).
+     * @return The encrypted session token.
+     */
+    String issueSessionToken(String accessToken, String subject, Instant accessTokenExpiresAt);
+
+    /**
+     * Verify a session JWT issued by this backend.
+     *
+     * @param sessionToken The session token to verify.
+     * @return The Google access token carried by the session token, or null if it is invalid or expired.
+     */
+    String verifySessionToken(String sessionToken);
+}
@@ -0,0 +1,73 @@
+package org.strac.service.token;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKey;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+
+/**
+ * Session tokens are encrypted JWTs (JWE, AES-256-GCM with a shared key), so the Google access token they carry can
+ * only be read by instances of this backend, while any of them can still verify a session token without calling Google.
+ */
+@Service
+public class SessionTokenServiceImpl implements SessionTokenService {
+    private static final String ISSUER = "strac-exam-backend";
+    private static final String ACCESS_TOKEN_CLAIM = "gat";
+
+    private final SecretKey encryptionKey;
+    private final Duration sessionTokenLifetime;
+    private final Clock clock;
+
+    public SessionTokenServiceImpl(SecretKey encryptionKey, Duration sessionTokenLifetime) {
+        this(encryptionKey, sessionTokenLifetime, Clock.systemUTC());
+    }
+
+    public SessionTokenServiceImpl(SecretKey encryptionKey, Duration sessionTokenLifetime, Clock clock) {
+        this.encryptionKey = encryptionKey;
+        this.sessionTokenLifetime = sessionTokenLifetime;
+        this.clock = clock;
+    }
+
+    @Override
+    public String issueSessionToken(String accessToken, String subject, Instant accessTokenExpiresAt) {
+        Instant now = clock.instant();
+        Instant expiresAt = now.plus(sessionTokenLifetime);
+        // A session token never outlives the access token it carries
+        if (accessTokenExpiresAt != null && accessTokenExpiresAt.isBefore(expiresAt)) {
+            expiresAt = accessTokenExpiresAt;
+        }
+
+        return Jwts.builder()
+                .issuer(ISSUER)
+                .subject(subject)
+                .issuedAt(Date.from(now))
+                .expiration(Date.from(expiresAt))
+                .claim(ACCESS_TOKEN_CLAIM, accessToken)
+                // GCM authenticates the token as well as encrypting it, so it needs no separate signature
+                .encryptWith(encryptionKey, Jwts.KEY.DIRECT, Jwts.ENC.A256GCM)
+                .compact();
+    }
+
+    @Override
+    public String verifySessionToken(String sessionToken) {
+        try {
+            Claims claims = Jwts.parser()
+                    .decryptWith(encryptionKey)
+                    .requireIssuer(ISSUER)
+                    .clock(() -> Date.from(clock.instant()))
+                    .build()
+                    .parseEncryptedClaims(sessionToken)
+                    .getPayload();
+            return claims.get(ACCESS_TOKEN_CLAIM, String.class);
+        } catch (JwtException | IllegalArgumentException e) {
+            System.err.println("Invalid session token: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.strac.api.config;
+
+import jakarta.servlet.Filter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.strac.api.config.StracExamSecurityConfig;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(classes = ActuatorSecurityTest.ActuatorSecurityTestConfig.class)
+public class ActuatorSecurityTest {
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    @Qualifier("springSecurityFilterChain")
+    private Filter springSecurityFilterChain;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext)
+                .addFilters(springSecurityFilterChain)
+                .build();
+    }
+
+    @Test
+    void testHealthIsPublic() throws Exception {
+        mockMvc.perform(get("/actuator/health"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void testPrometheusRequiresScrapeCredential() throws Exception {
+        mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/actuator/prometheus")
+                        .header(HttpHeaders.AUTHORIZATION, basic("prometheus", "wrong")))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/actuator/prometheus")
+                        .header(HttpHeaders.AUTHORIZATION, basic("prometheus", "scrape-secret")))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void testOtherActuatorEndpointsAreClosed() throws Exception {
+        mockMvc.perform(get("/actuator/env")
+                        .header(HttpHeaders.AUTHORIZATION, basic("prometheus", "scrape-secret")))
+                .andExpect(status().isForbidden());
+    }
+
+    private static String basic(String username, String password) {
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Configuration
+    @EnableWebMvc
+    @EnableWebSecurity
+    static class ActuatorSecurityTestConfig {
+        @Bean
+        public SecurityFilterChain actuatorSecurityFilterChain(HttpSecurity http) throws Exception {
+            return new StracExamSecurityConfig().actuatorSecurityFilterChain(http, "prometheus", "scrape-secret");
+        }
+
+        @Bean
+        public ActuatorStubController actuatorStubController() {
+            return new ActuatorStubController();
+        }
+    }
+
+    @RestController
+    static class ActuatorStubController {
+        @GetMapping({"/actuator/health", "/actuator/prometheus", "/actuator/env"})
+        public String actuator() {
+            return "ok";
+        }
+    }
+}
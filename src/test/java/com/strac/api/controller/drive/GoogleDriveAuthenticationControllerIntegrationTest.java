@@ -13,8 +13,14 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.strac.api.controller.drive.GoogleDriveAuthenticationController;
 import org.strac.dao.config.StracExamDaoConfig;
-import org.strac.dao.token.GoogleAccessTokenRefreshDao;
 import org.strac.model.CredentialsResource;
+import org.strac.model.RefreshedAccessToken;
+import org.strac.service.token.GoogleAccessTokenRefreshService;
+import org.strac.service.token.GoogleAccessTokenValidationService;
+import org.strac.service.token.GoogleIdTokenVerificationService;
+import org.strac.service.token.SessionTokenService;
+
+import java.time.Instant;
 
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -34,7 +40,16 @@ public class GoogleDriveAuthenticationControllerIntegrationTest {
     private Gson gson;
 
     @MockBean
-    private GoogleAccessTokenRefreshDao googleAccessTokenRefreshDao;
+    private GoogleAccessTokenRefreshService googleAccessTokenRefreshService;
+
+    @MockBean
+    private GoogleAccessTokenValidationService googleAccessTokenValidationService;
+
+    @MockBean
+    private GoogleIdTokenVerificationService googleIdTokenVerificationService;
+
+    @MockBean
+    private SessionTokenService sessionTokenService;
 
     private MockMvc mockMvc;
 
@@ -91,6 +106,9 @@ public class GoogleDriveAuthenticationControllerIntegrationTest {
                         .param("code", "testCode"))
                 .andExpect(status().isOk())
                 .andExpect(content().json(jsonResponse));
+
+        // A session token is issued for the new access token
+        verify(sessionTokenService).issueSessionToken(eq("accessToken"), isNull(), any());
     }
 
 
@@ -103,7 +121,8 @@ public class GoogleDriveAuthenticationControllerIntegrationTest {
         String newAccessToken = "newAccessToken";
         String jsonResponse = "{\"accessToken\":\"newAccessToken\",\"refreshToken\":\"refreshToken\"}";
 
-        when(googleAccessTokenRefreshDao.refreshAccessToken(refreshToken)).thenReturn(newAccessToken);
+        when(googleAccessTokenRefreshService.refreshAccessToken(refreshToken))
+                .thenReturn(new RefreshedAccessToken(newAccessToken, "scope", Instant.now().plusSeconds(3600)));
         when(gson.toJson(any(CredentialsResource.class))).thenReturn(jsonResponse);
 
         // Act & Assert
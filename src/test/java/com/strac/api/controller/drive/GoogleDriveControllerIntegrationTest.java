@@ -1,5 +1,6 @@
 package com.strac.api.controller.drive;
 
+import com.google.api.client.util.DateTime;
 import com.google.api.services.drive.model.File;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,16 +11,26 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.strac.api.controller.drive.GoogleDriveController;
+import org.strac.model.DriveTreeEntry;
+import org.strac.service.drive.FolderArchive;
 import org.strac.service.drive.GoogleDriveService;
+import org.strac.service.file.StoredZipLayout;
+import org.strac.service.file.ArchiveFormat;
+import org.strac.service.file.ZipCompressionPolicy;
 
-import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.List;
 
 import static org.mockito.ArgumentMatchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -97,20 +108,389 @@ public class GoogleDriveControllerIntegrationTest {
 
         // Mocking the behavior of googleDriveService.downloadFileToStream
         doAnswer(invocation -> {
-            ByteArrayOutputStream outputStream = invocation.getArgument(2);  // Get the ByteArrayOutputStream passed to the method
+            OutputStream outputStream = invocation.getArgument(2);  // Get the response stream passed to the method
             outputStream.write(mockFileContent);  // Simulate writing the mock file content to the output stream
             return null;  // since the method is void
-        }).when(googleDriveService).downloadFileToStream(eq(accessToken), eq(fileId), any(ByteArrayOutputStream.class));
+        }).when(googleDriveService).downloadFileToStream(eq(accessToken), eq(fileId), any(OutputStream.class));
 
         // Act & Assert
-        mockMvc.perform(get("/api/drive/download/file")
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/file")
                         .param("fileId", fileId)
                         .param("accessToken", accessToken))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
                 .andExpect(status().isOk())
                 .andExpect(content().bytes(mockFileContent))  // Verify that the content of the response matches the mock file content
                 .andExpect(header().string("Content-Disposition", "attachment; filename=\"" + fileId + "\""));
     }
 
+    @Test
+    void testDownloadFileUsesDriveMetadata() throws Exception {
+        // Arrange
+        String fileId = "mockFileId";
+        String accessToken = "mockAccessToken";
+        byte[] mockFileContent = "File content".getBytes();
+
+        File metadata = new File();
+        metadata.setId(fileId);
+        metadata.setName("report.txt");
+        metadata.setMimeType("text/plain");
+        metadata.setSize((long) mockFileContent.length);
+        when(googleDriveService.getFileMetadata(accessToken, fileId)).thenReturn(metadata);
+        doAnswer(invocation -> {
+            OutputStream outputStream = invocation.getArgument(2);
+            outputStream.write(mockFileContent);
+            return null;
+        }).when(googleDriveService).downloadFileToStream(eq(accessToken), eq(fileId), any(OutputStream.class));
+
+        // Act & Assert
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/file")
+                        .param("fileId", fileId)
+                        .param("accessToken", accessToken))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(mockFileContent))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"report.txt\""))
+                .andExpect(header().string("Content-Type", "text/plain"))
+                .andExpect(header().longValue("Content-Length", mockFileContent.length));
+    }
+
+    @Test
+    void testDownloadFileExportsRequestedFormat() throws Exception {
+        // Arrange
+        String fileId = "mockDocId";
+        String accessToken = "mockAccessToken";
+        byte[] mockDocxContent = "Docx content".getBytes();
+        String docxMimeType = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+
+        File metadata = new File();
+        metadata.setId(fileId);
+        metadata.setName("Essay");
+        metadata.setMimeType("application/vnd.google-apps.document");
+        when(googleDriveService.getFileMetadata(accessToken, fileId)).thenReturn(metadata);
+        doAnswer(invocation -> {
+            OutputStream outputStream = invocation.getArgument(3);
+            outputStream.write(mockDocxContent);
+            return null;
+        }).when(googleDriveService).exportFileToStream(eq(accessToken), eq(fileId), eq(docxMimeType), any(OutputStream.class));
+
+        // Act & Assert
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/file")
+                        .param("fileId", fileId)
+                        .param("format", "docx")
+                        .param("accessToken", accessToken))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(mockDocxContent))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"Essay.docx\""))
+                .andExpect(header().string("Content-Type", docxMimeType));
+    }
+
+    @Test
+    void testDownloadFileRejectsUnsupportedFormat() throws Exception {
+        // Arrange
+        String fileId = "mockSheetId";
+        String accessToken = "mockAccessToken";
+
+        File metadata = new File();
+        metadata.setId(fileId);
+        metadata.setName("Grades");
+        metadata.setMimeType("application/vnd.google-apps.spreadsheet");
+        when(googleDriveService.getFileMetadata(accessToken, fileId)).thenReturn(metadata);
+
+        // Act & Assert
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/file")
+                        .param("fileId", fileId)
+                        .param("format", "docx")
+                        .param("accessToken", accessToken))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isBadRequest());
+        verify(googleDriveService, never()).exportFileToStream(anyString(), anyString(), anyString(), any(OutputStream.class));
+    }
+
+    @Test
+    void testDownloadFileSingleRange() throws Exception {
+        // Arrange
+        String fileId = "mockFileId";
+        String accessToken = "mockAccessToken";
+        byte[] mockFileContent = "0123456789".getBytes();
+        when(googleDriveService.getFileMetadata(accessToken, fileId)).thenReturn(binaryFileMetadata(fileId, mockFileContent.length));
+        mockRangeDownloads(accessToken, fileId, mockFileContent);
+
+        // Act & Assert
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/file")
+                        .param("fileId", fileId)
+                        .param("accessToken", accessToken)
+                        .header("Range", "bytes=2-5"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().bytes("2345".getBytes()))
+                .andExpect(header().string("Content-Range", "bytes 2-5/10"))
+                .andExpect(header().longValue("Content-Length", 4));
+        verify(googleDriveService, never()).downloadFileToStream(anyString(), anyString(), any(OutputStream.class));
+    }
+
+    @Test
+    void testDownloadFileMultipleRanges() throws Exception {
+        // Arrange
+        String fileId = "mockFileId";
+        String accessToken = "mockAccessToken";
+        byte[] mockFileContent = "0123456789".getBytes();
+        when(googleDriveService.getFileMetadata(accessToken, fileId)).thenReturn(binaryFileMetadata(fileId, mockFileContent.length));
+        mockRangeDownloads(accessToken, fileId, mockFileContent);
+
+        // Act & Assert
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/file")
+                        .param("fileId", fileId)
+                        .param("accessToken", accessToken)
+                        .header("Range", "bytes=0-1,-2"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult dispatched = mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Type", org.hamcrest.Matchers.startsWith("multipart/byteranges; boundary=")))
+                .andReturn();
+        String body = dispatched.getResponse().getContentAsString();
+        assertTrue(body.contains("Content-Range: bytes 0-1/10\r\n\r\n01"));
+        assertTrue(body.contains("Content-Range: bytes 8-9/10\r\n\r\n89"));
+        assertEquals(dispatched.getResponse().getContentAsByteArray().length,
+                Long.parseLong(dispatched.getResponse().getHeader("Content-Length")));
+    }
+
+    @Test
+    void testDownloadFileCoalescesOverlappingRanges() throws Exception {
+        // Arrange
+        String fileId = "mockFileId";
+        String accessToken = "mockAccessToken";
+        byte[] mockFileContent = "0123456789".getBytes();
+        when(googleDriveService.getFileMetadata(accessToken, fileId)).thenReturn(binaryFileMetadata(fileId, mockFileContent.length));
+        mockRangeDownloads(accessToken, fileId, mockFileContent);
+
+        // Act & Assert
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/file")
+                        .param("fileId", fileId)
+                        .param("accessToken", accessToken)
+                        .header("Range", "bytes=4-5,0-2,2-3"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().bytes("012345".getBytes()))
+                .andExpect(header().string("Content-Range", "bytes 0-5/10"));
+    }
+
+    @Test
+    void testDownloadFileIgnoresRangesLargerThanContent() throws Exception {
+        // Arrange
+        String fileId = "mockFileId";
+        String accessToken = "mockAccessToken";
+        byte[] mockFileContent = "0123456789".getBytes();
+        when(googleDriveService.getFileMetadata(accessToken, fileId)).thenReturn(binaryFileMetadata(fileId, mockFileContent.length));
+        doAnswer(invocation -> {
+            OutputStream outputStream = invocation.getArgument(2);
+            outputStream.write(mockFileContent);
+            return null;
+        }).when(googleDriveService).downloadFileToStream(eq(accessToken), eq(fileId), any(OutputStream.class));
+
+        // Act & Assert
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/file")
+                        .param("fileId", fileId)
+                        .param("accessToken", accessToken)
+                        .header("Range", "bytes=0-9,0-9,0-9"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(mockFileContent));
+        verify(googleDriveService, never()).downloadFileRangeToStream(anyString(), anyString(), anyLong(), anyLong(), any(OutputStream.class));
+    }
+
+    @Test
+    void testDownloadFileUnsatisfiableRange() throws Exception {
+        // Arrange
+        String fileId = "mockFileId";
+        String accessToken = "mockAccessToken";
+        when(googleDriveService.getFileMetadata(accessToken, fileId)).thenReturn(binaryFileMetadata(fileId, 10));
+
+        // Act & Assert
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/file")
+                        .param("fileId", fileId)
+                        .param("accessToken", accessToken)
+                        .header("Range", "bytes=20-30"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string("Content-Range", "bytes */10"));
+    }
+
+    @Test
+    void testDownloadFileSendsValidators() throws Exception {
+        // Arrange
+        String fileId = "mockFileId";
+        String accessToken = "mockAccessToken";
+        byte[] mockFileContent = "0123456789".getBytes();
+        File metadata = binaryFileMetadata(fileId, mockFileContent.length)
+                .setMd5Checksum("d41d8cd98f00b204e9800998ecf8427e")
+                .setModifiedTime(new DateTime("2024-01-01T10:00:00Z"));
+        when(googleDriveService.getFileMetadata(accessToken, fileId)).thenReturn(metadata);
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(2).write(mockFileContent);
+            return null;
+        }).when(googleDriveService).downloadFileToStream(eq(accessToken), eq(fileId), any(OutputStream.class));
+
+        // Act & Assert
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/file")
+                        .param("fileId", fileId)
+                        .param("accessToken", accessToken))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(mockFileContent))
+                .andExpect(header().string("ETag", "\"d41d8cd98f00b204e9800998ecf8427e\""))
+                .andExpect(header().string("Last-Modified", "Mon, 01 Jan 2024 10:00:00 GMT"))
+                .andExpect(header().string("Cache-Control", "private, no-cache"));
+    }
+
+    @Test
+    void testDownloadFileNotModifiedForMatchingETag() throws Exception {
+        // Arrange
+        String fileId = "mockFileId";
+        String accessToken = "mockAccessToken";
+        File metadata = binaryFileMetadata(fileId, 10)
+                .setMd5Checksum("d41d8cd98f00b204e9800998ecf8427e")
+                .setModifiedTime(new DateTime("2024-01-01T10:00:00Z"));
+        when(googleDriveService.getFileMetadata(accessToken, fileId)).thenReturn(metadata);
+
+        // Act & Assert
+        mockMvc.perform(get("/api/drive/download/file")
+                        .param("fileId", fileId)
+                        .param("accessToken", accessToken)
+                        .header("If-None-Match", "\"stale\", W/\"d41d8cd98f00b204e9800998ecf8427e\"")
+                        .header("Range", "bytes=0-4"))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"d41d8cd98f00b204e9800998ecf8427e\""))
+                .andExpect(content().bytes(new byte[0]));
+        verify(googleDriveService, never()).downloadFileToStream(anyString(), anyString(), any(OutputStream.class));
+        verify(googleDriveService, never()).downloadFileRangeToStream(anyString(), anyString(), anyLong(), anyLong(), any(OutputStream.class));
+    }
+
+    @Test
+    void testDownloadFileNotModifiedSince() throws Exception {
+        // Arrange
+        String fileId = "mockFileId";
+        String accessToken = "mockAccessToken";
+        File metadata = binaryFileMetadata(fileId, 10)
+                .setModifiedTime(new DateTime("2024-01-01T10:00:00.250Z"));
+        when(googleDriveService.getFileMetadata(accessToken, fileId)).thenReturn(metadata);
+
+        // Act & Assert
+        mockMvc.perform(get("/api/drive/download/file")
+                        .param("fileId", fileId)
+                        .param("accessToken", accessToken)
+                        .header("If-Modified-Since", "Mon, 01 Jan 2024 10:00:00 GMT"))
+                .andExpect(status().isNotModified());
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/file")
+                        .param("fileId", fileId)
+                        .param("accessToken", accessToken)
+                        .header("If-Modified-Since", "Mon, 01 Jan 2024 09:59:59 GMT"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void testDownloadFileExportETagDependsOnFormat() throws Exception {
+        // Arrange
+        String fileId = "mockDocId";
+        String accessToken = "mockAccessToken";
+        File metadata = new File();
+        metadata.setId(fileId);
+        metadata.setName("Essay");
+        metadata.setMimeType("application/vnd.google-apps.document");
+        metadata.setModifiedTime(new DateTime("2024-01-01T10:00:00Z"));
+        when(googleDriveService.getFileMetadata(accessToken, fileId)).thenReturn(metadata);
+        // Exports are regenerated on each request, so their tags are weak
+        String pdfETag = "W/\"" + metadata.getModifiedTime().getValue() + "-pdf\"";
+
+        // Act & Assert
+        mockMvc.perform(get("/api/drive/download/file")
+                        .param("fileId", fileId)
+                        .param("accessToken", accessToken)
+                        .header("If-None-Match", pdfETag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", pdfETag));
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/file")
+                        .param("fileId", fileId)
+                        .param("format", "docx")
+                        .param("accessToken", accessToken)
+                        .header("If-None-Match", pdfETag))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "W/\"" + metadata.getModifiedTime().getValue() + "-docx\""));
+    }
+
+    @Test
+    void testDownloadFileWithoutMd5IgnoresIfRange() throws Exception {
+        // Arrange
+        String fileId = "mockFileId";
+        String accessToken = "mockAccessToken";
+        byte[] mockFileContent = "0123456789".getBytes();
+        File metadata = binaryFileMetadata(fileId, mockFileContent.length).setVersion(7L);
+        when(googleDriveService.getFileMetadata(accessToken, fileId)).thenReturn(metadata);
+        doAnswer(invocation -> {
+            OutputStream outputStream = invocation.getArgument(2);
+            outputStream.write(mockFileContent);
+            return null;
+        }).when(googleDriveService).downloadFileToStream(eq(accessToken), eq(fileId), any(OutputStream.class));
+
+        // Act & Assert
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/file")
+                        .param("fileId", fileId)
+                        .param("accessToken", accessToken)
+                        .header("Range", "bytes=4-")
+                        .header("If-Range", "\"v7\""))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "W/\"v7\""))
+                .andExpect(content().bytes(mockFileContent));
+        verify(googleDriveService, never()).downloadFileRangeToStream(anyString(), anyString(), anyLong(), anyLong(), any(OutputStream.class));
+    }
+
+    private File binaryFileMetadata(String fileId, long size) {
+        File metadata = new File();
+        metadata.setId(fileId);
+        metadata.setName("video.mp4");
+        metadata.setMimeType("video/mp4");
+        metadata.setSize(size);
+        return metadata;
+    }
+
+    private void mockRangeDownloads(String accessToken, String fileId, byte[] content) {
+        doAnswer(invocation -> {
+            long first = invocation.getArgument(2);
+            long last = invocation.getArgument(3);
+            OutputStream outputStream = invocation.getArgument(4);
+            outputStream.write(content, (int) first, (int) (last - first + 1));
+            return null;
+        }).when(googleDriveService).downloadFileRangeToStream(eq(accessToken), eq(fileId), anyLong(), anyLong(), any(OutputStream.class));
+    }
+
     @Test
     void testDownloadFolder() throws Exception {
         // Arrange
@@ -118,21 +498,308 @@ public class GoogleDriveControllerIntegrationTest {
         String accessToken = "mockAccessToken";
         byte[] mockZipContent = "Zipped folder content".getBytes();  // Simulated zipped content
 
-        // Mocking the behavior of googleDriveService.downloadFolderAsStream
+        // Mocking the behavior of googleDriveService.prepareFolderArchive and writeFolderArchiveToStream
+        FolderArchive archive = folderArchive(folderId, ZipCompressionPolicy.DEFAULT, -1);
+        when(googleDriveService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP, ZipCompressionPolicy.DEFAULT))
+                .thenReturn(archive);
         doAnswer(invocation -> {
-            ByteArrayOutputStream outputStream = invocation.getArgument(2);  // Get the ByteArrayOutputStream passed to the method
+            OutputStream outputStream = invocation.getArgument(2);  // Get the response stream passed to the method
             outputStream.write(mockZipContent);  // Simulate writing the mock zip content to the output stream
             return null;  // Since the method is void
-        }).when(googleDriveService).downloadFolderAsStream(eq(accessToken), eq(folderId), any(ByteArrayOutputStream.class));
+        }).when(googleDriveService).writeFolderArchiveToStream(eq(accessToken), eq(archive), any(OutputStream.class));
 
         // Act & Assert
-        mockMvc.perform(get("/api/drive/download/folder")
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/folder")
                         .param("folderId", folderId)
                         .param("accessToken", accessToken))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
                 .andExpect(status().isOk())
                 .andExpect(content().bytes(mockZipContent))  // Verify that the content of the response matches the mock zip content
                 .andExpect(header().string("Content-Disposition", "attachment; filename=\"folder.zip\""))  // Verify that the Content-Disposition header is correct
-                .andExpect(header().string("Content-Type", "application/zip"));  // Verify that the Content-Type header is correct for zip files
+                .andExpect(header().string("Content-Type", "application/zip"))  // Verify that the Content-Type header is correct for zip files
+                .andExpect(header().string("ETag", "\"mockFingerprint\""));
+    }
+
+    @Test
+    void testDownloadFolderWithCompressionLevel() throws Exception {
+        // Arrange
+        String folderId = "mockFolderId";
+        String accessToken = "mockAccessToken";
+        when(googleDriveService.prepareFolderArchive(eq(accessToken), eq(folderId), eq(ArchiveFormat.ZIP),
+                argThat(policy -> policy.getLevel() == 1)))
+                .thenReturn(folderArchive(folderId, ZipCompressionPolicy.withLevel(1), -1));
+
+        // Act & Assert
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/folder")
+                        .param("folderId", folderId)
+                        .param("compressionLevel", "1")
+                        .param("accessToken", accessToken))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk());
+        verify(googleDriveService).writeFolderArchiveToStream(eq(accessToken),
+                argThat(archive -> archive.getCompressionPolicy().getLevel() == 1), any(OutputStream.class));
+    }
+
+    @Test
+    void testDownloadFolderStoredZipHasContentLength() throws Exception {
+        // Arrange
+        String folderId = "mockFolderId";
+        String accessToken = "mockAccessToken";
+        StoredZipLayout storedLayout = new StoredZipLayout(List.of(new StoredZipLayout.Entry("notes.txt", 10, 0)));
+        FolderArchive archive = new FolderArchive(folderId, "mockFingerprint", ArchiveFormat.ZIP, ZipCompressionPolicy.withLevel(0),
+                List.of(), -1, storedLayout);
+        when(googleDriveService.prepareFolderArchive(eq(accessToken), eq(folderId), eq(ArchiveFormat.ZIP),
+                argThat(policy -> policy.getLevel() == 0)))
+                .thenReturn(archive);
+        byte[] mockZipContent = new byte[(int) storedLayout.getLength()];
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(2).write(mockZipContent);
+            return null;
+        }).when(googleDriveService).writeFolderArchiveToStream(eq(accessToken), eq(archive), any(OutputStream.class));
+
+        // Act & Assert
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/folder")
+                        .param("folderId", folderId)
+                        .param("compressionLevel", "0")
+                        .param("accessToken", accessToken))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue("Content-Length", storedLayout.getLength()))
+                .andExpect(header().string("Accept-Ranges", "bytes"));
+    }
+
+    @Test
+    void testDownloadFolderNotModifiedForMatchingETag() throws Exception {
+        // Arrange
+        String folderId = "mockFolderId";
+        String accessToken = "mockAccessToken";
+        when(googleDriveService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP, ZipCompressionPolicy.DEFAULT))
+                .thenReturn(folderArchive(folderId, ZipCompressionPolicy.DEFAULT, 10));
+
+        // Act & Assert
+        mockMvc.perform(get("/api/drive/download/folder")
+                        .param("folderId", folderId)
+                        .param("accessToken", accessToken)
+                        .header("If-None-Match", "\"mockFingerprint\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"mockFingerprint\""));
+        verify(googleDriveService, never()).writeFolderArchiveToStream(any(), any(), any());
+    }
+
+    @Test
+    void testDownloadFolderRangeOfCachedZip() throws Exception {
+        // Arrange
+        String folderId = "mockFolderId";
+        String accessToken = "mockAccessToken";
+        byte[] mockZipContent = "0123456789".getBytes();
+        FolderArchive archive = folderArchive(folderId, ZipCompressionPolicy.DEFAULT, mockZipContent.length);
+        when(googleDriveService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP, ZipCompressionPolicy.DEFAULT))
+                .thenReturn(archive);
+        doAnswer(invocation -> {
+            long first = invocation.getArgument(2);
+            long last = invocation.getArgument(3);
+            invocation.<OutputStream>getArgument(4).write(mockZipContent, (int) first, (int) (last - first + 1));
+            return null;
+        }).when(googleDriveService).writeFolderArchiveRangeToStream(eq(accessToken), eq(archive), anyLong(), anyLong(),
+                any(OutputStream.class));
+
+        // Act & Assert
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/folder")
+                        .param("folderId", folderId)
+                        .param("accessToken", accessToken)
+                        .header("Range", "bytes=4-")
+                        .header("If-Range", "\"mockFingerprint\""))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().bytes("456789".getBytes()))
+                .andExpect(header().string("Content-Range", "bytes 4-9/10"))
+                .andExpect(header().string("Accept-Ranges", "bytes"));
+    }
+
+    @Test
+    void testDownloadFolderWithExportsRefusesRanges() throws Exception {
+        // Arrange
+        String folderId = "mockFolderId";
+        String accessToken = "mockAccessToken";
+        byte[] mockZipContent = "0123456789".getBytes();
+        File doc = new File().setId("docId").setName("Essay").setMimeType("application/vnd.google-apps.document");
+        FolderArchive archive = new FolderArchive(folderId, "mockFingerprint", ArchiveFormat.ZIP, ZipCompressionPolicy.DEFAULT,
+                List.of(new DriveTreeEntry(doc, "Essay.docx")), mockZipContent.length);
+        when(googleDriveService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP, ZipCompressionPolicy.DEFAULT))
+                .thenReturn(archive);
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(2).write(mockZipContent);
+            return null;
+        }).when(googleDriveService).writeFolderArchiveToStream(eq(accessToken), eq(archive), any(OutputStream.class));
+
+        // Act & Assert
+        // Exports come out different on a rebuild, so even a cached archive with them can't be resumed
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/folder")
+                        .param("folderId", folderId)
+                        .param("accessToken", accessToken)
+                        .header("Range", "bytes=4-")
+                        .header("If-Range", "\"mockFingerprint\""))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "W/\"mockFingerprint\""))
+                .andExpect(header().doesNotExist("Accept-Ranges"))
+                .andExpect(content().bytes(mockZipContent));
+        verify(googleDriveService, never()).writeFolderArchiveRangeToStream(any(), any(), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void testDownloadFolderIgnoresRangeForChangedZip() throws Exception {
+        // Arrange
+        String folderId = "mockFolderId";
+        String accessToken = "mockAccessToken";
+        byte[] mockZipContent = "0123456789".getBytes();
+        FolderArchive archive = folderArchive(folderId, ZipCompressionPolicy.DEFAULT, mockZipContent.length);
+        when(googleDriveService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP, ZipCompressionPolicy.DEFAULT))
+                .thenReturn(archive);
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(2).write(mockZipContent);
+            return null;
+        }).when(googleDriveService).writeFolderArchiveToStream(eq(accessToken), eq(archive), any(OutputStream.class));
+
+        // Act & Assert
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/folder")
+                        .param("folderId", folderId)
+                        .param("accessToken", accessToken)
+                        .header("Range", "bytes=4-")
+                        .header("If-Range", "\"previousFingerprint\""))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(mockZipContent))
+                .andExpect(header().longValue("Content-Length", mockZipContent.length));
+    }
+
+    @Test
+    void testDownloadFolderRejectsUnsupportedCompressionLevel() throws Exception {
+        // Act & Assert
+        mockMvc.perform(get("/api/drive/download/folder")
+                        .param("folderId", "mockFolderId")
+                        .param("compressionLevel", "12")
+                        .param("accessToken", "mockAccessToken"))
+                .andExpect(status().isBadRequest());
+        verify(googleDriveService, never()).prepareFolderArchive(anyString(), anyString(), any(ArchiveFormat.class),
+                any(ZipCompressionPolicy.class));
+    }
+
+    @Test
+    void testDownloadFolderAsTarZst() throws Exception {
+        // Arrange
+        String folderId = "mockFolderId";
+        String accessToken = "mockAccessToken";
+        byte[] mockTarContent = "Tarred folder content".getBytes();
+        FolderArchive archive = folderArchive(folderId, ArchiveFormat.TAR_ZST, ZipCompressionPolicy.DEFAULT, -1);
+        when(googleDriveService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.TAR_ZST, ZipCompressionPolicy.DEFAULT))
+                .thenReturn(archive);
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(2).write(mockTarContent);
+            return null;
+        }).when(googleDriveService).writeFolderArchiveToStream(eq(accessToken), eq(archive), any(OutputStream.class));
+
+        // Act & Assert
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/folder")
+                        .param("folderId", folderId)
+                        .param("format", "tar.zst")
+                        .param("accessToken", accessToken)
+                        .header("Accept", "application/zip"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(mockTarContent))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"folder.tar.zst\""))
+                .andExpect(header().string("Content-Type", "application/zstd"));
+    }
+
+    @Test
+    void testDownloadFolderNegotiatesFormatFromAccept() throws Exception {
+        // Arrange
+        String folderId = "mockFolderId";
+        String accessToken = "mockAccessToken";
+        when(googleDriveService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.TAR_GZ, ZipCompressionPolicy.DEFAULT))
+                .thenReturn(folderArchive(folderId, ArchiveFormat.TAR_GZ, ZipCompressionPolicy.DEFAULT, -1));
+
+        // Act & Assert
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/folder")
+                        .param("folderId", folderId)
+                        .param("accessToken", accessToken)
+                        .header("Accept", "text/html, application/gzip;q=0.9, */*;q=0.8"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"folder.tar.gz\""))
+                .andExpect(header().string("Content-Type", "application/gzip"))
+                .andExpect(header().string("Vary", "Accept"));
+    }
+
+    @Test
+    void testDownloadFolderNegotiatesFormatByQuality() throws Exception {
+        // Arrange
+        String folderId = "mockFolderId";
+        String accessToken = "mockAccessToken";
+        when(googleDriveService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.TAR_ZST, ZipCompressionPolicy.DEFAULT))
+                .thenReturn(folderArchive(folderId, ArchiveFormat.TAR_ZST, ZipCompressionPolicy.DEFAULT, -1));
+
+        // Act & Assert
+        // The most preferred archive type wins, whatever order they are listed in
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/folder")
+                        .param("folderId", folderId)
+                        .param("accessToken", accessToken)
+                        .header("Accept", "application/zip;q=0.1, application/x-tar;q=0.5, application/zstd;q=0.8"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"folder.tar.zst\""));
+    }
+
+    @Test
+    void testDownloadFolderSkipsRefusedZip() throws Exception {
+        // Arrange
+        String folderId = "mockFolderId";
+        String accessToken = "mockAccessToken";
+        when(googleDriveService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.TAR, ZipCompressionPolicy.DEFAULT))
+                .thenReturn(folderArchive(folderId, ArchiveFormat.TAR, ZipCompressionPolicy.DEFAULT, -1));
+
+        // Act & Assert
+        // q=0 refuses zip, so */* gets the next format
+        MvcResult mvcResult = mockMvc.perform(get("/api/drive/download/folder")
+                        .param("folderId", folderId)
+                        .param("accessToken", accessToken)
+                        .header("Accept", "application/zip;q=0, */*"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"folder.tar\""));
+    }
+
+    @Test
+    void testDownloadFolderRejectsUnsupportedFormat() throws Exception {
+        // Act & Assert
+        mockMvc.perform(get("/api/drive/download/folder")
+                        .param("folderId", "mockFolderId")
+                        .param("format", "rar")
+                        .param("accessToken", "mockAccessToken"))
+                .andExpect(status().isBadRequest());
+        verify(googleDriveService, never()).prepareFolderArchive(anyString(), anyString(), any(ArchiveFormat.class),
+                any(ZipCompressionPolicy.class));
     }
 
     @Test
@@ -147,4 +814,13 @@ public class GoogleDriveControllerIntegrationTest {
                         .param("accessToken", accessToken))
                 .andExpect(status().isOk());
     }
+
+    private static FolderArchive folderArchive(String folderId, ZipCompressionPolicy compressionPolicy, long cachedSize) {
+        return folderArchive(folderId, ArchiveFormat.ZIP, compressionPolicy, cachedSize);
+    }
+
+    private static FolderArchive folderArchive(String folderId, ArchiveFormat format, ZipCompressionPolicy compressionPolicy,
+                                               long cachedSize) {
+        return new FolderArchive(folderId, "mockFingerprint", format, compressionPolicy, List.of(), cachedSize);
+    }
 }
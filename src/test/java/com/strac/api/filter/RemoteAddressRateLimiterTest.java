@@ -0,0 +1,55 @@
+package com.strac.api.filter;
+
+import org.junit.jupiter.api.Test;
+import org.strac.api.filter.RemoteAddressRateLimiter;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RemoteAddressRateLimiterTest {
+
+    @Test
+    void testClientIsLimitedAfterBurst() {
+        // Arrange
+        MutableClock clock = new MutableClock(Instant.parse("2024-01-01T00:00:00Z"));
+        RemoteAddressRateLimiter rateLimiter = new RemoteAddressRateLimiter(3, 1, 100, clock);
+
+        // Act & Assert
+        assertTrue(rateLimiter.tryAcquire("10.0.0.1"));
+        assertTrue(rateLimiter.tryAcquire("10.0.0.1"));
+        assertTrue(rateLimiter.tryAcquire("10.0.0.1"));
+        assertFalse(rateLimiter.tryAcquire("10.0.0.1"), "Bucket should be empty after the burst");
+        assertTrue(rateLimiter.tryAcquire("10.0.0.2"), "Other clients have their own bucket");
+
+        clock.instant = clock.instant.plusSeconds(1);
+        assertTrue(rateLimiter.tryAcquire("10.0.0.1"), "Bucket should refill over time");
+        assertFalse(rateLimiter.tryAcquire("10.0.0.1"));
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.strac.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.strac.cache.DiskLruContentCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DiskLruContentCacheTest {
+
+    @TempDir
+    Path cacheDirectory;
+
+    @Test
+    void testFillThenServe() throws IOException {
+        // Arrange
+        DiskLruContentCache cache = new DiskLruContentCache(cacheDirectory, 1024);
+        ByteArrayOutputStream firstResponse = new ByteArrayOutputStream();
+        ByteArrayOutputStream secondResponse = new ByteArrayOutputStream();
+
+        // Act
+        boolean servedBeforeFill = cache.serve("file:md5", firstResponse);
+        cache.fill("file:md5", outputStream -> outputStream.write("content".getBytes()), firstResponse);
+        boolean servedAfterFill = cache.serve("file:md5", secondResponse);
+
+        // Assert
+        assertFalse(servedBeforeFill);
+        assertTrue(servedAfterFill);
+        assertEquals("content", firstResponse.toString());
+        assertEquals("content", secondResponse.toString());
+        assertEquals(7, cache.totalBytes());
+    }
+
+    @Test
+    void testServeRange() throws IOException {
+        // Arrange
+        DiskLruContentCache cache = new DiskLruContentCache(cacheDirectory, 1024);
+        cache.fill("zip", outputStream -> outputStream.write("0123456789".getBytes()), new ByteArrayOutputStream());
+        ByteArrayOutputStream middle = new ByteArrayOutputStream();
+        ByteArrayOutputStream pastEnd = new ByteArrayOutputStream();
+
+        // Act
+        boolean servedMiddle = cache.serveRange("zip", 2, 5, middle);
+        boolean servedPastEnd = cache.serveRange("zip", 8, 20, pastEnd);
+        boolean servedMissing = cache.serveRange("missing", 0, 1, new ByteArrayOutputStream());
+
+        // Assert
+        assertTrue(servedMiddle);
+        assertTrue(servedPastEnd);
+        assertFalse(servedMissing);
+        assertEquals("2345", middle.toString());
+        assertEquals("89", pastEnd.toString());
+        assertEquals(10, cache.length("zip"));
+        assertEquals(-1, cache.length("missing"));
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntriesAreEvicted() throws IOException {
+        // Arrange
+        DiskLruContentCache cache = new DiskLruContentCache(cacheDirectory, 10);
+        cache.fill("a", outputStream -> outputStream.write("aaaa".getBytes()), new ByteArrayOutputStream());
+        cache.fill("b", outputStream -> outputStream.write("bbbb".getBytes()), new ByteArrayOutputStream());
+        cache.serve("a", new ByteArrayOutputStream());
+
+        // Act
+        cache.fill("c", outputStream -> outputStream.write("cccc".getBytes()), new ByteArrayOutputStream());
+
+        // Assert
+        assertTrue(cache.serve("a", new ByteArrayOutputStream()));
+        assertFalse(cache.serve("b", new ByteArrayOutputStream()));
+        assertTrue(cache.serve("c", new ByteArrayOutputStream()));
+        assertEquals(8, cache.totalBytes());
+        try (var files = Files.list(cacheDirectory)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    void testFailedFillIsNotCached() throws IOException {
+        // Arrange
+        DiskLruContentCache cache = new DiskLruContentCache(cacheDirectory, 1024);
+
+        // Act
+        assertThrows(IOException.class, () -> cache.fill("file:md5", outputStream -> {
+            outputStream.write("partial".getBytes());
+            throw new IOException("Connection reset");
+        }, new ByteArrayOutputStream()));
+
+        // Assert
+        assertFalse(cache.serve("file:md5", new ByteArrayOutputStream()));
+        try (var files = Files.list(cacheDirectory)) {
+            assertEquals(0, files.count(), "The temp file should be removed");
+        }
+    }
+
+    @Test
+    void testConcurrentFillsOfSameKeyWriteOnce() throws Exception {
+        // Arrange
+        DiskLruContentCache cache = new DiskLruContentCache(cacheDirectory, 1024);
+        CountDownLatch firstFillStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstFill = new CountDownLatch(1);
+        AtomicInteger writes = new AtomicInteger();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<?> firstFill = executor.submit(() -> {
+                cache.fill("file:md5", outputStream -> {
+                    firstFillStarted.countDown();
+                    awaitQuietly(releaseFirstFill);
+                    writes.incrementAndGet();
+                    outputStream.write("content".getBytes());
+                }, new ByteArrayOutputStream());
+                return null;
+            });
+            assertTrue(firstFillStarted.await(5, TimeUnit.SECONDS));
+
+            // Act
+            ByteArrayOutputStream secondResponse = new ByteArrayOutputStream();
+            cache.fill("file:md5", outputStream -> outputStream.write("content".getBytes()), secondResponse);
+            releaseFirstFill.countDown();
+            firstFill.get(5, TimeUnit.SECONDS);
+
+            // Assert
+            assertEquals("content", secondResponse.toString());
+            assertEquals(1, writes.get());
+            assertEquals(1, cache.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testEntriesSurviveRestart() throws IOException {
+        // Arrange
+        DiskLruContentCache cache = new DiskLruContentCache(cacheDirectory, 1024);
+        cache.fill("file:md5", outputStream -> outputStream.write("content".getBytes()), new ByteArrayOutputStream());
+        Files.createFile(cacheDirectory.resolve("leftover.tmp"));
+
+        // Act
+        DiskLruContentCache reopened = new DiskLruContentCache(cacheDirectory, 1024);
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+        // Assert
+        assertTrue(reopened.serve("file:md5", response));
+        assertEquals("content", response.toString());
+        assertFalse(Files.exists(cacheDirectory.resolve("leftover.tmp")));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) throws IOException {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.strac.cache;
+
+import org.junit.jupiter.api.Test;
+import org.strac.cache.ExpiringLruCache;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExpiringLruCacheTest {
+
+    @Test
+    void testEntryExpires() {
+        // Arrange
+        Instant now = Instant.parse("2024-01-01T00:00:00Z");
+        MutableClock clock = new MutableClock(now);
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(10, clock);
+        cache.put("key", "value", now.plusSeconds(60));
+
+        // Act & Assert
+        assertEquals("value", cache.get("key"));
+        clock.instant = now.plusSeconds(60);
+        assertNull(cache.get("key"), "Entry should expire at its expiry instant");
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntryIsEvicted() {
+        // Arrange
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(2);
+        Instant expiresAt = Instant.now().plusSeconds(60);
+        cache.put("a", "1", expiresAt);
+        cache.put("b", "2", expiresAt);
+
+        // Act
+        cache.get("a"); // "b" is now the least recently used entry
+        cache.put("c", "3", expiresAt);
+
+        // Assert
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+        assertEquals(2, cache.size());
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(java.time.ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.strac.dao;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.drive.model.File;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.strac.cache.DiskLruContentCache;
+import org.strac.dao.CachingGoogleDriveDao;
+import org.strac.dao.GoogleDriveDao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CachingGoogleDriveDaoTest {
+
+    @TempDir
+    Path cacheDirectory;
+
+    @Mock
+    private GoogleDriveDao delegate;
+
+    @Mock
+    private Credential credential;
+
+    @Mock
+    private Credential otherCredential;
+
+    @Test
+    void testBinaryContentIsServedFromCacheAfterAccessCheck() throws IOException {
+        // Arrange
+        CachingGoogleDriveDao cachingDao = new CachingGoogleDriveDao(delegate, new DiskLruContentCache(cacheDirectory, 1024));
+        File metadata = new File().setId("fileId").setMimeType("video/mp4").setMd5Checksum("abc");
+        when(delegate.getFileMetadata(any(Credential.class), eq("fileId"))).thenReturn(metadata);
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(2).write("video".getBytes());
+            return null;
+        }).when(delegate).downloadFileContentToStream(eq(credential), eq(metadata), any(OutputStream.class));
+        ByteArrayOutputStream firstResponse = new ByteArrayOutputStream();
+        ByteArrayOutputStream secondResponse = new ByteArrayOutputStream();
+
+        // Act
+        cachingDao.downloadFileToStream(credential, "fileId", firstResponse);
+        cachingDao.downloadFileToStream(otherCredential, "fileId", secondResponse);
+
+        // Assert
+        assertEquals("video", firstResponse.toString());
+        assertEquals("video", secondResponse.toString());
+        verify(delegate, times(1)).downloadFileContentToStream(any(), any(), any());
+        // Every download still checks access with the caller's own credential
+        verify(delegate).getFileMetadata(credential, "fileId");
+        verify(delegate).getFileMetadata(otherCredential, "fileId");
+    }
+
+    @Test
+    void testDeniedAccessIsNotServedFromCache() throws IOException {
+        // Arrange
+        CachingGoogleDriveDao cachingDao = new CachingGoogleDriveDao(delegate, new DiskLruContentCache(cacheDirectory, 1024));
+        File metadata = new File().setId("fileId").setMimeType("video/mp4").setMd5Checksum("abc");
+        when(delegate.getFileMetadata(credential, "fileId")).thenReturn(metadata);
+        when(delegate.getFileMetadata(otherCredential, "fileId"))
+                .thenThrow(new RuntimeException("Error fetching file metadata from Google Drive"));
+        cachingDao.downloadFileToStream(credential, "fileId", new ByteArrayOutputStream());
+
+        // Act & Assert
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        assertThrows(RuntimeException.class, () -> cachingDao.downloadFileToStream(otherCredential, "fileId", response));
+        assertEquals(0, response.size());
+    }
+
+    @Test
+    void testBinaryFilesWithoutChecksumAreCachedByVersion() throws IOException {
+        // Arrange
+        DiskLruContentCache contentCache = new DiskLruContentCache(cacheDirectory, 1024);
+        CachingGoogleDriveDao cachingDao = new CachingGoogleDriveDao(delegate, contentCache);
+        File metadata = new File().setId("fileId").setMimeType("video/mp4").setVersion(3L);
+        File newerMetadata = new File().setId("fileId").setMimeType("video/mp4").setVersion(4L);
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(2).write(("video@" + invocation.<File>getArgument(1).getVersion()).getBytes());
+            return null;
+        }).when(delegate).downloadFileContentToStream(eq(credential), any(File.class), any(OutputStream.class));
+        ByteArrayOutputStream cachedResponse = new ByteArrayOutputStream();
+        ByteArrayOutputStream newerResponse = new ByteArrayOutputStream();
+
+        // Act
+        cachingDao.downloadFileContentToStream(credential, metadata, new ByteArrayOutputStream());
+        cachingDao.downloadFileContentToStream(credential, metadata, cachedResponse);
+        cachingDao.downloadFileContentToStream(credential, newerMetadata, newerResponse);
+
+        // Assert
+        verify(delegate, times(1)).downloadFileContentToStream(eq(credential), eq(metadata), any(OutputStream.class));
+        verify(delegate, times(1)).downloadFileContentToStream(eq(credential), eq(newerMetadata), any(OutputStream.class));
+        assertEquals("video@3", cachedResponse.toString());
+        assertEquals("video@4", newerResponse.toString());
+        assertEquals(1, contentCache.size());
+    }
+
+    @Test
+    void testBinaryFilesWithoutChecksumOrVersionBypassCache() throws IOException {
+        // Arrange
+        DiskLruContentCache contentCache = new DiskLruContentCache(cacheDirectory, 1024);
+        CachingGoogleDriveDao cachingDao = new CachingGoogleDriveDao(delegate, contentCache);
+        File metadata = new File().setId("fileId").setMimeType("video/mp4");
+
+        // Act
+        cachingDao.downloadFileContentToStream(credential, metadata, new ByteArrayOutputStream());
+        cachingDao.downloadFileContentToStream(credential, metadata, new ByteArrayOutputStream());
+
+        // Assert
+        verify(delegate, times(2)).downloadFileContentToStream(eq(credential), eq(metadata), any(OutputStream.class));
+        assertEquals(0, contentCache.size());
+    }
+
+    @Test
+    void testWorkspaceFilesWithoutModifiedTimeBypassCache() throws IOException {
+        // Arrange
+        DiskLruContentCache contentCache = new DiskLruContentCache(cacheDirectory, 1024);
+        CachingGoogleDriveDao cachingDao = new CachingGoogleDriveDao(delegate, contentCache);
+        File metadata = new File().setId("docId").setMimeType("application/vnd.google-apps.document");
+
+        // Act
+        cachingDao.downloadFileContentToStream(credential, metadata, new ByteArrayOutputStream());
+        cachingDao.downloadFileContentToStream(credential, metadata, new ByteArrayOutputStream());
+
+        // Assert
+        verify(delegate, times(2)).exportFileToStream(eq(credential), eq(metadata), eq("application/pdf"), any(OutputStream.class));
+        assertEquals(0, contentCache.size());
+    }
+
+    @Test
+    void testExportsAreCachedPerFormatUntilModified() throws IOException {
+        // Arrange
+        DiskLruContentCache contentCache = new DiskLruContentCache(cacheDirectory, 1024);
+        CachingGoogleDriveDao cachingDao = new CachingGoogleDriveDao(delegate, contentCache);
+        File metadata = new File().setId("docId").setMimeType("application/vnd.google-apps.document")
+                .setModifiedTime(new DateTime("2024-01-01T10:00:00Z"));
+        File modifiedMetadata = new File().setId("docId").setMimeType("application/vnd.google-apps.document")
+                .setModifiedTime(new DateTime("2024-01-02T10:00:00Z"));
+        doAnswer(invocation -> {
+            File exported = invocation.getArgument(1);
+            String exportMimeType = invocation.getArgument(2);
+            invocation.<OutputStream>getArgument(3).write((exportMimeType + "@" + exported.getModifiedTime()).getBytes());
+            return null;
+        }).when(delegate).exportFileToStream(eq(credential), any(File.class), any(String.class), any(OutputStream.class));
+        ByteArrayOutputStream modifiedResponse = new ByteArrayOutputStream();
+
+        // Act
+        cachingDao.downloadFileContentToStream(credential, metadata, new ByteArrayOutputStream());
+        cachingDao.downloadFileContentToStream(credential, metadata, new ByteArrayOutputStream());
+        cachingDao.exportFileToStream(credential, metadata, "text/plain", new ByteArrayOutputStream());
+        cachingDao.exportFileToStream(credential, metadata, "text/plain", new ByteArrayOutputStream());
+        cachingDao.downloadFileContentToStream(credential, modifiedMetadata, modifiedResponse);
+
+        // Assert
+        verify(delegate, times(1)).exportFileToStream(eq(credential), eq(metadata), eq("application/pdf"), any(OutputStream.class));
+        verify(delegate, times(1)).exportFileToStream(eq(credential), eq(metadata), eq("text/plain"), any(OutputStream.class));
+        verify(delegate, times(1)).exportFileToStream(eq(credential), eq(modifiedMetadata), eq("application/pdf"), any(OutputStream.class));
+        assertEquals("application/pdf@2024-01-02T10:00:00.000Z", modifiedResponse.toString());
+        // The PDF of the old revision was dropped, the plain text export is kept until it is asked for again
+        assertEquals(2, contentCache.size());
+    }
+}
@@ -0,0 +1,323 @@
+package com.strac.dao;
+
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.drive.model.File;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.strac.dao.GoogleDriveDaoImpl;
+import org.strac.dao.metrics.UpstreamMetrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GoogleDriveDaoTest {
+
+    @Test
+    void testListChildrenOfFoldersBatchesAndGroupsByParent() {
+        // Arrange
+        List<String> queries = new ArrayList<>();
+        List<String> pageTokens = new ArrayList<>();
+        MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() throws IOException {
+                        // Long GET URLs are sent as a POST with the parameters in the body
+                        GenericUrl parameters = new GenericUrl(getContentAsString().isEmpty()
+                                ? url
+                                : "https://www.googleapis.com/?" + getContentAsString());
+                        String query = (String) parameters.getFirst("q");
+                        String pageToken = (String) parameters.getFirst("pageToken");
+                        queries.add(query);
+                        pageTokens.add(pageToken);
+                        return new MockLowLevelHttpResponse()
+                                .setContentType("application/json")
+                                .setContent(listResponse(query, pageToken));
+                    }
+                };
+            }
+        };
+        Credential credential = new Credential.Builder(BearerToken.authorizationHeaderAccessMethod())
+                .setTransport(transport)
+                .setJsonFactory(GsonFactory.getDefaultInstance())
+                .build()
+                .setAccessToken("accessToken");
+        GoogleDriveDaoImpl googleDriveDao = new GoogleDriveDaoImpl(new UpstreamMetrics(new SimpleMeterRegistry()));
+        List<String> parentIds = new ArrayList<>(List.of("root"));
+        parentIds.addAll(IntStream.range(0, 100).mapToObj(i -> "folder" + i).toList());
+
+        // Act
+        Map<String, List<File>> childrenByParent = googleDriveDao.listChildrenOfFolders(credential, parentIds);
+
+        // Assert
+        assertEquals(parentIds, new ArrayList<>(childrenByParent.keySet()));
+        assertEquals(List.of("r1"), ids(childrenByParent.get("root")));
+        assertEquals(List.of("c2", "c3"), ids(childrenByParent.get("folder0")));
+        assertEquals(List.of("c1", "c2"), ids(childrenByParent.get("folder1")));
+        assertEquals(List.of("c4"), ids(childrenByParent.get("folder99")));
+        assertTrue(childrenByParent.get("folder50").isEmpty());
+
+        // The root alias is listed alone, the other folders in two OR-combined queries, the first spanning two pages
+        assertEquals(4, queries.size());
+        assertEquals(Arrays.asList(null, null, "next", null), pageTokens);
+        assertTrue(queries.subList(1, 4).stream().allMatch(query -> query.length() <= 2100 && query.endsWith(") and trashed = false")));
+        assertEquals(100, queries.stream().skip(1).distinct()
+                .mapToLong(query -> query.split(" or ").length).sum());
+    }
+
+    @Test
+    void testMediaDownloadStopsOnceThreadIsInterrupted() {
+        // Arrange
+        AtomicInteger chunksRead = new AtomicInteger();
+        AtomicBoolean disconnected = new AtomicBoolean();
+        // An endless file, whose reader is interrupted after a few chunks, as a cancelled prefetch would be
+        InputStream endlessContent = new InputStream() {
+            @Override
+            public int read() {
+                return 0;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                if (chunksRead.incrementAndGet() == 3) {
+                    Thread.currentThread().interrupt();
+                }
+                return length;
+            }
+        };
+        GoogleDriveDaoImpl googleDriveDao = new GoogleDriveDaoImpl(new UpstreamMetrics(new SimpleMeterRegistry()));
+        Credential credential = credential(new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() {
+                        return new MockLowLevelHttpResponse() {
+                            @Override
+                            public void disconnect() {
+                                disconnected.set(true);
+                            }
+                        }.setContent(endlessContent);
+                    }
+                };
+            }
+        });
+        File fileMetadata = new File().setId("fileId").setMimeType("video/mp4");
+
+        // Act
+        RuntimeException exception;
+        try {
+            exception = assertThrows(RuntimeException.class,
+                    () -> googleDriveDao.downloadFileContentToStream(credential, fileMetadata, OutputStream.nullOutputStream()));
+        } finally {
+            Thread.interrupted();
+        }
+
+        // Assert
+        assertInstanceOf(InterruptedIOException.class, exception.getCause());
+        assertEquals(3, chunksRead.get());
+        assertTrue(disconnected.get());
+    }
+
+    @Test
+    void testCancelledMediaDownloadReadsLittleMore() {
+        // Arrange
+        long fileSize = 256L * 1024 * 1024;
+        AtomicLong bytesRead = new AtomicLong();
+        AtomicInteger requests = new AtomicInteger();
+        GoogleDriveDaoImpl googleDriveDao = new GoogleDriveDaoImpl(new UpstreamMetrics(new SimpleMeterRegistry()));
+        Credential credential = credential(new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() {
+                        requests.incrementAndGet();
+                        String[] range = getFirstHeaderValue("Range").substring("bytes=".length()).split("-");
+                        long first = Long.parseLong(range[0]);
+                        long last = Math.min(Long.parseLong(range[1]), fileSize - 1);
+                        return new MockLowLevelHttpResponse()
+                                .setStatusCode(206)
+                                .addHeader("Content-Range", "bytes " + first + "-" + last + "/" + fileSize)
+                                .setContent(responseBody(last - first + 1, bytesRead));
+                    }
+                };
+            }
+        });
+        // The client goes away as soon as the first bytes reach it
+        OutputStream clientStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                Thread.currentThread().interrupt();
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        File fileMetadata = new File().setId("fileId").setMimeType("video/mp4");
+
+        // Act
+        try {
+            assertThrows(RuntimeException.class,
+                    () -> googleDriveDao.downloadFileContentToStream(credential, fileMetadata, clientStream));
+        } finally {
+            Thread.interrupted();
+        }
+
+        // Assert
+        // Closing the response reads the rest of the request, which is only one small chunk of the file
+        assertEquals(1, requests.get());
+        assertTrue(bytesRead.get() <= 4 * 1024 * 1024, "read " + bytesRead.get() + " bytes after the cancel");
+    }
+
+    @Test
+    void testInterruptedThreadSendsNoMediaRequest() {
+        // Arrange
+        AtomicInteger requests = new AtomicInteger();
+        GoogleDriveDaoImpl googleDriveDao = new GoogleDriveDaoImpl(new UpstreamMetrics(new SimpleMeterRegistry()));
+        Credential credential = credential(new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                requests.incrementAndGet();
+                return new MockLowLevelHttpRequest(url);
+            }
+        });
+
+        // Act
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(RuntimeException.class, () -> googleDriveDao.downloadFileRangeToStream(credential, "fileId", 0, 99,
+                    OutputStream.nullOutputStream()));
+        } finally {
+            Thread.interrupted();
+        }
+
+        // Assert
+        assertEquals(0, requests.get());
+    }
+
+    @Test
+    void testUploadFileStreamsContentToDrive() {
+        // Arrange
+        List<String> requests = new ArrayList<>();
+        List<String> uploadedContents = new ArrayList<>();
+        GoogleDriveDaoImpl googleDriveDao = new GoogleDriveDaoImpl(new UpstreamMetrics(new SimpleMeterRegistry()));
+        Credential credential = credential(new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                requests.add(method + " " + url);
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() throws IOException {
+                        if (url.contains("uploadType=resumable")) {
+                            // Starts the upload session
+                            return new MockLowLevelHttpResponse().addHeader("Location", "https://upload.example.com/session");
+                        }
+                        uploadedContents.add(getContentAsString());
+                        return new MockLowLevelHttpResponse()
+                                .setContentType("application/json")
+                                .setContent("{\"id\": \"newId\", \"name\": \"notes.txt\"}");
+                    }
+                };
+            }
+        });
+        byte[] content = "Hello, World!".getBytes();
+
+        // Act
+        File uploadedFile = googleDriveDao.uploadFile(credential, "notes.txt", "text/plain", content.length,
+                new ByteArrayInputStream(content), "folderId");
+
+        // Assert
+        assertEquals("newId", uploadedFile.getId());
+        assertEquals(2, requests.size());
+        assertEquals(List.of("Hello, World!"), uploadedContents);
+    }
+
+    /**
+     * A response body that, like Apache HttpClient's, reads whatever is left of it when closed, so the connection can
+     * be reused.
+     */
+    private static InputStream responseBody(long length, AtomicLong bytesRead) {
+        return new InputStream() {
+            private long remaining = length;
+
+            @Override
+            public int read() {
+                byte[] buffer = new byte[1];
+                return read(buffer, 0, 1) < 0 ? -1 : buffer[0];
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) {
+                if (remaining == 0) {
+                    return -1;
+                }
+                int read = (int) Math.min(count, remaining);
+                remaining -= read;
+                bytesRead.addAndGet(read);
+                return read;
+            }
+
+            @Override
+            public void close() {
+                byte[] buffer = new byte[64 * 1024];
+                while (read(buffer, 0, buffer.length) >= 0) {
+                    // Drained
+                }
+            }
+        };
+    }
+
+    private static Credential credential(MockHttpTransport transport) {
+        return new Credential.Builder(BearerToken.authorizationHeaderAccessMethod())
+                .setTransport(transport)
+                .setJsonFactory(GsonFactory.getDefaultInstance())
+                .build()
+                .setAccessToken("accessToken");
+    }
+
+    private static String listResponse(String query, String pageToken) {
+        if (query.startsWith("'root' in parents")) {
+            return "{\"files\": [{\"id\": \"r1\", \"name\": \"top.txt\", \"parents\": [\"0AAbc\"]}]}";
+        }
+        if (query.contains("'folder0' in parents") && pageToken == null) {
+            // Children of several folders come back mixed, over two pages
+            return "{\"nextPageToken\": \"next\", \"files\": ["
+                    + "{\"id\": \"c1\", \"name\": \"a.txt\", \"parents\": [\"folder1\"]},"
+                    + "{\"id\": \"c2\", \"name\": \"b.txt\", \"parents\": [\"folder0\", \"folder1\"]}]}";
+        }
+        if (query.contains("'folder0' in parents")) {
+            return "{\"files\": [{\"id\": \"c3\", \"name\": \"c.txt\", \"parents\": [\"folder0\"]}]}";
+        }
+        return "{\"files\": [{\"id\": \"c4\", \"name\": \"d.txt\", \"parents\": [\"folder99\"]}]}";
+    }
+
+    private static List<String> ids(List<File> files) {
+        return files.stream().map(File::getId).collect(Collectors.toList());
+    }
+}
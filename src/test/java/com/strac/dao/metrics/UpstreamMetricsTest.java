@@ -0,0 +1,49 @@
+package com.strac.dao.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.strac.dao.metrics.UpstreamMetrics;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UpstreamMetricsTest {
+
+    @Test
+    void testCallsAreTimedByOutcome() throws IOException {
+        // Arrange
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        UpstreamMetrics upstreamMetrics = new UpstreamMetrics(meterRegistry);
+
+        // Act
+        String result = upstreamMetrics.record("drive", "list", () -> "files");
+        assertThrows(IOException.class, () -> upstreamMetrics.record("drive", "list", () -> {
+            throw new IOException("Drive unavailable");
+        }));
+
+        // Assert
+        assertEquals("files", result);
+        assertEquals(1, meterRegistry.get("strac.upstream.requests")
+                .tags("upstream", "drive", "operation", "list", "outcome", "success").timer().count());
+        assertEquals(1, meterRegistry.get("strac.upstream.requests")
+                .tags("upstream", "drive", "operation", "list", "outcome", "error").timer().count());
+        assertEquals(1, meterRegistry.get("strac.upstream.errors")
+                .tags("exception", "IOException").counter().count());
+    }
+
+    @Test
+    void testBytesAreRecorded() {
+        // Arrange
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        UpstreamMetrics upstreamMetrics = new UpstreamMetrics(meterRegistry);
+
+        // Act
+        upstreamMetrics.recordBytes("drive", "media", 1024);
+        upstreamMetrics.recordBytes("drive", "media", 2048);
+
+        // Assert
+        assertEquals(3072, meterRegistry.get("strac.upstream.bytes")
+                .tags("upstream", "drive", "operation", "media").summary().totalAmount());
+    }
+}
@@ -0,0 +1,34 @@
+package com.strac.service.config;
+
+import org.junit.jupiter.api.Test;
+import org.strac.service.config.StracExamServiceConfig;
+import org.strac.service.token.SessionTokenService;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StracExamServiceConfigTest {
+
+    private final StracExamServiceConfig config = new StracExamServiceConfig();
+
+    @Test
+    void testSessionTokenAuthRequiresSecret() {
+        // Act & Assert
+        assertThrows(IllegalStateException.class, () -> config.sessionTokenService(true, "", 15));
+    }
+
+    @Test
+    void testInstancesSharingSecretAcceptEachOthersSessionTokens() {
+        // Arrange
+        String secret = Base64.getEncoder().encodeToString("a shared secret of any length".getBytes());
+        SessionTokenService issuer = config.sessionTokenService(true, secret, 15);
+        SessionTokenService verifier = config.sessionTokenService(true, secret, 15);
+
+        // Act
+        String sessionToken = issuer.issueSessionToken("mockAccessToken", "subject", null);
+
+        // Assert
+        assertEquals("mockAccessToken", verifier.verifySessionToken(sessionToken));
+    }
+}
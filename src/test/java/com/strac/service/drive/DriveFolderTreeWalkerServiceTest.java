@@ -0,0 +1,170 @@
+package com.strac.service.drive;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.services.drive.model.File;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.strac.dao.GoogleDriveDao;
+import org.strac.model.DriveTreeEntry;
+import org.strac.service.drive.DriveFolderTreeWalkerServiceImpl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class DriveFolderTreeWalkerServiceTest {
+    private static final String FOLDER_MIME_TYPE = "application/vnd.google-apps.folder";
+
+    @Mock
+    private GoogleDriveDao googleDriveDao;
+
+    @Mock
+    private Credential credential;
+
+    @Test
+    void testWalkIsBreadthFirstAndBatchesFolders() throws IOException {
+        // Arrange
+        DriveFolderTreeWalkerServiceImpl walker = new DriveFolderTreeWalkerServiceImpl(googleDriveDao);
+        Map<String, List<File>> tree = Map.of(
+                "root", List.of(folder("a", "A"), file("f1", "one.txt"), folder("b", "B")),
+                "a", List.of(folder("c", "C")),
+                "b", List.of(file("f2", "two.txt")),
+                "c", List.of(file("f3", "three.txt")));
+        List<Collection<String>> batches = stubTree(tree);
+
+        // Act
+        List<String> paths = new ArrayList<>();
+        walker.walk(credential, null, entry -> paths.add(entry.getPath()));
+
+        // Assert
+        assertEquals(List.of("A", "one.txt", "B", "A/C", "B/two.txt", "A/C/three.txt"), paths);
+        // Each level of the tree is listed in one batch
+        assertEquals(List.of(List.of("root"), List.of("a", "b"), List.of("c")), batches);
+    }
+
+    @Test
+    void testWalkListsSharedFolderOnce() throws IOException {
+        // Arrange
+        DriveFolderTreeWalkerServiceImpl walker = new DriveFolderTreeWalkerServiceImpl(googleDriveDao);
+        List<Collection<String>> batches = stubTree(Map.of(
+                "top", List.of(folder("a", "A"), folder("b", "B")),
+                "a", List.of(folder("shared", "Shared")),
+                "b", List.of(folder("shared", "Shared")),
+                "shared", List.of(file("f1", "one.txt"))));
+
+        // Act
+        List<String> paths = new ArrayList<>();
+        walker.walk(credential, "top", entry -> paths.add(entry.getPath()));
+
+        // Assert
+        assertEquals(List.of("A", "B", "A/Shared", "A/Shared/one.txt"), paths);
+        assertEquals(List.of(List.of("top"), List.of("a", "b"), List.of("shared")), batches);
+    }
+
+    @Test
+    void testWalkSplitsWideLevelsAcrossParallelBatches() throws Exception {
+        // Arrange
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        DriveFolderTreeWalkerServiceImpl walker = new DriveFolderTreeWalkerServiceImpl(googleDriveDao, executor, 4, 50);
+        List<File> topLevel = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            topLevel.add(folder("folder" + i, "Folder" + i));
+        }
+        when(googleDriveDao.listChildrenOfFolders(eq(credential), eq(List.of("top")))).thenReturn(Map.of("top", topLevel));
+        // Each batch only returns once all four are in flight at the same time
+        CountDownLatch allListing = new CountDownLatch(4);
+        when(googleDriveDao.listChildrenOfFolders(eq(credential), argThat(ids -> !ids.contains("top")))).thenAnswer(invocation -> {
+            Collection<String> folderIds = invocation.getArgument(1);
+            assertEquals(2, folderIds.size());
+            allListing.countDown();
+            assertTrue(allListing.await(5, TimeUnit.SECONDS), "Batches should be listed in parallel");
+            Map<String, List<File>> children = new LinkedHashMap<>();
+            folderIds.forEach(folderId -> children.put(folderId, List.of(file("file-" + folderId, folderId + ".txt"))));
+            return children;
+        });
+
+        // Act
+        List<DriveTreeEntry> entries = new ArrayList<>();
+        try {
+            walker.walk(credential, "top", entries::add);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Assert
+        assertEquals(16, entries.size());
+        assertTrue(entries.stream().anyMatch(entry -> entry.getPath().equals("Folder5/folder5.txt")));
+    }
+
+    @Test
+    void testWalkStopsWhenListingFails() {
+        // Arrange
+        DriveFolderTreeWalkerServiceImpl walker = new DriveFolderTreeWalkerServiceImpl(googleDriveDao);
+        when(googleDriveDao.listChildrenOfFolders(eq(credential), anyCollection()))
+                .thenThrow(new RuntimeException("Error listing files from Google Drive"));
+
+        // Act & Assert
+        RuntimeException exception = assertThrows(RuntimeException.class, () -> walker.walk(credential, "top", entry -> {
+        }));
+        assertEquals("Error listing files from Google Drive", exception.getMessage());
+    }
+
+    @Test
+    void testWalkStopsListingOnceInterrupted() throws IOException {
+        // Arrange
+        DriveFolderTreeWalkerServiceImpl walker = new DriveFolderTreeWalkerServiceImpl(googleDriveDao);
+        Map<String, List<File>> tree = Map.of(
+                "root", List.of(folder("a", "A"), folder("b", "B")),
+                "a", List.of(file("f1", "one.txt")),
+                "b", List.of(file("f2", "two.txt")));
+        List<Collection<String>> batches = stubTree(tree);
+
+        // Act
+        // The download is cancelled while the first level is being read
+        try {
+            assertThrows(InterruptedIOException.class, () -> walker.walk(credential, null, entry -> Thread.currentThread().interrupt()));
+        } finally {
+            Thread.interrupted();
+        }
+
+        // Assert
+        assertEquals(List.of(List.of("root")), batches);
+    }
+
+    private List<Collection<String>> stubTree(Map<String, List<File>> tree) {
+        List<Collection<String>> batches = Collections.synchronizedList(new ArrayList<>());
+        when(googleDriveDao.listChildrenOfFolders(eq(credential), anyCollection())).thenAnswer(invocation -> {
+            Collection<String> folderIds = invocation.getArgument(1);
+            batches.add(List.copyOf(folderIds));
+            Map<String, List<File>> children = new LinkedHashMap<>();
+            folderIds.forEach(folderId -> children.put(folderId, tree.getOrDefault(folderId, List.of())));
+            return children;
+        });
+        return batches;
+    }
+
+    private static File folder(String id, String name) {
+        return new File().setId(id).setName(name).setMimeType(FOLDER_MIME_TYPE);
+    }
+
+    private static File file(String id, String name) {
+        return new File().setId(id).setName(name).setMimeType("text/plain");
+    }
+}
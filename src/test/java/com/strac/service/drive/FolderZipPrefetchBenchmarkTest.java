@@ -0,0 +1,83 @@
+package com.strac.service.drive;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.services.drive.model.File;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.strac.cache.ExpiringLruCache;
+import org.strac.dao.GoogleDriveDao;
+import org.strac.service.drive.DriveFolderTreeWalkerServiceImpl;
+import org.strac.service.drive.GoogleDriveCredentialService;
+import org.strac.service.drive.GoogleDriveServiceImpl;
+import org.strac.service.file.ZipServiceImpl;
+
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares the serial folder ZIP path with the prefetching one against a Drive DAO with simulated latency.
+ * Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+public class FolderZipPrefetchBenchmarkTest {
+    private static final int FILE_COUNT = 200;
+    private static final long ROUND_TRIP_MILLIS = 20;
+    private static final int FILE_SIZE_BYTES = 16 * 1024;
+
+    @Test
+    void benchmarkPrefetchAgainstSerial() {
+        GoogleDriveDao googleDriveDao = mock(GoogleDriveDao.class);
+        GoogleDriveCredentialService googleDriveCredentialService = mock(GoogleDriveCredentialService.class);
+        Credential credential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken("token")).thenReturn(credential);
+
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            files.add(new File().setId("file" + i).setName("file" + i + ".bin").setMimeType("application/octet-stream"));
+        }
+        when(googleDriveDao.listChildrenOfFolders(credential, List.of("folder"))).thenReturn(Map.of("folder", files));
+        byte[] content = new byte[FILE_SIZE_BYTES];
+        doAnswer(invocation -> {
+            Thread.sleep(ROUND_TRIP_MILLIS);
+            OutputStream outputStream = invocation.getArgument(2);
+            outputStream.write(content);
+            return null;
+        }).when(googleDriveDao).downloadFileContentToStream(eq(credential), any(File.class), any(OutputStream.class));
+
+        GoogleDriveServiceImpl serialService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService, new ZipServiceImpl());
+        long serialMillis = time(() -> serialService.downloadFolderAsStream("token", "folder", NullOutputStream.INSTANCE));
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            GoogleDriveServiceImpl prefetchingService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService,
+                    new ZipServiceImpl(), new DriveFolderTreeWalkerServiceImpl(googleDriveDao), new ExpiringLruCache<>(100), Duration.ofSeconds(30),
+                    16, 1024 * 1024, executor);
+            long prefetchMillis = time(() -> prefetchingService.downloadFolderAsStream("token", "folder", NullOutputStream.INSTANCE));
+
+            System.out.printf("Folder ZIP of %d files at %d ms per round trip: serial %d ms, prefetch x16 %d ms (%.1fx)%n",
+                    FILE_COUNT, ROUND_TRIP_MILLIS, serialMillis, prefetchMillis, (double) serialMillis / prefetchMillis);
+            assertTrue(prefetchMillis * 4 < serialMillis, "Prefetching should be at least 4x faster");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long time(Runnable runnable) {
+        long start = System.nanoTime();
+        runnable.run();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
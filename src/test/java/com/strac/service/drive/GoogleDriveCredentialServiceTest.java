@@ -1,6 +1,8 @@
 package com.strac.service.drive;
 
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.gson.GsonFactory;
 import org.junit.jupiter.api.Test;
 import org.strac.service.drive.GoogleDriveCredentialServiceImpl;
 
@@ -14,7 +16,8 @@ public class GoogleDriveCredentialServiceTest {
         String accessToken = "mockAccessToken";
 
         // Instantiate the actual service
-        GoogleDriveCredentialServiceImpl googleDriveCredentialService = new GoogleDriveCredentialServiceImpl();
+        GoogleDriveCredentialServiceImpl googleDriveCredentialService = new GoogleDriveCredentialServiceImpl(
+                new NetHttpTransport(), GsonFactory.getDefaultInstance());
 
         // Act
         Credential credential = googleDriveCredentialService.createCredentialFromAccessToken(accessToken);
@@ -23,4 +26,20 @@ public class GoogleDriveCredentialServiceTest {
         assertNotNull(credential, "Credential should not be null");
         assertEquals(accessToken, credential.getAccessToken(), "Access token in credential should match the one provided");
     }
+
+    @Test
+    void testCredentialsShareTransport() {
+        // Arrange
+        NetHttpTransport transport = new NetHttpTransport();
+        GoogleDriveCredentialServiceImpl googleDriveCredentialService = new GoogleDriveCredentialServiceImpl(
+                transport, GsonFactory.getDefaultInstance());
+
+        // Act
+        Credential firstCredential = googleDriveCredentialService.createCredentialFromAccessToken("firstAccessToken");
+        Credential secondCredential = googleDriveCredentialService.createCredentialFromAccessToken("secondAccessToken");
+
+        // Assert
+        assertSame(transport, firstCredential.getTransport(), "Credentials should use the shared transport");
+        assertSame(firstCredential.getTransport(), secondCredential.getTransport(), "Credentials should share one transport");
+    }
 }
@@ -1,27 +1,59 @@
 package com.strac.service.drive;
 
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.util.DateTime;
 import com.google.api.services.drive.model.File;
 import com.google.api.services.drive.model.FileList;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.strac.cache.DiskLruContentCache;
+import org.strac.cache.ExpiringLruCache;
 import org.strac.dao.GoogleDriveDao;
+import org.strac.service.drive.DriveFolderTreeWalkerServiceImpl;
+import org.strac.service.drive.FolderArchive;
 import org.strac.service.drive.GoogleDriveCredentialService;
 import org.strac.service.drive.GoogleDriveServiceImpl;
-import org.strac.service.file.MultipartFileToFileTransformerService;
+import org.strac.service.file.ArchiveFormat;
+import org.strac.service.file.StoredZipContent;
+import org.strac.service.file.TarServiceImpl;
+import org.strac.service.file.ZipCompressionPolicy;
 import org.strac.service.file.ZipService;
+import org.strac.service.file.ZipServiceImpl;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import static org.mockito.Mockito.*;
@@ -36,16 +68,12 @@ public class GoogleDriveServiceTest {
     @Mock
     private GoogleDriveCredentialService googleDriveCredentialService;
 
-    @Mock
-    private MultipartFileToFileTransformerService multipartFileToFileTransformerService;
-
     @Mock
     private ZipService zipService;
 
     @Mock
     private MultipartFile multipartFile;
 
-    @InjectMocks
     private GoogleDriveServiceImpl googleDriveService;
 
     private String accessToken = "mockAccessToken";
@@ -54,8 +82,7 @@ public class GoogleDriveServiceTest {
 
     @BeforeEach
     void setUp() {
-        googleDriveService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService,
-                multipartFileToFileTransformerService, zipService);
+        googleDriveService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService, zipService);
     }
 
     @Test
@@ -63,15 +90,27 @@ public class GoogleDriveServiceTest {
         // Arrange
         Credential mockCredential = mock(Credential.class);
         when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
-        java.io.File mockFile = mock(java.io.File.class);
-        when(multipartFileToFileTransformerService.convertMultipartFileToFile(multipartFile)).thenReturn(mockFile);
+        byte[] content = "Hello, World!".getBytes();
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream contentStream = new ByteArrayInputStream(content) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        when(multipartFile.getInputStream()).thenReturn(contentStream);
+        when(multipartFile.getOriginalFilename()).thenReturn("notes.txt");
+        when(multipartFile.getContentType()).thenReturn("text/plain");
+        when(multipartFile.getSize()).thenReturn((long) content.length);
         File mockFileMetadata = new File();
-        when(googleDriveDao.uploadFile(mockCredential, mockFile, multipartFile.getContentType(), folderId))
+        when(googleDriveDao.uploadFile(mockCredential, "notes.txt", "text/plain", content.length, contentStream, folderId))
                 .thenReturn(mockFileMetadata);
 
         googleDriveService.uploadFile(accessToken, multipartFile, folderId);
 
-        verify(googleDriveDao).uploadFile(mockCredential, mockFile, multipartFile.getContentType(), folderId);
+        // The upload is streamed from the multipart content, without a local copy
+        verify(googleDriveDao).uploadFile(mockCredential, "notes.txt", "text/plain", content.length, contentStream, folderId);
+        assertTrue(closed.get());
     }
 
     @Test
@@ -93,6 +132,22 @@ public class GoogleDriveServiceTest {
         verify(googleDriveDao).listFiles(mockCredential, folderId);
     }
 
+    @Test
+    void testGetFileMetadata() {
+        // Arrange
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+        File mockMetadata = new File();
+        mockMetadata.setName("mockFile.txt");
+        when(googleDriveDao.getFileMetadata(mockCredential, fileId)).thenReturn(mockMetadata);
+
+        // Act
+        File result = googleDriveService.getFileMetadata(accessToken, fileId);
+
+        // Assert
+        assertEquals("mockFile.txt", result.getName());
+    }
+
     @Test
     void testDownloadFileToStream() {
         // Arrange
@@ -107,6 +162,49 @@ public class GoogleDriveServiceTest {
         verify(googleDriveDao).downloadFileToStream(mockCredential, fileId, outputStream);
     }
 
+    @Test
+    void testDownloadFileToStreamUsesCachedMetadata() {
+        // Arrange
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+        File mockMetadata = new File();
+        mockMetadata.setId(fileId);
+        mockMetadata.setMimeType("application/vnd.google-apps.document");
+        when(googleDriveDao.getFileMetadata(mockCredential, fileId)).thenReturn(mockMetadata);
+        OutputStream outputStream = new ByteArrayOutputStream();
+
+        // Act
+        googleDriveService.getFileMetadata(accessToken, fileId);
+        googleDriveService.getFileMetadata(accessToken, fileId);
+        googleDriveService.downloadFileToStream(accessToken, fileId, outputStream);
+
+        // Assert
+        verify(googleDriveDao, times(1)).getFileMetadata(mockCredential, fileId);
+        verify(googleDriveDao).downloadFileContentToStream(mockCredential, mockMetadata, outputStream);
+        verify(googleDriveDao, never()).downloadFileToStream(any(), anyString(), any());
+    }
+
+    @Test
+    void testFileMetadataIsCachedPerAccessToken() {
+        // Arrange
+        Credential mockCredential = mock(Credential.class);
+        Credential otherCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+        when(googleDriveCredentialService.createCredentialFromAccessToken("otherAccessToken")).thenReturn(otherCredential);
+        when(googleDriveDao.getFileMetadata(mockCredential, fileId)).thenReturn(new File().setId(fileId));
+        when(googleDriveDao.getFileMetadata(otherCredential, fileId)).thenReturn(new File().setId(fileId));
+
+        // Act
+        googleDriveService.getFileMetadata(accessToken, fileId);
+        googleDriveService.getFileMetadata("otherAccessToken", fileId);
+        googleDriveService.deleteFile(accessToken, fileId);
+        googleDriveService.getFileMetadata(accessToken, fileId);
+
+        // Assert
+        verify(googleDriveDao, times(2)).getFileMetadata(mockCredential, fileId);
+        verify(googleDriveDao, times(1)).getFileMetadata(otherCredential, fileId);
+    }
+
     @Test
     void testDownloadFolderAsStream() {
         // Arrange
@@ -135,14 +233,9 @@ public class GoogleDriveServiceTest {
         FileList mockFileList = mock(FileList.class);
         //when(mockFileList.getFiles()).thenReturn(Arrays.asList(mockFolder, mockFile));
 
-        // Mock the googleDriveDao to return the mocked FileList
-        when(googleDriveDao.listFiles(mockCredential, folderId)).thenReturn(mockFileList);
-
-        // Mock the behavior when encountering a folder:
-        // Return an empty list of files when listing files for a folder (stopping the recursion)
-        FileList mockEmptyFileList = mock(FileList.class);
-        when(mockEmptyFileList.getFiles()).thenReturn(Collections.emptyList());
-        when(googleDriveDao.listFiles(mockCredential, mockFolder.getId())).thenReturn(mockEmptyFileList);
+        // Mock the googleDriveDao to return the files of the mocked FileList
+        List<File> rootFiles = mockFileList.getFiles();
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(folderId))).thenReturn(Map.of(folderId, rootFiles));
 
         /* Mock the googleDriveDao.downloadFileToStream for the file (not the folder)
         ByteArrayOutputStream mockFileOutputStream = new ByteArrayOutputStream();
@@ -154,14 +247,16 @@ public class GoogleDriveServiceTest {
 
         // Mock the zipService.addFileToZip to avoid actual zipping
         //doNothing().when(zipService).addFileToZip(any(ZipOutputStream.class), anyString(), any(byte[].class));
+        when(zipService.createZipOutputStream(any(OutputStream.class)))
+                .thenAnswer(invocation -> new ZipOutputStream(invocation.<OutputStream>getArgument(0)));
 
         // Act
         googleDriveService.downloadFolderAsStream(accessToken, folderId, outputStream);
 
         // Assert
-        // Verify that listFiles was called with correct arguments
-        verify(googleDriveDao).listFiles(mockCredential, folderId);
-        verify(googleDriveDao).listFiles(mockCredential, mockFolder.getId());  // Ensure recursion is stopped
+        // Verify that the folder was listed with correct arguments
+        verify(googleDriveDao).listChildrenOfFolders(mockCredential, List.of(folderId));
+        verify(googleDriveDao, times(1)).listChildrenOfFolders(any(), anyCollection());  // Ensure recursion is stopped
 
         // Verify that addFileToZip was called for the file in the folder
         //verify(zipService, times(1)).addFileToZip(any(ZipOutputStream.class), eq("mockFolder/mockFile.xlsx"), any(byte[].class));
@@ -173,6 +268,578 @@ public class GoogleDriveServiceTest {
         assertTrue(outputStream.size() > 0, "Output stream should contain data");
     }
 
+    @Test
+    void testDownloadFolderAsStreamPipesFilesIntoEntries() throws IOException {
+        // Arrange
+        GoogleDriveServiceImpl streamingService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService,
+                new ZipServiceImpl());
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+
+        File mockSubFolder = new File();
+        mockSubFolder.setId("mockSubFolderId");
+        mockSubFolder.setMimeType("application/vnd.google-apps.folder");
+        mockSubFolder.setName("sub");
+        File mockFile = new File();
+        mockFile.setId(fileId);
+        mockFile.setMimeType("text/plain");
+        mockFile.setName("notes.txt");
+
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(folderId))).thenReturn(Map.of(folderId, List.of(mockSubFolder)));
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(mockSubFolder.getId())))
+                .thenReturn(Map.of(mockSubFolder.getId(), List.of(mockFile)));
+        doAnswer(invocation -> {
+            OutputStream entryStream = invocation.getArgument(2);
+            entryStream.write("File Content".getBytes());
+            return null;
+        }).when(googleDriveDao).downloadFileContentToStream(eq(mockCredential), eq(mockFile), any(OutputStream.class));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        // Act
+        streamingService.downloadFolderAsStream(accessToken, folderId, outputStream);
+
+        // Assert
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()))) {
+            ZipEntry entry = zis.getNextEntry();
+            assertNotNull(entry);
+            assertEquals("sub/notes.txt", entry.getName());
+            assertEquals("File Content", new String(zis.readAllBytes()));
+            assertNull(zis.getNextEntry());
+        }
+    }
+
+    @Test
+    void testFolderZipIsServedFromCache(@TempDir Path cacheDirectory) throws IOException {
+        // Arrange
+        GoogleDriveServiceImpl cachingService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService,
+                new ZipServiceImpl(), new DriveFolderTreeWalkerServiceImpl(googleDriveDao),
+                new ExpiringLruCache<>(100), Duration.ofSeconds(30), 1, 0, null, new TarServiceImpl(),
+                new DiskLruContentCache(cacheDirectory, 1024 * 1024));
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+        File mockFile = textFile(fileId, "notes.txt", "md5-1");
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(folderId))).thenReturn(Map.of(folderId, List.of(mockFile)));
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(2).write("File Content".repeat(10).getBytes());
+            return null;
+        }).when(googleDriveDao).downloadFileContentToStream(eq(mockCredential), any(File.class), any(OutputStream.class));
+
+        // Act
+        FolderArchive firstArchive = cachingService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP, ZipCompressionPolicy.DEFAULT);
+        ByteArrayOutputStream firstZip = new ByteArrayOutputStream();
+        cachingService.writeFolderArchiveToStream(accessToken, firstArchive, firstZip);
+        FolderArchive secondArchive = cachingService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP, ZipCompressionPolicy.DEFAULT);
+        ByteArrayOutputStream secondZip = new ByteArrayOutputStream();
+        cachingService.writeFolderArchiveToStream(accessToken, secondArchive, secondZip);
+        ByteArrayOutputStream range = new ByteArrayOutputStream();
+        cachingService.writeFolderArchiveRangeToStream(accessToken, secondArchive, 10, 29, range);
+
+        // Assert
+        assertFalse(firstArchive.isCached());
+        assertEquals(firstArchive.getFingerprint(), secondArchive.getFingerprint());
+        assertEquals(firstZip.size(), secondArchive.getCachedSize());
+        assertArrayEquals(firstZip.toByteArray(), secondZip.toByteArray());
+        assertArrayEquals(Arrays.copyOfRange(firstZip.toByteArray(), 10, 30), range.toByteArray());
+        verify(googleDriveDao, times(1)).downloadFileContentToStream(eq(mockCredential), any(File.class), any(OutputStream.class));
+    }
+
+    @Test
+    void testFolderZipFingerprintChangesWithTree() {
+        // Arrange
+        GoogleDriveServiceImpl cachingService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService,
+                new ZipServiceImpl());
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(folderId)))
+                .thenReturn(Map.of(folderId, List.of(textFile(fileId, "notes.txt", "md5-1"))))
+                .thenReturn(Map.of(folderId, List.of(textFile(fileId, "notes.txt", "md5-2"))));
+
+        // Act
+        String fingerprint = cachingService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP, ZipCompressionPolicy.DEFAULT).getFingerprint();
+        String changedFingerprint = cachingService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP, ZipCompressionPolicy.DEFAULT).getFingerprint();
+
+        // Assert
+        assertNotEquals(fingerprint, changedFingerprint);
+    }
+
+    @Test
+    void testFolderZipRangeIsCutFromRebuildWhenNotCached() throws IOException {
+        // Arrange
+        GoogleDriveServiceImpl uncachedService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService,
+                new ZipServiceImpl());
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(folderId)))
+                .thenReturn(Map.of(folderId, List.of(textFile(fileId, "notes.txt", "md5-1"), textFile("otherId", "more.txt", "md5-3"))));
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(2).write(("content of " + invocation.<File>getArgument(1).getId()).getBytes());
+            return null;
+        }).when(googleDriveDao).downloadFileContentToStream(eq(mockCredential), any(File.class), any(OutputStream.class));
+        FolderArchive archive = uncachedService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP, ZipCompressionPolicy.DEFAULT);
+
+        // Act
+        ByteArrayOutputStream fullZip = new ByteArrayOutputStream();
+        uncachedService.writeFolderArchiveToStream(accessToken, archive, fullZip);
+        ByteArrayOutputStream range = new ByteArrayOutputStream();
+        uncachedService.writeFolderArchiveRangeToStream(accessToken, archive, 40, 99, range);
+
+        ByteArrayOutputStream firstFileRange = new ByteArrayOutputStream();
+        uncachedService.writeFolderArchiveRangeToStream(accessToken, archive, 0, 45, firstFileRange);
+
+        // Assert
+        assertArrayEquals(Arrays.copyOfRange(fullZip.toByteArray(), 40, 100), range.toByteArray());
+        assertArrayEquals(Arrays.copyOfRange(fullZip.toByteArray(), 0, 46), firstFileRange.toByteArray());
+        // The rebuild stops at the end of the range, and neither range reaches the content of the second file, notes.txt
+        verify(googleDriveDao, times(1)).downloadFileContentToStream(eq(mockCredential),
+                argThat(file -> file.getId().equals(fileId)), any(OutputStream.class));
+    }
+
+    @Test
+    void testFolderZipRangeWithExportsIsNotCutFromRebuild() {
+        // Arrange
+        GoogleDriveServiceImpl uncachedService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService,
+                new ZipServiceImpl());
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+        File document = textFile("docId", "plan", "md5-2").setMimeType("application/vnd.google-apps.document");
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(folderId)))
+                .thenReturn(Map.of(folderId, List.of(textFile(fileId, "notes.txt", "md5-1"), document)));
+        FolderArchive archive = uncachedService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP, ZipCompressionPolicy.DEFAULT);
+
+        // Act & Assert
+        // The document would be exported again, and its new bytes may not line up with a range sent before
+        assertFalse(archive.isDeterministic());
+        assertThrows(RuntimeException.class,
+                () -> uncachedService.writeFolderArchiveRangeToStream(accessToken, archive, 40, 99, new ByteArrayOutputStream()));
+        verify(googleDriveDao, never()).downloadFileContentToStream(any(), any(), any());
+    }
+
+    @Test
+    void testStoredFolderZipIsGeneratedPerRange() throws IOException {
+        // Arrange
+        GoogleDriveServiceImpl storingService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService,
+                new ZipServiceImpl());
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+        byte[] notes = "content of notes".repeat(20).getBytes();
+        byte[] photo = "content of photo".repeat(30).getBytes();
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(folderId))).thenReturn(Map.of(folderId, List.of(
+                textFile(fileId, "notes.txt", "md5-1").setSize((long) notes.length),
+                textFile("photoId", "photo.jpg", "md5-2").setSize((long) photo.length))));
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(2).write(invocation.<File>getArgument(1).getId().equals(fileId) ? notes : photo);
+            return null;
+        }).when(googleDriveDao).downloadFileContentToStream(eq(mockCredential), any(File.class), any(OutputStream.class));
+        doAnswer(invocation -> {
+            long first = invocation.getArgument(2);
+            long last = invocation.getArgument(3);
+            byte[] content = invocation.getArgument(1).equals(fileId) ? notes : photo;
+            invocation.<OutputStream>getArgument(4).write(content, (int) first, (int) (last - first + 1));
+            return null;
+        }).when(googleDriveDao).downloadFileRangeToStream(eq(mockCredential), anyString(), anyLong(), anyLong(), any(OutputStream.class));
+
+        // Act
+        FolderArchive archive = storingService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP, ZipCompressionPolicy.withLevel(0));
+        ByteArrayOutputStream wholeZip = new ByteArrayOutputStream();
+        storingService.writeFolderArchiveToStream(accessToken, archive, wholeZip);
+        // From the middle of the first file to the end, as a resumed download would ask
+        ByteArrayOutputStream resumedZip = new ByteArrayOutputStream();
+        storingService.writeFolderArchiveRangeToStream(accessToken, archive, 100, archive.getContentLength() - 1, resumedZip);
+
+        // Assert
+        assertNotNull(archive.getStoredLayout());
+        assertEquals(archive.getContentLength(), wholeZip.size());
+        assertArrayEquals(Arrays.copyOfRange(wholeZip.toByteArray(), 100, wholeZip.size()), resumedZip.toByteArray());
+        // The first file is only fetched in full once, its checksum is remembered for the resumed central directory
+        verify(googleDriveDao, times(1)).downloadFileContentToStream(eq(mockCredential),
+                argThat(file -> file.getId().equals(fileId)), any(OutputStream.class));
+        verify(googleDriveDao).downloadFileRangeToStream(eq(mockCredential), eq(fileId), anyLong(), eq((long) notes.length - 1),
+                any(OutputStream.class));
+    }
+
+    @Test
+    void testStoredFolderZipChecksumsAreKeptForOtherNodes(@TempDir Path cacheDirectory) throws IOException {
+        // Arrange
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        GoogleDriveServiceImpl resumingService = storingService(cacheDirectory, executor);
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+        List<byte[]> contents = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            contents.add(("content of file " + i).repeat(10 + i).getBytes());
+            files.add(textFile("fileId" + i, "file" + i + ".txt", "md5-" + i).setSize((long) contents.get(i).length));
+        }
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(folderId))).thenReturn(Map.of(folderId, files));
+        doAnswer(invocation -> {
+            String id = invocation.<File>getArgument(1).getId();
+            invocation.<OutputStream>getArgument(2).write(contents.get(Integer.parseInt(id.substring("fileId".length()))));
+            return null;
+        }).when(googleDriveDao).downloadFileContentToStream(eq(mockCredential), any(File.class), any(OutputStream.class));
+
+        try {
+            // Act
+            FolderArchive archive = resumingService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP,
+                    ZipCompressionPolicy.withLevel(0));
+            long centralDirectoryEnd = archive.getContentLength() - 1;
+            ByteArrayOutputStream tail = new ByteArrayOutputStream();
+            resumingService.writeFolderArchiveRangeToStream(accessToken, archive, centralDirectoryEnd - 99, centralDirectoryEnd, tail);
+            // Another node with none of the checksums in memory is asked for the same range
+            GoogleDriveServiceImpl otherNodeService = storingService(cacheDirectory, executor);
+            FolderArchive otherNodeArchive = otherNodeService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP,
+                    ZipCompressionPolicy.withLevel(0));
+            ByteArrayOutputStream otherNodeTail = new ByteArrayOutputStream();
+            otherNodeService.writeFolderArchiveRangeToStream(accessToken, otherNodeArchive, centralDirectoryEnd - 99,
+                    centralDirectoryEnd, otherNodeTail);
+            ByteArrayOutputStream wholeZip = new ByteArrayOutputStream();
+            archive.getStoredLayout().writeTo(new StoredZipContent() {
+                @Override
+                public void writeEntry(int index, OutputStream outputStream) throws IOException {
+                    outputStream.write(contents.get(index));
+                }
+
+                @Override
+                public void writeEntryRange(int index, long firstBytePos, long lastBytePos, OutputStream outputStream) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public long crc32(int index) {
+                    CRC32 crc32 = new CRC32();
+                    crc32.update(contents.get(index));
+                    return crc32.getValue();
+                }
+            }, wholeZip);
+
+            // Assert
+            byte[] expectedTail = Arrays.copyOfRange(wholeZip.toByteArray(), wholeZip.size() - 100, wholeZip.size());
+            assertArrayEquals(expectedTail, tail.toByteArray());
+            assertArrayEquals(expectedTail, otherNodeTail.toByteArray());
+            // Each file is read once for the first node's checksums, the other node finds them next to the cached zips
+            for (File file : files) {
+                verify(googleDriveDao, times(1)).downloadFileContentToStream(eq(mockCredential), eq(file), any(OutputStream.class));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private GoogleDriveServiceImpl storingService(Path cacheDirectory, ExecutorService executor) throws IOException {
+        return new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService, new ZipServiceImpl(),
+                new DriveFolderTreeWalkerServiceImpl(googleDriveDao), new ExpiringLruCache<>(100), Duration.ofSeconds(30),
+                4, 1024, executor, new TarServiceImpl(), new DiskLruContentCache(cacheDirectory, 1024 * 1024));
+    }
+
+    @Test
+    void testStoredFolderZipNeedsListedSizes() {
+        // Arrange
+        GoogleDriveServiceImpl storingService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService,
+                new ZipServiceImpl());
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+        File document = textFile("docId", "plan", "md5-3").setMimeType("application/vnd.google-apps.document");
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(folderId)))
+                .thenReturn(Map.of(folderId, List.of(textFile(fileId, "notes.txt", "md5-1").setSize(10L), document)));
+
+        // Act
+        FolderArchive storedArchive = storingService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP, ZipCompressionPolicy.withLevel(0));
+
+        // Assert
+        assertNull(storedArchive.getStoredLayout());
+        assertEquals(-1, storedArchive.getContentLength());
+    }
+
+    @Test
+    void testFolderTarZstPipesListedFilesAndBuffersExports() throws IOException {
+        // Arrange
+        GoogleDriveServiceImpl tarringService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService,
+                new ZipServiceImpl());
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+        byte[] notes = "content of notes".repeat(20).getBytes();
+        byte[] exported = "exported plan".getBytes();
+        // The document has no listed size, so its export is buffered to learn the size for its header
+        File document = textFile("docId", "plan", "md5-2").setMimeType("application/vnd.google-apps.document");
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(folderId))).thenReturn(Map.of(folderId, List.of(
+                textFile(fileId, "notes.txt", "md5-1").setSize((long) notes.length), document)));
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(2).write(invocation.<File>getArgument(1).getId().equals(fileId) ? notes : exported);
+            return null;
+        }).when(googleDriveDao).downloadFileContentToStream(eq(mockCredential), any(File.class), any(OutputStream.class));
+
+        // Act
+        FolderArchive archive = tarringService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.TAR_ZST,
+                ZipCompressionPolicy.DEFAULT);
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        tarringService.writeFolderArchiveToStream(accessToken, archive, tar);
+
+        // Assert
+        assertEquals(ArchiveFormat.TAR_ZST, archive.getFormat());
+        assertNull(archive.getStoredLayout());
+        try (TarArchiveInputStream tis = new TarArchiveInputStream(new ZstdCompressorInputStream(new ByteArrayInputStream(tar.toByteArray())))) {
+            TarArchiveEntry entry = tis.getNextEntry();
+            assertEquals("notes.txt", entry.getName());
+            assertEquals(new DateTime("2024-01-01T10:00:00Z").getValue(), entry.getModTime().getTime());
+            assertArrayEquals(notes, tis.readAllBytes());
+            entry = tis.getNextEntry();
+            assertEquals("plan", entry.getName());
+            assertEquals(exported.length, entry.getSize());
+            assertArrayEquals(exported, tis.readAllBytes());
+            assertNull(tis.getNextEntry());
+        }
+    }
+
+    @Test
+    void testFolderTarGzWithPrefetchKeepsOrder() throws Exception {
+        // Arrange
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        GoogleDriveServiceImpl prefetchingService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService,
+                new ZipServiceImpl(), new DriveFolderTreeWalkerServiceImpl(googleDriveDao),
+                new ExpiringLruCache<>(100), Duration.ofSeconds(30), 4, 4, executor);
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            files.add(textFile("file" + i, "file" + i + ".txt", "md5-" + i));
+        }
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(folderId))).thenReturn(Map.of(folderId, files));
+        doAnswer(invocation -> {
+            String id = invocation.<File>getArgument(1).getId();
+            // Earlier files take longer, so downloads finish out of order
+            Thread.sleep(5L * (6 - Integer.parseInt(id.substring(4))));
+            invocation.<OutputStream>getArgument(2).write(("content of " + id).getBytes());
+            return null;
+        }).when(googleDriveDao).downloadFileContentToStream(eq(mockCredential), any(File.class), any(OutputStream.class));
+
+        // Act
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        try {
+            FolderArchive archive = prefetchingService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.TAR_GZ,
+                    ZipCompressionPolicy.DEFAULT);
+            prefetchingService.writeFolderArchiveToStream(accessToken, archive, tar);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Assert
+        try (TarArchiveInputStream tis = new TarArchiveInputStream(new GzipCompressorInputStream(new ByteArrayInputStream(tar.toByteArray())))) {
+            for (int i = 0; i < 6; i++) {
+                TarArchiveEntry entry = tis.getNextEntry();
+                assertEquals("file" + i + ".txt", entry.getName());
+                assertEquals("content of file" + i, new String(tis.readAllBytes()));
+            }
+            assertNull(tis.getNextEntry());
+        }
+    }
+
+    @Test
+    void testFolderArchiveFingerprintCoversFormat() {
+        // Arrange
+        GoogleDriveServiceImpl archivingService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService,
+                new ZipServiceImpl());
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(folderId)))
+                .thenReturn(Map.of(folderId, List.of(textFile(fileId, "notes.txt", "md5-1"))));
+
+        // Act
+        String zipFingerprint = archivingService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.ZIP,
+                ZipCompressionPolicy.DEFAULT).getFingerprint();
+        String tarFingerprint = archivingService.prepareFolderArchive(accessToken, folderId, ArchiveFormat.TAR,
+                ZipCompressionPolicy.DEFAULT).getFingerprint();
+
+        // Assert
+        assertNotEquals(zipFingerprint, tarFingerprint);
+    }
+
+    @Test
+    void testDownloadFolderAsStreamWithPrefetchKeepsOrder() throws Exception {
+        // Arrange
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        // A 4 byte threshold makes the longer files spill to temp files
+        GoogleDriveServiceImpl prefetchingService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService,
+                new ZipServiceImpl(), new DriveFolderTreeWalkerServiceImpl(googleDriveDao),
+                new ExpiringLruCache<>(100), Duration.ofSeconds(30), 4, 4, executor);
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            File file = new File();
+            file.setId("file" + i);
+            // Odd files are photos, which are stored rather than deflated
+            file.setMimeType(i % 2 == 0 ? "text/plain" : "image/jpeg");
+            file.setName("file" + i + ".txt");
+            files.add(file);
+        }
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(folderId))).thenReturn(Map.of(folderId, files));
+        doAnswer(invocation -> {
+            String id = invocation.<File>getArgument(1).getId();
+            // Earlier files take longer, so downloads finish out of order
+            Thread.sleep(5L * (10 - Integer.parseInt(id.substring(4))));
+            OutputStream entryStream = invocation.getArgument(2);
+            entryStream.write(("content of " + id).repeat(Integer.parseInt(id.substring(4)) % 2 + 1).getBytes());
+            return null;
+        }).when(googleDriveDao).downloadFileContentToStream(eq(mockCredential), any(File.class), any(OutputStream.class));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        // Act
+        try {
+            prefetchingService.downloadFolderAsStream(accessToken, folderId, outputStream);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Assert
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()))) {
+            for (int i = 0; i < 10; i++) {
+                ZipEntry entry = zis.getNextEntry();
+                assertNotNull(entry);
+                assertEquals("file" + i + ".txt", entry.getName());
+                assertEquals(i % 2 == 0 ? ZipEntry.DEFLATED : ZipEntry.STORED, entry.getMethod());
+                assertEquals(("content of file" + i).repeat(i % 2 + 1), new String(zis.readAllBytes()));
+            }
+            assertNull(zis.getNextEntry());
+        }
+    }
+
+    @Test
+    void testClientAbortCancelsPrefetchedDownloads() throws Exception {
+        // Arrange
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        GoogleDriveServiceImpl prefetchingService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService,
+                new ZipServiceImpl(), new DriveFolderTreeWalkerServiceImpl(googleDriveDao),
+                new ExpiringLruCache<>(100), Duration.ofSeconds(30), 2, 1024, executor);
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+        File smallFile = textFile("smallId", "small.txt", "md5-1");
+        File endlessFile = textFile("endlessId", "endless.txt", "md5-2");
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(folderId)))
+                .thenReturn(Map.of(folderId, List.of(smallFile, endlessFile)));
+        CountDownLatch endlessStarted = new CountDownLatch(1);
+        CountDownLatch endlessStopped = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            endlessStarted.await();
+            invocation.<OutputStream>getArgument(2).write("small".getBytes());
+            return null;
+        }).when(googleDriveDao).downloadFileContentToStream(eq(mockCredential), eq(smallFile), any(OutputStream.class));
+        doAnswer(invocation -> {
+            endlessStarted.countDown();
+            // Keeps writing until the stream refuses, like a Drive download of a huge file
+            try {
+                while (true) {
+                    invocation.<OutputStream>getArgument(2).write(new byte[8192]);
+                }
+            } finally {
+                endlessStopped.countDown();
+            }
+        }).when(googleDriveDao).downloadFileContentToStream(eq(mockCredential), eq(endlessFile), any(OutputStream.class));
+        // The client is gone, so the first write of the zip fails
+        OutputStream abortedResponse = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Connection reset by peer");
+            }
+        };
+
+        // Act & Assert
+        try {
+            assertThrows(RuntimeException.class,
+                    () -> prefetchingService.downloadFolderAsStream(accessToken, folderId, abortedResponse));
+            assertTrue(endlessStopped.await(5, TimeUnit.SECONDS), "The download still running should be cancelled");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testClientAbortWaitsForRunningDownloadsAndRemovesTheirSpillFiles() throws Exception {
+        // Arrange
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        GoogleDriveServiceImpl prefetchingService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService,
+                new ZipServiceImpl(), new DriveFolderTreeWalkerServiceImpl(googleDriveDao),
+                new ExpiringLruCache<>(100), Duration.ofSeconds(30), 2, 1024, executor);
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+        File smallFile = textFile("smallId", "small.txt", "md5-1");
+        File slowFile = textFile("slowId", "slow.txt", "md5-2");
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(folderId)))
+                .thenReturn(Map.of(folderId, List.of(smallFile, slowFile)));
+        CountDownLatch slowStarted = new CountDownLatch(1);
+        AtomicBoolean slowFinished = new AtomicBoolean();
+        doAnswer(invocation -> {
+            slowStarted.await();
+            invocation.<OutputStream>getArgument(2).write("small".getBytes());
+            return null;
+        }).when(googleDriveDao).downloadFileContentToStream(eq(mockCredential), eq(smallFile), any(OutputStream.class));
+        doAnswer(invocation -> {
+            slowStarted.countDown();
+            // A transfer that doesn't notice the cancel in time and still spills its content to disk
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+            while (System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+            Thread.interrupted();
+            invocation.<OutputStream>getArgument(2).write(new byte[4096]);
+            slowFinished.set(true);
+            return null;
+        }).when(googleDriveDao).downloadFileContentToStream(eq(mockCredential), eq(slowFile), any(OutputStream.class));
+        OutputStream abortedResponse = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Connection reset by peer");
+            }
+        };
+        Set<Path> spillFilesBefore = spillFiles();
+
+        // Act & Assert
+        try {
+            assertThrows(RuntimeException.class,
+                    () -> prefetchingService.downloadFolderAsStream(accessToken, folderId, abortedResponse));
+            assertTrue(slowFinished.get(), "Closing the writer should wait for the running download");
+            assertEquals(spillFilesBefore, spillFiles(), "The late spill file should be removed");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Set<Path> spillFiles() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(file -> file.getFileName().toString().startsWith("strac-archive-entry-"))
+                    .collect(Collectors.toSet());
+        }
+    }
+
+    @Test
+    void testDownloadFolderAsStreamWithPrefetchPropagatesFailure() {
+        // Arrange
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        GoogleDriveServiceImpl prefetchingService = new GoogleDriveServiceImpl(googleDriveDao, googleDriveCredentialService,
+                new ZipServiceImpl(), new DriveFolderTreeWalkerServiceImpl(googleDriveDao),
+                new ExpiringLruCache<>(100), Duration.ofSeconds(30), 2, 1024, executor);
+        Credential mockCredential = mock(Credential.class);
+        when(googleDriveCredentialService.createCredentialFromAccessToken(accessToken)).thenReturn(mockCredential);
+
+        File mockFile = new File();
+        mockFile.setId(fileId);
+        mockFile.setMimeType("text/plain");
+        mockFile.setName("broken.txt");
+        when(googleDriveDao.listChildrenOfFolders(mockCredential, List.of(folderId))).thenReturn(Map.of(folderId, List.of(mockFile)));
+        doThrow(new RuntimeException("Drive unavailable"))
+                .when(googleDriveDao).downloadFileContentToStream(eq(mockCredential), eq(mockFile), any(OutputStream.class));
+
+        // Act & Assert
+        try {
+            RuntimeException exception = assertThrows(RuntimeException.class,
+                    () -> prefetchingService.downloadFolderAsStream(accessToken, folderId, new ByteArrayOutputStream()));
+            assertEquals("Drive unavailable", exception.getCause().getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     void testDeleteFile() throws IOException {
         // Arrange
@@ -185,4 +852,14 @@ public class GoogleDriveServiceTest {
         // Assert
         verify(googleDriveDao).deleteFile(mockCredential, fileId);
     }
+
+    private static File textFile(String id, String name, String md5Checksum) {
+        File file = new File();
+        file.setId(id);
+        file.setName(name);
+        file.setMimeType("text/plain");
+        file.setMd5Checksum(md5Checksum);
+        file.setModifiedTime(new DateTime("2024-01-01T10:00:00Z"));
+        return file;
+    }
 }
@@ -0,0 +1,114 @@
+package com.strac.service.file;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.strac.service.file.ArchiveFormat;
+import org.strac.service.file.ParallelDeflateZipServiceImpl;
+import org.strac.service.file.TarServiceImpl;
+import org.strac.service.file.ZipCompressionPolicy;
+import org.strac.service.file.ZipMetrics;
+import org.strac.service.file.ZipService;
+import org.strac.service.file.ZipServiceImpl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares zip with tar, tar.gz and tar.zst on a synthetic folder of many small text files, where zip pays a header
+ * and a fresh deflate dictionary per entry. Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+public class ArchiveFormatBenchmarkTest {
+    private static final int FILE_COUNT = 20_000;
+    private static final int MAX_FILE_SIZE_BYTES = 8 * 1024;
+    private static final int ROUNDS = 3;
+
+    @Test
+    void benchmarkTarFormatsAgainstZip() throws IOException {
+        List<byte[]> corpus = syntheticCorpus();
+        long corpusBytes = corpus.stream().mapToLong(content -> content.length).sum();
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        ZipService serialZipService = new ZipServiceImpl(new ZipMetrics(new SimpleMeterRegistry()));
+        TarServiceImpl tarService = new TarServiceImpl();
+        ExecutorService executor = Executors.newFixedThreadPool(cores);
+        try {
+            ZipService parallelZipService = new ParallelDeflateZipServiceImpl(new ZipMetrics(new SimpleMeterRegistry()),
+                    executor, 128 * 1024, 4 * cores);
+
+            long zipSize = 0;
+            long zipNanos = Long.MAX_VALUE;
+            long parallelZipNanos = Long.MAX_VALUE;
+            long[] tarSizes = new long[ArchiveFormat.values().length];
+            long[] tarNanos = new long[ArchiveFormat.values().length];
+            Arrays.fill(tarNanos, Long.MAX_VALUE);
+            // The first round warms up every path, only the later ones are timed
+            for (int round = 0; round <= ROUNDS; round++) {
+                long start = System.nanoTime();
+                zipSize = BenchmarkCorpus.zip(serialZipService, corpus, "text/plain");
+                long nanos = System.nanoTime() - start;
+                zipNanos = round == 0 ? zipNanos : Math.min(zipNanos, nanos);
+                start = System.nanoTime();
+                BenchmarkCorpus.zip(parallelZipService, corpus, "text/plain");
+                nanos = System.nanoTime() - start;
+                parallelZipNanos = round == 0 ? parallelZipNanos : Math.min(parallelZipNanos, nanos);
+                for (ArchiveFormat format : ArchiveFormat.values()) {
+                    if (format.isTar()) {
+                        start = System.nanoTime();
+                        tarSizes[format.ordinal()] = tar(tarService, format, corpus);
+                        nanos = System.nanoTime() - start;
+                        tarNanos[format.ordinal()] = round == 0 ? tarNanos[format.ordinal()] : Math.min(tarNanos[format.ordinal()], nanos);
+                    }
+                }
+            }
+
+            System.out.printf("Folder of %d files, %d MB on %d cores:%n", FILE_COUNT, corpusBytes >> 20, cores);
+            System.out.printf("  zip          %6.0f MB/s, %5.1f%% of the files%n", BenchmarkCorpus.megabytesPerSecond(corpusBytes, zipNanos),
+                    100.0 * zipSize / corpusBytes);
+            System.out.printf("  parallel zip %6.0f MB/s%n", BenchmarkCorpus.megabytesPerSecond(corpusBytes, parallelZipNanos));
+            for (ArchiveFormat format : ArchiveFormat.values()) {
+                if (format.isTar()) {
+                    System.out.printf("  %-12s %6.0f MB/s, %5.1f%% of the files%n", format.getExtension(),
+                            BenchmarkCorpus.megabytesPerSecond(corpusBytes, tarNanos[format.ordinal()]),
+                            100.0 * tarSizes[format.ordinal()] / corpusBytes);
+                }
+            }
+            // Compressing the stream as a whole shares one dictionary across the small files
+            assertTrue(tarSizes[ArchiveFormat.TAR_ZST.ordinal()] < zipSize, "tar.zst should be smaller than zip");
+            assertTrue(tarSizes[ArchiveFormat.TAR_GZ.ordinal()] < zipSize, "tar.gz should be smaller than zip");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long tar(TarServiceImpl tarService, ArchiveFormat format, List<byte[]> corpus) throws IOException {
+        CountingOutputStream countingOutputStream = new CountingOutputStream(NullOutputStream.INSTANCE);
+        try (TarArchiveOutputStream tos = tarService.createTarOutputStream(countingOutputStream, format, ZipCompressionPolicy.DEFAULT)) {
+            for (int i = 0; i < corpus.size(); i++) {
+                byte[] content = corpus.get(i);
+                tarService.addFileToTar(tos, "file" + i + ".txt", 0, content.length, entryStream -> entryStream.write(content));
+            }
+        }
+        return countingOutputStream.getByteCount();
+    }
+
+    private static List<byte[]> syntheticCorpus() {
+        Random random = new Random(7);
+        List<byte[]> corpus = new ArrayList<>();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            corpus.add(BenchmarkCorpus.text(random, 256 + random.nextInt(MAX_FILE_SIZE_BYTES - 256)));
+        }
+        return corpus;
+    }
+}
@@ -0,0 +1,57 @@
+package com.strac.service.file;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.strac.service.file.ZipCompressionPolicy;
+import org.strac.service.file.ZipService;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Synthetic content and measurements shared by the archive benchmarks.
+ */
+final class BenchmarkCorpus {
+    private static final String[] WORDS = {"exam", "student", "grade", "answer", "question", "drive", "folder", "report", "score", "term"};
+    private static final int WRITE_BUFFER_BYTES = 8192;
+
+    private BenchmarkCorpus() {
+    }
+
+    /**
+     * Lines of words and numbers, which compress about as well as the documents students upload.
+     */
+    static byte[] text(Random random, int size) {
+        StringBuilder text = new StringBuilder(size + 32);
+        while (text.length() < size) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ').append(random.nextInt(100_000)).append('\n');
+        }
+        return text.substring(0, size).getBytes();
+    }
+
+    /**
+     * Zip the files, written in buffer sized pieces as a download arrives.
+     *
+     * @return The size of the zip in bytes.
+     */
+    static long zip(ZipService zipService, List<byte[]> corpus, String mimeType) throws IOException {
+        CountingOutputStream countingOutputStream = new CountingOutputStream(NullOutputStream.INSTANCE);
+        try (ZipOutputStream zos = zipService.createZipOutputStream(countingOutputStream)) {
+            for (int i = 0; i < corpus.size(); i++) {
+                byte[] content = corpus.get(i);
+                zipService.addFileToZip(zos, "file" + i, mimeType, 0, ZipCompressionPolicy.DEFAULT, entryStream -> {
+                    for (int offset = 0; offset < content.length; offset += WRITE_BUFFER_BYTES) {
+                        entryStream.write(content, offset, Math.min(WRITE_BUFFER_BYTES, content.length - offset));
+                    }
+                });
+            }
+        }
+        return countingOutputStream.getByteCount();
+    }
+
+    static double megabytesPerSecond(long bytes, long nanos) {
+        return bytes / 1_048_576.0 / (nanos / 1_000_000_000.0);
+    }
+}
@@ -0,0 +1,87 @@
+package com.strac.service.file;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.strac.service.file.ParallelDeflateZipServiceImpl;
+import org.strac.service.file.ZipMetrics;
+import org.strac.service.file.ZipService;
+import org.strac.service.file.ZipServiceImpl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares single threaded deflate with parallel deflate on a synthetic corpus of compressible text and incompressible
+ * binary files. Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+public class ParallelDeflateZipBenchmarkTest {
+    private static final int FILE_COUNT = 48;
+    private static final int FILE_SIZE_BYTES = 4 * 1024 * 1024;
+    private static final int ROUNDS = 3;
+
+    @Test
+    void benchmarkParallelAgainstSingleThreadedDeflate() throws IOException {
+        List<byte[]> corpus = syntheticCorpus();
+        long corpusBytes = (long) FILE_COUNT * FILE_SIZE_BYTES;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        ZipServiceImpl serialZipService = new ZipServiceImpl(new ZipMetrics(new SimpleMeterRegistry()));
+        ExecutorService executor = Executors.newFixedThreadPool(cores);
+        try {
+            ZipService parallelZipService = new ParallelDeflateZipServiceImpl(new ZipMetrics(new SimpleMeterRegistry()),
+                    executor, 128 * 1024, 4 * cores);
+
+            // Warm up both paths before timing them
+            BenchmarkCorpus.zip(serialZipService, corpus, null);
+            BenchmarkCorpus.zip(parallelZipService, corpus, null);
+
+            long serialNanos = Long.MAX_VALUE;
+            long parallelNanos = Long.MAX_VALUE;
+            long serialSize = 0;
+            long parallelSize = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                serialSize = BenchmarkCorpus.zip(serialZipService, corpus, null);
+                serialNanos = Math.min(serialNanos, System.nanoTime() - start);
+                start = System.nanoTime();
+                parallelSize = BenchmarkCorpus.zip(parallelZipService, corpus, null);
+                parallelNanos = Math.min(parallelNanos, System.nanoTime() - start);
+            }
+
+            System.out.printf("Zip of %d MB on %d cores: single threaded %.0f MB/s (%d bytes), parallel %.0f MB/s (%d bytes), %.1fx%n",
+                    corpusBytes >> 20, cores, BenchmarkCorpus.megabytesPerSecond(corpusBytes, serialNanos), serialSize,
+                    BenchmarkCorpus.megabytesPerSecond(corpusBytes, parallelNanos), parallelSize, (double) serialNanos / parallelNanos);
+            // Chunks lose a little ratio at their boundaries, but nowhere near what they gain in speed
+            assertTrue(parallelSize < serialSize * 1.02, "Parallel deflate should compress about as well");
+            if (cores >= 4) {
+                assertTrue(parallelNanos * 2 < serialNanos, "Parallel deflate should be at least 2x faster on 4+ cores");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<byte[]> syntheticCorpus() {
+        Random random = new Random(7);
+        List<byte[]> corpus = new ArrayList<>();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            if (i % 4 == 3) {
+                // Every fourth file is incompressible, like media that wasn't recognised by its MIME type
+                byte[] content = new byte[FILE_SIZE_BYTES];
+                random.nextBytes(content);
+                corpus.add(content);
+            } else {
+                corpus.add(BenchmarkCorpus.text(random, FILE_SIZE_BYTES));
+            }
+        }
+        return corpus;
+    }
+}
@@ -0,0 +1,234 @@
+package com.strac.service.file;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.strac.service.file.ParallelDeflateZipServiceImpl;
+import org.strac.service.file.ZipCompressionPolicy;
+import org.strac.service.file.ZipMetrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelDeflateZipServiceTest {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private ExecutorService executor;
+    private ParallelDeflateZipServiceImpl zipService;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        // A small window makes the writer wait for chunks while later ones are still being deflated
+        zipService = new ParallelDeflateZipServiceImpl(new ZipMetrics(new SimpleMeterRegistry()), executor, CHUNK_SIZE, 3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testWritesValidOrderedZip() throws IOException {
+        // Arrange
+        Random random = new Random(42);
+        byte[] incompressible = new byte[5 * CHUNK_SIZE + 123];
+        random.nextBytes(incompressible);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 10 * CHUNK_SIZE) {
+            text.append("line ").append(random.nextInt(1000)).append(" of a fairly repetitive text file\n");
+        }
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put("empty.txt", new byte[0]);
+        contents.put("small.txt", "Hello, World!".getBytes());
+        contents.put("folder/large.txt", text.toString().getBytes());
+        contents.put("folder/random.bin", incompressible);
+        contents.put("exactly-one-chunk.bin", new byte[CHUNK_SIZE]);
+        contents.put("fotos/Zoë.jpg", incompressible);
+        CRC32 crc = new CRC32();
+        crc.update(incompressible);
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+
+        // Act
+        try (ZipOutputStream zos = zipService.createZipOutputStream(byteArrayOutputStream)) {
+            for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+                if (content.getKey().endsWith(".jpg")) {
+                    zipService.addFileToZip(zos, content.getKey(), "image/jpeg", -1, ZipCompressionPolicy.DEFAULT,
+                            incompressible.length, crc.getValue(), entryStream -> entryStream.write(content.getValue()));
+                } else {
+                    zipService.addFileToZip(zos, content.getKey(), "text/plain", -1, ZipCompressionPolicy.DEFAULT,
+                            entryStream -> {
+                                // Odd write sizes cut across chunk boundaries
+                                byte[] bytes = content.getValue();
+                                for (int offset = 0; offset < bytes.length; offset += 7777) {
+                                    entryStream.write(bytes, offset, Math.min(7777, bytes.length - offset));
+                                }
+                            });
+                }
+            }
+        }
+        byte[] zip = byteArrayOutputStream.toByteArray();
+
+        // Assert
+        // Read back both as a stream, through the local headers and data descriptors, and through the central directory
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+                ZipEntry entry = zis.getNextEntry();
+                assertNotNull(entry);
+                assertEquals(content.getKey(), entry.getName());
+                assertArrayEquals(content.getValue(), zis.readAllBytes());
+            }
+            assertNull(zis.getNextEntry());
+        }
+        try (ZipFile zipFile = zipFile(zip)) {
+            assertEquals(contents.size(), zipFile.size());
+            for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+                ZipEntry entry = zipFile.getEntry(content.getKey());
+                assertArrayEquals(content.getValue(), zipFile.getInputStream(entry).readAllBytes());
+            }
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("fotos/Zoë.jpg").getMethod());
+            assertTrue(zipFile.getEntry("folder/large.txt").getCompressedSize() < text.length() / 3);
+        }
+    }
+
+    @Test
+    void testStoredChunksWaitBehindAnUnfinishedDeflate() throws Exception {
+        // Arrange
+        // The only deflate thread is busy, so the deflated entry's chunk can't finish until the gate opens
+        ExecutorService busyExecutor = Executors.newSingleThreadExecutor();
+        CountDownLatch gate = new CountDownLatch(1);
+        busyExecutor.submit(() -> {
+            gate.await();
+            return null;
+        });
+        ParallelDeflateZipServiceImpl busyZipService = new ParallelDeflateZipServiceImpl(new ZipMetrics(new SimpleMeterRegistry()),
+                busyExecutor, CHUNK_SIZE, 3);
+        byte[] photo = new byte[10 * CHUNK_SIZE];
+        new Random(42).nextBytes(photo);
+        CRC32 crc = new CRC32();
+        crc.update(photo);
+        AtomicInteger photoChunksWritten = new AtomicInteger();
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        Thread writer = new Thread(() -> {
+            try (ZipOutputStream zos = busyZipService.createZipOutputStream(byteArrayOutputStream)) {
+                busyZipService.addFileToZip(zos, "notes.txt", entryStream -> entryStream.write("Hello, World!".getBytes()));
+                busyZipService.addFileToZip(zos, "photo.jpg", "image/jpeg", -1, ZipCompressionPolicy.DEFAULT,
+                        photo.length, crc.getValue(), entryStream -> {
+                            for (int offset = 0; offset < photo.length; offset += CHUNK_SIZE) {
+                                entryStream.write(photo, offset, CHUNK_SIZE);
+                                photoChunksWritten.incrementAndGet();
+                            }
+                        });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        // Act
+        try {
+            writer.start();
+            while (writer.getState() != Thread.State.WAITING) {
+                Thread.sleep(10);
+            }
+
+            // Assert
+            assertTrue(photoChunksWritten.get() < 3, "Stored chunks should count against the limit of buffered chunks");
+            gate.countDown();
+            writer.join(5000);
+            assertFalse(writer.isAlive());
+            assertEquals(10, photoChunksWritten.get());
+            try (ZipFile zipFile = zipFile(byteArrayOutputStream.toByteArray())) {
+                assertArrayEquals(photo, zipFile.getInputStream(zipFile.getEntry("photo.jpg")).readAllBytes());
+            }
+        } finally {
+            gate.countDown();
+            busyExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testRecordsRatioOnceDeflatedEntryIsWritten() throws IOException {
+        // Arrange
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ParallelDeflateZipServiceImpl measuredZipService = new ParallelDeflateZipServiceImpl(new ZipMetrics(meterRegistry),
+                executor, CHUNK_SIZE, 3);
+        byte[] text = "a fairly repetitive line of text\n".repeat(20_000).getBytes(StandardCharsets.UTF_8);
+
+        // Act
+        try (ZipOutputStream zos = measuredZipService.createZipOutputStream(new ByteArrayOutputStream())) {
+            measuredZipService.addFileToZip(zos, "first.txt", "text/plain", -1, ZipCompressionPolicy.DEFAULT,
+                    entryStream -> entryStream.write(text));
+            measuredZipService.addFileToZip(zos, "second.txt", "text/plain", -1, ZipCompressionPolicy.DEFAULT,
+                    entryStream -> entryStream.write(text));
+        }
+
+        // Assert
+        // The compressed sizes are only known once the chunks are deflated, after each entry is closed
+        assertEquals(2, meterRegistry.get("strac.zip.entry.ratio").tags("method", "deflated", "level", "default").summary().count());
+        assertTrue(meterRegistry.get("strac.zip.entry.ratio").tags("method", "deflated", "level", "default").summary().max() < 0.1);
+    }
+
+    @Test
+    void testRejectsDuplicateEntries() throws IOException {
+        // Arrange
+        try (ZipOutputStream zos = zipService.createZipOutputStream(new ByteArrayOutputStream())) {
+            zipService.addFileToZip(zos, "file.txt", entryStream -> entryStream.write(1));
+
+            // Act & Assert
+            assertThrows(ZipException.class, () -> zipService.addFileToZip(zos, "file.txt", entryStream -> entryStream.write(2)));
+        }
+    }
+
+    @Test
+    void testWritesZip64ForManyEntries() throws IOException {
+        // Arrange
+        int entryCount = 70_000;
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+
+        // Act
+        try (ZipOutputStream zos = zipService.createZipOutputStream(byteArrayOutputStream)) {
+            for (int i = 0; i < entryCount; i++) {
+                String name = "file" + i + ".txt";
+                zipService.addFileToZip(zos, name, entryStream -> entryStream.write(name.getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+
+        // Assert
+        // More entries than the classic end record can count
+        try (ZipFile zipFile = zipFile(byteArrayOutputStream.toByteArray())) {
+            assertEquals(entryCount, zipFile.size());
+            ZipEntry last = zipFile.getEntry("file" + (entryCount - 1) + ".txt");
+            assertEquals("file" + (entryCount - 1) + ".txt", new String(zipFile.getInputStream(last).readAllBytes()));
+        }
+    }
+
+    private static ZipFile zipFile(byte[] content) throws IOException {
+        File tempZip = File.createTempFile("strac-zip-test-", ".zip");
+        tempZip.deleteOnExit();
+        try (FileOutputStream fos = new FileOutputStream(tempZip)) {
+            fos.write(content);
+        }
+        return new ZipFile(tempZip);
+    }
+}
@@ -0,0 +1,216 @@
+package com.strac.service.file;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.strac.service.file.StoredZipContent;
+import org.strac.service.file.StoredZipLayout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StoredZipLayoutTest {
+
+    @TempDir
+    Path tempDirectory;
+
+    @Test
+    void testWritesZipOfPrecomputedLength() throws IOException {
+        // Arrange
+        List<byte[]> contents = List.of("Hello, World!".getBytes(), new byte[0], randomBytes(100_000));
+        StoredZipLayout layout = new StoredZipLayout(List.of(
+                new StoredZipLayout.Entry("hello.txt", contents.get(0).length, 1_700_000_000_000L),
+                new StoredZipLayout.Entry("folder/empty.txt", 0, -1),
+                new StoredZipLayout.Entry("fotos/Zoë.jpg", contents.get(2).length, 1_700_000_000_000L)));
+        RecordingContent content = new RecordingContent(contents);
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+
+        // Act
+        layout.writeTo(content, zip);
+
+        // Assert
+        assertEquals(layout.getLength(), zip.size());
+        assertEquals(0, content.crcRequests);
+        Path zipFile = Files.write(tempDirectory.resolve("layout.zip"), zip.toByteArray());
+        try (ZipFile readZip = new ZipFile(zipFile.toFile())) {
+            assertEquals(3, readZip.size());
+            for (int i = 0; i < contents.size(); i++) {
+                ZipEntry entry = readZip.getEntry(layout.getEntries().get(i).name());
+                assertEquals(ZipEntry.STORED, entry.getMethod());
+                assertEquals(crc(contents.get(i)), entry.getCrc());
+                assertArrayEquals(contents.get(i), readZip.getInputStream(entry).readAllBytes());
+            }
+            assertEquals(1_700_000_000_000L / 2000, readZip.getEntry("hello.txt").getTime() / 2000);
+        }
+    }
+
+    @Test
+    void testRangesMatchTheWholeZip() throws IOException {
+        // Arrange
+        List<byte[]> contents = List.of(randomBytes(5000), randomBytes(1), new byte[0], randomBytes(20_000));
+        List<StoredZipLayout.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < contents.size(); i++) {
+            entries.add(new StoredZipLayout.Entry("file" + i + ".bin", contents.get(i).length, 1_700_000_000_000L));
+        }
+        StoredZipLayout layout = new StoredZipLayout(entries);
+        ByteArrayOutputStream wholeZip = new ByteArrayOutputStream();
+        layout.writeTo(new RecordingContent(contents), wholeZip);
+        Random random = new Random(7);
+
+        for (int i = 0; i < 200; i++) {
+            long first = random.nextInt((int) layout.getLength());
+            long last = first + random.nextInt((int) (layout.getLength() - first));
+            ByteArrayOutputStream range = new ByteArrayOutputStream();
+
+            // Act
+            layout.writeRange(first, last, new RecordingContent(contents), range);
+
+            // Assert
+            assertArrayEquals(Arrays.copyOfRange(wholeZip.toByteArray(), (int) first, (int) last + 1), range.toByteArray(),
+                    "bytes " + first + "-" + last);
+        }
+    }
+
+    @Test
+    void testRangeOnlyReadsTheContentItCovers() throws IOException {
+        // Arrange
+        List<byte[]> contents = List.of(randomBytes(5000), randomBytes(5000));
+        StoredZipLayout layout = new StoredZipLayout(List.of(
+                new StoredZipLayout.Entry("a.bin", 5000, 0),
+                new StoredZipLayout.Entry("b.bin", 5000, 0)));
+        RecordingContent middleContent = new RecordingContent(contents);
+        RecordingContent tailContent = new RecordingContent(contents);
+
+        // Act
+        layout.writeRange(100, 199, middleContent, new ByteArrayOutputStream());
+        layout.writeRange(layout.getLength() - 50, layout.getLength() - 1, tailContent, new ByteArrayOutputStream());
+
+        // Assert
+        assertEquals(0, middleContent.wholeEntryReads);
+        assertEquals(List.of("0:" + (100 - 35) + "-" + (199 - 35)), middleContent.rangeReads);
+        assertEquals(0, middleContent.crcRequests);
+        // The end of the central directory holds the last entry's header, which needs its checksum
+        assertEquals(0, tailContent.wholeEntryReads);
+        assertTrue(tailContent.rangeReads.isEmpty());
+        assertEquals(1, tailContent.crcRequests);
+    }
+
+    @Test
+    void testLoadsChecksumsOfEntriesNotWrittenInFullUpFront() throws IOException {
+        // Arrange
+        List<byte[]> contents = List.of(randomBytes(100), randomBytes(50), new byte[0], randomBytes(30));
+        StoredZipLayout layout = new StoredZipLayout(List.of(
+                new StoredZipLayout.Entry("a.bin", 100, 0),
+                new StoredZipLayout.Entry("b.bin", 50, 0),
+                new StoredZipLayout.Entry("c.bin", 0, 0),
+                new StoredZipLayout.Entry("d.bin", 30, 0)));
+        RecordingContent content = new RecordingContent(contents);
+
+        // Act
+        // From the middle of the first entry to the end, as a resumed download would ask
+        layout.writeRange(60, layout.getLength() - 1, content, new ByteArrayOutputStream());
+
+        // Assert
+        // Only the first entry's checksum can't be worked out from its content, the empty entry has none to work out
+        assertEquals(List.of(List.of(0)), content.crcLoads);
+        assertEquals(1, content.crcRequests);
+    }
+
+    @Test
+    void testRejectsContentOfAnotherSize() {
+        // Arrange
+        StoredZipLayout layout = new StoredZipLayout(List.of(new StoredZipLayout.Entry("a.txt", 10, 0)));
+        RecordingContent content = new RecordingContent(List.of("too short".getBytes()));
+
+        // Act & Assert
+        assertThrows(ZipException.class, () -> layout.writeTo(content, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void testWritesZip64ForManyEntries() throws IOException {
+        // Arrange
+        List<StoredZipLayout.Entry> entries = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < 70_000; i++) {
+            entries.add(new StoredZipLayout.Entry("file" + i + ".txt", 1, 0));
+            contents.add(new byte[]{(byte) i});
+        }
+        StoredZipLayout layout = new StoredZipLayout(entries);
+        Path zipFile = tempDirectory.resolve("many.zip");
+
+        // Act
+        try (OutputStream outputStream = Files.newOutputStream(zipFile)) {
+            layout.writeTo(new RecordingContent(contents), outputStream);
+        }
+
+        // Assert
+        assertEquals(layout.getLength(), Files.size(zipFile));
+        try (ZipFile readZip = new ZipFile(zipFile.toFile())) {
+            assertEquals(70_000, readZip.size());
+            ZipEntry lastEntry = readZip.getEntry("file69999.txt");
+            assertArrayEquals(new byte[]{(byte) 69_999}, readZip.getInputStream(lastEntry).readAllBytes());
+        }
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    /**
+     * Serves entry contents from memory, recording what the layout reads.
+     */
+    private static class RecordingContent implements StoredZipContent {
+        private final List<byte[]> contents;
+        private final List<String> rangeReads = new ArrayList<>();
+        private final List<List<Integer>> crcLoads = new ArrayList<>();
+        private int wholeEntryReads;
+        private int crcRequests;
+
+        RecordingContent(List<byte[]> contents) {
+            this.contents = contents;
+        }
+
+        @Override
+        public void writeEntry(int index, OutputStream outputStream) throws IOException {
+            wholeEntryReads++;
+            outputStream.write(contents.get(index));
+        }
+
+        @Override
+        public void writeEntryRange(int index, long firstBytePos, long lastBytePos, OutputStream outputStream) throws IOException {
+            rangeReads.add(index + ":" + firstBytePos + "-" + lastBytePos);
+            outputStream.write(contents.get(index), (int) firstBytePos, (int) (lastBytePos - firstBytePos + 1));
+        }
+
+        @Override
+        public long crc32(int index) {
+            crcRequests++;
+            return crc(contents.get(index));
+        }
+
+        @Override
+        public void loadCrc32s(int[] indexes) {
+            crcLoads.add(Arrays.stream(indexes).boxed().toList());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.strac.service.file;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.junit.jupiter.api.Test;
+import org.strac.service.file.ArchiveFormat;
+import org.strac.service.file.TarServiceImpl;
+import org.strac.service.file.ZipCompressionPolicy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TarServiceTest {
+
+    @Test
+    void testTarFormatsRoundTrip() throws IOException {
+        byte[] notes = "Hello, World!\n".repeat(1000).getBytes();
+        byte[] photo = new byte[50_000];
+        new Random(7).nextBytes(photo);
+        // A long path with a name that isn't ASCII needs PAX headers
+        String longPath = "exams/" + "subfolder/".repeat(12) + "Zoë.jpg";
+
+        for (ArchiveFormat format : new ArchiveFormat[]{ArchiveFormat.TAR, ArchiveFormat.TAR_GZ, ArchiveFormat.TAR_ZST}) {
+            // Arrange
+            TarServiceImpl tarService = new TarServiceImpl();
+            ByteArrayOutputStream tar = new ByteArrayOutputStream();
+
+            // Act
+            try (var tos = tarService.createTarOutputStream(tar, format, ZipCompressionPolicy.DEFAULT)) {
+                tarService.addFileToTar(tos, "notes.txt", 1_700_000_000_000L, notes.length,
+                        entryStream -> entryStream.write(notes));
+                tarService.addFileToTar(tos, longPath, 1_700_000_000_000L, entryStream -> entryStream.write(photo));
+            }
+
+            // Assert
+            try (TarArchiveInputStream tis = new TarArchiveInputStream(decompress(format, tar.toByteArray()))) {
+                TarArchiveEntry entry = tis.getNextEntry();
+                assertEquals("notes.txt", entry.getName(), format.getExtension());
+                assertEquals(1_700_000_000_000L / 1000, entry.getModTime().getTime() / 1000);
+                assertArrayEquals(notes, tis.readAllBytes());
+                entry = tis.getNextEntry();
+                assertEquals(longPath, entry.getName(), format.getExtension());
+                assertEquals(photo.length, entry.getSize());
+                assertArrayEquals(photo, tis.readAllBytes());
+                assertNull(tis.getNextEntry());
+            }
+            if (format != ArchiveFormat.TAR) {
+                assertTrue(tar.size() < notes.length + photo.length, format.getExtension() + " should compress the notes");
+            }
+        }
+    }
+
+    @Test
+    void testUnknownSizeIsSpilledAndCleanedUp() throws IOException {
+        // Arrange
+        // A 16 byte threshold spills the content to a temp file
+        TarServiceImpl tarService = new TarServiceImpl(16);
+        byte[] content = "content longer than the threshold".getBytes();
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+
+        // Act
+        try (var tos = tarService.createTarOutputStream(tar, ArchiveFormat.TAR, ZipCompressionPolicy.DEFAULT)) {
+            tarService.addFileToTar(tos, "spilled.txt", -1, entryStream -> entryStream.write(content));
+        }
+
+        // Assert
+        try (TarArchiveInputStream tis = new TarArchiveInputStream(new ByteArrayInputStream(tar.toByteArray()))) {
+            assertEquals(content.length, tis.getNextEntry().getSize());
+            assertArrayEquals(content, tis.readAllBytes());
+        }
+    }
+
+    @Test
+    void testRejectsContentShorterThanItsSize() throws IOException {
+        // Arrange
+        TarServiceImpl tarService = new TarServiceImpl();
+
+        // Act & Assert
+        try (var tos = tarService.createTarOutputStream(new ByteArrayOutputStream(), ArchiveFormat.TAR, ZipCompressionPolicy.DEFAULT)) {
+            assertThrows(IOException.class, () -> tarService.addFileToTar(tos, "short.txt", -1, 10,
+                    entryStream -> entryStream.write("short".getBytes())));
+        } catch (IOException ignored) {
+            // Closing the tar after the failed entry fails too
+        }
+    }
+
+    @Test
+    void testRejectsZip() {
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> new TarServiceImpl()
+                .createTarOutputStream(new ByteArrayOutputStream(), ArchiveFormat.ZIP, ZipCompressionPolicy.DEFAULT));
+    }
+
+    private static InputStream decompress(ArchiveFormat format, byte[] archive) throws IOException {
+        InputStream inputStream = new ByteArrayInputStream(archive);
+        return switch (format) {
+            case TAR_GZ -> new GzipCompressorInputStream(inputStream);
+            case TAR_ZST -> new ZstdCompressorInputStream(inputStream);
+            default -> inputStream;
+        };
+    }
+}
@@ -1,13 +1,21 @@
 package com.strac.service.file;
 
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.strac.service.file.ZipCompressionPolicy;
+import org.strac.service.file.ZipMetrics;
 import org.strac.service.file.ZipServiceImpl;
 
 import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
@@ -96,6 +104,107 @@ public class ZipServiceTest {
         assertTrue(resultBytes.length > 0, "The zip content should have data.");
     }
 
+    @Test
+    void testAddFileToZipFromWriter() throws IOException {
+        // Arrange
+        ZipServiceImpl zipService = new ZipServiceImpl();
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+
+        // Act
+        try (ZipOutputStream zos = new ZipOutputStream(byteArrayOutputStream)) {
+            zipService.addFileToZip(zos, "first.txt", entryStream -> {
+                entryStream.write("Hello".getBytes());
+                entryStream.close();  // A writer closing its stream must not end the archive
+            });
+            zipService.addFileToZip(zos, "second.txt", entryStream -> entryStream.write("World".getBytes()));
+        }
+
+        // Assert
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()))) {
+            assertEquals("first.txt", zis.getNextEntry().getName());
+            assertEquals("Hello", new String(zis.readAllBytes()));
+            assertEquals("second.txt", zis.getNextEntry().getName());
+            assertEquals("World", new String(zis.readAllBytes()));
+            assertNull(zis.getNextEntry());
+        }
+    }
+
+    @Test
+    void testAddFileToZipStoresCompressedContent() throws IOException {
+        // Arrange
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ZipServiceImpl zipService = new ZipServiceImpl(new ZipMetrics(meterRegistry));
+        byte[] photo = "pretend this is a JPEG ".repeat(100).getBytes();
+        byte[] text = "Hello, World! ".repeat(100).getBytes();
+        CRC32 photoCrc = new CRC32();
+        photoCrc.update(photo);
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+
+        // Act
+        try (ZipOutputStream zos = new ZipOutputStream(byteArrayOutputStream)) {
+            zipService.addFileToZip(zos, "photo.jpg", "image/jpeg", -1, ZipCompressionPolicy.DEFAULT,
+                    photo.length, photoCrc.getValue(), entryStream -> entryStream.write(photo));
+            zipService.addFileToZip(zos, "streamed.jpg", "image/jpeg", -1, ZipCompressionPolicy.DEFAULT,
+                    entryStream -> entryStream.write(photo));
+            zipService.addFileToZip(zos, "notes.txt", "text/plain; charset=UTF-8", -1, ZipCompressionPolicy.DEFAULT,
+                    text.length, 0, entryStream -> entryStream.write(text));
+        }
+
+        // Assert
+        Map<String, ZipEntry> entries = new HashMap<>();
+        try (ZipFile zipFile = zipFile(byteArrayOutputStream.toByteArray())) {
+            zipFile.stream().forEach(entry -> entries.put(entry.getName(), entry));
+            assertArrayEquals(photo, zipFile.getInputStream(entries.get("streamed.jpg")).readAllBytes());
+        }
+        assertEquals(ZipEntry.STORED, entries.get("photo.jpg").getMethod());
+        assertEquals(photo.length, entries.get("photo.jpg").getCompressedSize());
+        // Streamed content has no checksum upfront, so it is deflated without compression instead
+        assertEquals(ZipEntry.DEFLATED, entries.get("streamed.jpg").getMethod());
+        assertTrue(entries.get("streamed.jpg").getCompressedSize() >= photo.length);
+        assertEquals(ZipEntry.DEFLATED, entries.get("notes.txt").getMethod());
+        assertTrue(entries.get("notes.txt").getCompressedSize() < text.length / 10);
+
+        assertEquals(1, meterRegistry.get("strac.zip.entry.ratio").tag("method", "stored").summary().count());
+        // The streamed entry is tagged with what the zip records, a deflate at level 0
+        assertEquals(1, meterRegistry.get("strac.zip.entry.ratio").tags("method", "deflated", "level", "0").summary().count());
+        assertEquals(1, meterRegistry.get("strac.zip.entry.ratio").tags("method", "deflated", "level", "default").summary().count());
+        assertTrue(meterRegistry.get("strac.zip.entry.ratio").tags("method", "deflated", "level", "default").summary().max() < 0.1);
+        assertEquals(3, meterRegistry.get("strac.zip.entry.cpu").timers().stream().mapToLong(Timer::count).sum());
+    }
+
+    @Test
+    void testAddFileToZipAtLevelZeroStoresEverything() throws IOException {
+        // Arrange
+        ZipServiceImpl zipService = new ZipServiceImpl();
+        byte[] text = "Hello, World! ".repeat(100).getBytes();
+        CRC32 textCrc = new CRC32();
+        textCrc.update(text);
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+
+        // Act
+        try (ZipOutputStream zos = new ZipOutputStream(byteArrayOutputStream)) {
+            zipService.addFileToZip(zos, "notes.txt", "text/plain", -1, ZipCompressionPolicy.withLevel(0),
+                    text.length, textCrc.getValue(), entryStream -> entryStream.write(text));
+        }
+
+        // Assert
+        try (ZipFile zipFile = zipFile(byteArrayOutputStream.toByteArray())) {
+            ZipEntry entry = zipFile.getEntry("notes.txt");
+            assertEquals(ZipEntry.STORED, entry.getMethod());
+            assertArrayEquals(text, zipFile.getInputStream(entry).readAllBytes());
+        }
+        assertThrows(IllegalArgumentException.class, () -> ZipCompressionPolicy.withLevel(10));
+    }
+
+    private static ZipFile zipFile(byte[] content) throws IOException {
+        File tempZip = File.createTempFile("strac-zip-test-", ".zip");
+        tempZip.deleteOnExit();
+        try (FileOutputStream fos = new FileOutputStream(tempZip)) {
+            fos.write(content);
+        }
+        return new ZipFile(tempZip);
+    }
+
     @Test
     void testDeleteFolder() {
         // Arrange
@@ -0,0 +1,72 @@
+package com.strac.service.token;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.strac.cache.ExpiringLruCache;
+import org.strac.dao.token.GoogleAccessTokenRefreshDao;
+import org.strac.model.GoogleAccessTokenInfo;
+import org.strac.model.RefreshedAccessToken;
+import org.strac.service.token.GoogleAccessTokenRefreshServiceImpl;
+import org.strac.service.token.GoogleAccessTokenValidationService;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class GoogleAccessTokenRefreshServiceTest {
+
+    @Mock
+    private GoogleAccessTokenRefreshDao googleAccessTokenRefreshDao;
+
+    @Mock
+    private GoogleAccessTokenValidationService googleAccessTokenValidationService;
+
+    private GoogleAccessTokenRefreshServiceImpl googleAccessTokenRefreshService;
+
+    private String refreshToken = "mockRefreshToken";
+
+    @BeforeEach
+    void setUp() {
+        googleAccessTokenRefreshService = new GoogleAccessTokenRefreshServiceImpl(googleAccessTokenRefreshDao,
+                googleAccessTokenValidationService, new ExpiringLruCache<>(100), Duration.ofSeconds(60));
+    }
+
+    @Test
+    void testRefreshedTokenIsReusedAndPrimesValidationCache() {
+        // Arrange
+        RefreshedAccessToken refreshed = new RefreshedAccessToken("newAccessToken", "scope", Instant.now().plusSeconds(3600));
+        when(googleAccessTokenRefreshDao.refreshAccessTokenWithExpiry(refreshToken)).thenReturn(refreshed);
+
+        // Act
+        RefreshedAccessToken first = googleAccessTokenRefreshService.refreshAccessToken(refreshToken);
+        RefreshedAccessToken second = googleAccessTokenRefreshService.refreshAccessToken(refreshToken);
+
+        // Assert
+        assertEquals("newAccessToken", first.getAccessToken());
+        assertSame(first, second);
+        verify(googleAccessTokenRefreshDao, times(1)).refreshAccessTokenWithExpiry(refreshToken);
+        verify(googleAccessTokenValidationService).cacheValidToken(eq("newAccessToken"), any(GoogleAccessTokenInfo.class));
+    }
+
+    @Test
+    void testTokenCloseToExpiryIsNotReused() {
+        // Arrange
+        RefreshedAccessToken refreshed = new RefreshedAccessToken("newAccessToken", "scope", Instant.now().plusSeconds(30));
+        when(googleAccessTokenRefreshDao.refreshAccessTokenWithExpiry(refreshToken)).thenReturn(refreshed);
+
+        // Act
+        googleAccessTokenRefreshService.refreshAccessToken(refreshToken);
+        googleAccessTokenRefreshService.refreshAccessToken(refreshToken);
+
+        // Assert
+        verify(googleAccessTokenRefreshDao, times(2)).refreshAccessTokenWithExpiry(refreshToken);
+    }
+}
@@ -0,0 +1,99 @@
+package com.strac.service.token;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.strac.cache.ExpiringLruCache;
+import org.strac.dao.token.GoogleAccessTokenValidatorDao;
+import org.strac.model.GoogleAccessTokenInfo;
+import org.strac.service.token.GoogleAccessTokenValidationServiceImpl;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class GoogleAccessTokenValidationServiceTest {
+
+    @Mock
+    private GoogleAccessTokenValidatorDao googleAccessTokenValidatorDao;
+
+    private GoogleAccessTokenValidationServiceImpl googleAccessTokenValidationService;
+
+    private String accessToken = "mockAccessToken";
+
+    @BeforeEach
+    void setUp() {
+        googleAccessTokenValidationService = new GoogleAccessTokenValidationServiceImpl(googleAccessTokenValidatorDao,
+                new ExpiringLruCache<>(100), new ExpiringLruCache<>(100), Duration.ofSeconds(30));
+    }
+
+    @Test
+    void testValidTokenIsCached() {
+        // Arrange
+        GoogleAccessTokenInfo tokenInfo = new GoogleAccessTokenInfo("sub", "scope", Instant.now().plusSeconds(3600));
+        when(googleAccessTokenValidatorDao.getGoogleAccessTokenInfoAsync(accessToken))
+                .thenReturn(CompletableFuture.completedFuture(tokenInfo));
+
+        // Act
+        boolean firstResult = googleAccessTokenValidationService.validateAccessToken(accessToken);
+        boolean secondResult = googleAccessTokenValidationService.validateAccessToken(accessToken);
+
+        // Assert
+        assertTrue(firstResult);
+        assertTrue(secondResult);
+        assertTrue(googleAccessTokenValidationService.isValidationCached(accessToken));
+        verify(googleAccessTokenValidatorDao, times(1)).getGoogleAccessTokenInfoAsync(accessToken);
+    }
+
+    @Test
+    void testExpiredTokenIsNotCached() {
+        // Arrange
+        GoogleAccessTokenInfo tokenInfo = new GoogleAccessTokenInfo("sub", "scope", Instant.now().minusSeconds(1));
+        when(googleAccessTokenValidatorDao.getGoogleAccessTokenInfoAsync(accessToken))
+                .thenReturn(CompletableFuture.completedFuture(tokenInfo));
+
+        // Act
+        googleAccessTokenValidationService.validateAccessToken(accessToken);
+        googleAccessTokenValidationService.validateAccessToken(accessToken);
+
+        // Assert
+        verify(googleAccessTokenValidatorDao, times(2)).getGoogleAccessTokenInfoAsync(accessToken);
+    }
+
+    @Test
+    void testRejectedTokenIsCached() {
+        // Arrange
+        when(googleAccessTokenValidatorDao.getGoogleAccessTokenInfoAsync(accessToken))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        // Act
+        boolean firstResult = googleAccessTokenValidationService.validateAccessToken(accessToken);
+        boolean secondResult = googleAccessTokenValidationService.validateAccessToken(accessToken);
+
+        // Assert
+        assertFalse(firstResult);
+        assertFalse(secondResult);
+        assertTrue(googleAccessTokenValidationService.isValidationCached(accessToken));
+        verify(googleAccessTokenValidatorDao, times(1)).getGoogleAccessTokenInfoAsync(accessToken);
+    }
+
+    @Test
+    void testUpstreamFailureIsNotCached() {
+        // Arrange
+        when(googleAccessTokenValidatorDao.getGoogleAccessTokenInfoAsync(accessToken))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("tokeninfo unavailable")));
+
+        // Act
+        boolean result = googleAccessTokenValidationService.validateAccessToken(accessToken);
+
+        // Assert
+        assertFalse(result);
+        assertFalse(googleAccessTokenValidationService.isValidationCached(accessToken));
+    }
+}
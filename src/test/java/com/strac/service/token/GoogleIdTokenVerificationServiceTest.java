@@ -0,0 +1,93 @@
+package com.strac.service.token;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.JwkSet;
+import io.jsonwebtoken.security.Jwks;
+import io.jsonwebtoken.security.RsaPrivateJwk;
+import io.jsonwebtoken.security.RsaPublicJwk;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.strac.dao.token.GoogleJwksDao;
+import org.strac.service.token.GoogleIdTokenVerificationServiceImpl;
+
+import java.security.KeyPair;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class GoogleIdTokenVerificationServiceTest {
+
+    @Mock
+    private GoogleJwksDao googleJwksDao;
+
+    private GoogleIdTokenVerificationServiceImpl googleIdTokenVerificationService;
+
+    private KeyPair keyPair = Jwts.SIG.RS256.keyPair().build();
+    private String clientId = "mockClientId";
+
+    @BeforeEach
+    void setUp() {
+        googleIdTokenVerificationService = new GoogleIdTokenVerificationServiceImpl(googleJwksDao, clientId, Duration.ofHours(1));
+    }
+
+    @Test
+    void testValidIdTokenIsVerifiedWithCachedKeys() {
+        // Arrange
+        when(googleJwksDao.fetchGoogleJwks()).thenReturn(keySet("kid-1"));
+        String idToken = idToken("kid-1", "https://accounts.google.com", clientId);
+
+        // Act
+        Claims firstClaims = googleIdTokenVerificationService.verifyIdToken(idToken);
+        Claims secondClaims = googleIdTokenVerificationService.verifyIdToken(idToken);
+
+        // Assert
+        assertEquals("subject", firstClaims.getSubject());
+        assertEquals("subject", secondClaims.getSubject());
+        verify(googleJwksDao, times(1)).fetchGoogleJwks();
+    }
+
+    @Test
+    void testIdTokenForOtherAudienceIsRejected() {
+        // Arrange
+        when(googleJwksDao.fetchGoogleJwks()).thenReturn(keySet("kid-1"));
+        String idToken = idToken("kid-1", "https://accounts.google.com", "otherClientId");
+
+        // Act & Assert
+        assertNull(googleIdTokenVerificationService.verifyIdToken(idToken));
+    }
+
+    @Test
+    void testIdTokenFromOtherIssuerIsRejected() {
+        // Arrange
+        when(googleJwksDao.fetchGoogleJwks()).thenReturn(keySet("kid-1"));
+        String idToken = idToken("kid-1", "https://example.com", clientId);
+
+        // Act & Assert
+        assertNull(googleIdTokenVerificationService.verifyIdToken(idToken));
+    }
+
+    private JwkSet keySet(String keyId) {
+        RsaPublicJwk publicJwk = Jwks.builder().key((RSAPublicKey) keyPair.getPublic()).id(keyId).build();
+        return Jwks.set().add(publicJwk).build();
+    }
+
+    private String idToken(String keyId, String issuer, String audience) {
+        return Jwts.builder()
+                .header().keyId(keyId).and()
+                .issuer(issuer)
+                .audience().add(audience).and()
+                .subject("subject")
+                .expiration(Date.from(Instant.now().plusSeconds(3600)))
+                .signWith(keyPair.getPrivate())
+                .compact();
+    }
+}
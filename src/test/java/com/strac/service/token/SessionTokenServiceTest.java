@@ -0,0 +1,77 @@
+package com.strac.service.token;
+
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.Test;
+import org.strac.service.token.SessionTokenServiceImpl;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionTokenServiceTest {
+
+    private final SecretKey encryptionKey = Jwts.ENC.A256GCM.key().build();
+
+    @Test
+    void testIssuedTokenCarriesAccessToken() {
+        // Arrange
+        SessionTokenServiceImpl sessionTokenService = new SessionTokenServiceImpl(encryptionKey, Duration.ofMinutes(15));
+
+        // Act
+        String sessionToken = sessionTokenService.issueSessionToken("mockAccessToken", "subject", null);
+
+        // Assert
+        assertEquals("mockAccessToken", sessionTokenService.verifySessionToken(sessionToken));
+    }
+
+    @Test
+    void testAccessTokenCannotBeReadFromToken() {
+        // Arrange
+        SessionTokenServiceImpl sessionTokenService = new SessionTokenServiceImpl(encryptionKey, Duration.ofMinutes(15));
+
+        // Act
+        String sessionToken = sessionTokenService.issueSessionToken("mockAccessToken", "subject", null);
+
+        // Assert
+        for (String part : sessionToken.split("\\.")) {
+            String decoded = new String(Base64.getUrlDecoder().decode(part), StandardCharsets.ISO_8859_1);
+            assertFalse(decoded.contains("mockAccessToken"), "The access token must not be readable without the key");
+        }
+    }
+
+    @Test
+    void testTokenEncryptedWithOtherKeyIsRejected() {
+        // Arrange
+        SessionTokenServiceImpl issuer = new SessionTokenServiceImpl(Jwts.ENC.A256GCM.key().build(), Duration.ofMinutes(15));
+        SessionTokenServiceImpl verifier = new SessionTokenServiceImpl(encryptionKey, Duration.ofMinutes(15));
+
+        // Act
+        String sessionToken = issuer.issueSessionToken("mockAccessToken", "subject", null);
+
+        // Assert
+        assertNull(verifier.verifySessionToken(sessionToken));
+    }
+
+    @Test
+    void testTokenExpiresWithAccessToken() {
+        // Arrange
+        Instant now = Instant.parse("2024-01-01T00:00:00Z");
+        SessionTokenServiceImpl issuer = new SessionTokenServiceImpl(encryptionKey, Duration.ofMinutes(15),
+                Clock.fixed(now, ZoneOffset.UTC));
+        SessionTokenServiceImpl laterVerifier = new SessionTokenServiceImpl(encryptionKey, Duration.ofMinutes(15),
+                Clock.fixed(now.plusSeconds(120), ZoneOffset.UTC));
+
+        // Act
+        String sessionToken = issuer.issueSessionToken("mockAccessToken", "subject", now.plusSeconds(60));
+
+        // Assert
+        assertEquals("mockAccessToken", issuer.verifySessionToken(sessionToken));
+        assertNull(laterVerifier.verifySessionToken(sessionToken), "Session token should not outlive the access token");
+    }
+}